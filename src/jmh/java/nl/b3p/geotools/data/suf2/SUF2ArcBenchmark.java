@@ -0,0 +1,71 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import nl.b3p.suf2.SUF2Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Arcs per second created by {@link SUF2GeometryFactory#createArc}, for a
+ * small and a large radius and the different arc linearizations. Does not
+ * need a seed file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SUF2ArcBenchmark {
+
+    @Param({"0.2", "200"})
+    public double radius;
+    /**
+     * Number of segments for a full circle, or "t" followed by a tolerance.
+     */
+    @Param({"32", "t0.01", "curved"})
+    public String linearization;
+    private final GeometryFactory gf = new GeometryFactory(new PrecisionModel(100));
+    private SUF2ArcLinearization arcs;
+    private List<SUF2Coordinate> halfCircle;
+    private List<SUF2Coordinate> fullCircle;
+
+    @Setup
+    public void setUp() {
+        if (linearization.equals("curved")) {
+            arcs = SUF2ArcLinearization.DEFAULT.curved();
+        } else if (linearization.startsWith("t")) {
+            arcs = SUF2ArcLinearization.byTolerance(Double.parseDouble(linearization.substring(1)));
+        } else {
+            arcs = SUF2ArcLinearization.bySegments(Integer.parseInt(linearization));
+        }
+        double x = 155000.0;
+        double y = 463000.0;
+        halfCircle = Arrays.asList(new SUF2Coordinate(x - radius, y), new SUF2Coordinate(x, y + radius), new SUF2Coordinate(x + radius, y));
+        fullCircle = Arrays.asList(new SUF2Coordinate(x - radius, y), new SUF2Coordinate(x + radius, y), new SUF2Coordinate(x - radius, y));
+    }
+
+    @Benchmark
+    public Geometry halfCircle() throws Exception {
+        return SUF2GeometryFactory.createArc(gf, halfCircle, arcs);
+    }
+
+    @Benchmark
+    public Geometry fullCircle() throws Exception {
+        return SUF2GeometryFactory.createArc(gf, fullCircle, arcs);
+    }
+}
@@ -0,0 +1,273 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic SUF2 files for the benchmarks. A file has a single
+ * header (records 01 and 02) followed by a number of blocks. Every block is
+ * a square of {@value #BLOCK_SIZE} mm with the same mix of records: parcel
+ * boundaries and buildings (03 with 04 records), arcs, parcel numbers and
+ * street names (05 with 06 records) and symbols (05 records). The records are
+ * generated from a fixed seed, so every run and every machine reads the same
+ * file. Generated files are kept in the directory of system property
+ * {@code suf2.benchmark.dir} and reused.
+ */
+public class SUF2BenchmarkFiles {
+
+    public static final String DIR_PROPERTY = "suf2.benchmark.dir";
+    /**
+     * Changed when the generated records change, so old files are not reused.
+     */
+    private static final int VERSION = 1;
+    private static final long SEED = 1878;
+    private static final int RECORD_LENGTH = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long ORIGIN_X = 150000000;
+    private static final long ORIGIN_Y = 450000000;
+    private static final long BLOCK_SIZE = 100000;
+    private static final int BLOCKS_PER_ROW = 100;
+    private static final int PARCELS_PER_ROW = 5;
+    private static final int BUILDINGS = 10;
+    private static final int ARCS = 5;
+    private static final int STREETS = 5;
+    private static final int SYMBOLS = 5;
+    private static final char BEGIN = '1';
+    private static final char INTERMEDIATE = '2';
+    private static final char ARC = '3';
+    private static final char END = '4';
+
+    /**
+     * @return a file with copies blocks of records
+     */
+    public static File get(int copies) throws IOException {
+        File dir = new File(System.getProperty(DIR_PROPERTY, System.getProperty("java.io.tmpdir")));
+        File file = new File(dir, "suf2-v" + VERSION + "-x" + copies + ".nen");
+        if (!file.exists()) {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Kan map " + dir + " niet maken");
+            }
+            generate(file, copies);
+        }
+        return file;
+    }
+
+    public static void generate(File file, int copies) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tempFile.toPath()), StandardCharsets.US_ASCII), BUFFER_SIZE);
+        try {
+            Random random = new Random(SEED);
+            header(out, file.getName());
+            for (int c = 0; c < copies; c++) {
+                block(out, random, ORIGIN_X + (c % BLOCKS_PER_ROW) * BLOCK_SIZE, ORIGIN_Y + (c / BLOCKS_PER_ROW) * BLOCK_SIZE);
+            }
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Kan " + file + " niet vervangen");
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Kan " + file + " niet schrijven");
+        }
+    }
+
+    private static void header(Writer out, String name) throws IOException {
+        out.write(new Record("01")
+                .set(3, 2, "01")
+                .set(5, 1, "V")
+                .set(6, 8, "20200101")
+                .set(14, 8, "20200101")
+                .set(22, 2, "01")
+                .set(24, 2, "01")
+                .set(26, 20, name)
+                .toString());
+        out.write(new Record("02")
+                .set(3, 1, "1")
+                .set(4, 1, "1")
+                .set(5, 1, "1")
+                .set(6, 1, "1")
+                .set(7, 1, "1")
+                .set(8, 1, "0")
+                .set(9, 1, "0")
+                .set(10, 1, "0")
+                .set(11, 1, "0")
+                .set(12, 3, 1)
+                .set(15, 3, 1)
+                .toString());
+    }
+
+    private static void block(Writer out, Random random, long x, long y) throws IOException {
+        long parcel = BLOCK_SIZE / PARCELS_PER_ROW;
+        /* parcel boundaries, a grid with slightly moved vertices */
+        for (int row = 0; row <= PARCELS_PER_ROW; row++) {
+            long[] line = new long[(PARCELS_PER_ROW + 1) * 2];
+            for (int i = 0; i <= PARCELS_PER_ROW; i++) {
+                line[i * 2] = x + i * parcel;
+                line[i * 2 + 1] = y + row * parcel + (row == 0 || row == PARCELS_PER_ROW ? 0 : random.nextInt(1000) - 500);
+            }
+            line(out, "02", line, false);
+            long[] column = new long[(PARCELS_PER_ROW + 1) * 2];
+            for (int i = 0; i <= PARCELS_PER_ROW; i++) {
+                column[i * 2] = x + row * parcel + (row == 0 || row == PARCELS_PER_ROW ? 0 : random.nextInt(1000) - 500);
+                column[i * 2 + 1] = y + i * parcel;
+            }
+            line(out, "02", column, false);
+        }
+        /* buildings, closed lines */
+        for (int i = 0; i < BUILDINGS; i++) {
+            long bx = x + random.nextInt((int) (BLOCK_SIZE - 20000)) + 1000;
+            long by = y + random.nextInt((int) (BLOCK_SIZE - 20000)) + 1000;
+            long w = 5000 + random.nextInt(10000);
+            long h = 5000 + random.nextInt(10000);
+            line(out, "13", new long[]{bx, by, bx + w, by, bx + w, by + h, bx, by + h, bx, by}, false);
+        }
+        /* arcs, through a point on a circle */
+        for (int i = 0; i < ARCS; i++) {
+            long cx = x + 10000 + random.nextInt((int) (BLOCK_SIZE - 20000));
+            long cy = y + 10000 + random.nextInt((int) (BLOCK_SIZE - 20000));
+            long r = 2000 + random.nextInt(5000);
+            long d = Math.round(r / Math.sqrt(2));
+            line(out, "41", new long[]{cx - r, cy, cx - d, cy + d, cx, cy + r}, true);
+        }
+        /* parcel numbers */
+        for (int row = 0; row < PARCELS_PER_ROW; row++) {
+            for (int i = 0; i < PARCELS_PER_ROW; i++) {
+                long px = x + i * parcel + parcel / 2;
+                long py = y + row * parcel + parcel / 2;
+                String number = Integer.toString(1 + random.nextInt(9999));
+                text(out, "51", px, py, 0, number);
+            }
+        }
+        /* street names, rotated */
+        for (int i = 0; i < STREETS; i++) {
+            long sx = x + random.nextInt((int) BLOCK_SIZE);
+            long sy = y + random.nextInt((int) BLOCK_SIZE);
+            text(out, "54", sx, sy, random.nextInt(400000), "Straat " + (char) ('A' + random.nextInt(26)));
+        }
+        /* symbols */
+        for (int i = 0; i < SYMBOLS; i++) {
+            out.write(new Record("05")
+                    .set(3, 1, "S")
+                    .set(4, 2, "57")
+                    .set(6, 1, "B")
+                    .set(7, 1, "1")
+                    .set(8, 4, 1 + random.nextInt(20))
+                    .set(12, 1, "1")
+                    .toString());
+            coordinate(out, ' ', x + random.nextInt((int) BLOCK_SIZE), y + random.nextInt((int) BLOCK_SIZE));
+        }
+    }
+
+    /**
+     * A line object: an 03 record with the classification code followed by an
+     * 04 record per vertex, the middle vertex of an arc marked as arc point.
+     */
+    private static void line(Writer out, String code, long[] ordinates, boolean arc) throws IOException {
+        out.write(new Record("03")
+                .set(3, 2, code)
+                .set(5, 1, "G")
+                .set(6, 1, "1")
+                .set(7, 1, "1")
+                .set(8, 1, "B")
+                .set(9, 8, "20200101")
+                .set(17, 1, "K")
+                .set(18, 1, "1")
+                .toString());
+        int vertices = ordinates.length / 2;
+        for (int i = 0; i < vertices; i++) {
+            char function = i == 0 ? BEGIN : i == vertices - 1 ? END : arc ? ARC : INTERMEDIATE;
+            coordinate(out, function, ordinates[i * 2], ordinates[i * 2 + 1]);
+        }
+    }
+
+    /**
+     * A text object: an 05 record, an 04 record with the insertion point and
+     * an 06 record with the rotation in microgon and the text.
+     */
+    private static void text(Writer out, String code, long x, long y, int angle, String text) throws IOException {
+        out.write(new Record("05")
+                .set(3, 1, "T")
+                .set(4, 2, code)
+                .set(6, 1, "B")
+                .set(7, 1, "1")
+                .set(12, 1, "5")
+                .toString());
+        coordinate(out, ' ', x, y);
+        out.write(new Record("06")
+                .set(3, 6, angle)
+                .set(9, 2, text.length())
+                .set(11, 40, text)
+                .toString());
+    }
+
+    private static void coordinate(Writer out, char function, long x, long y) throws IOException {
+        out.write(new Record("04")
+                .set(3, 1, String.valueOf(function))
+                .set(4, 1, "1")
+                .set(5, 1, "1")
+                .set(6, 1, "1")
+                .set(7, 11, x)
+                .set(18, 11, y)
+                .toString());
+    }
+
+    /**
+     * A fixed length record, fields are set by their first column (1 based,
+     * the record type is in columns 1 and 2) and width.
+     */
+    private static class Record {
+
+        private final char[] chars = new char[RECORD_LENGTH];
+
+        Record(String type) {
+            Arrays.fill(chars, ' ');
+            set(1, 2, type);
+        }
+
+        Record set(int column, int width, String value) {
+            value.getChars(0, Math.min(width, value.length()), chars, column - 1);
+            return this;
+        }
+
+        /**
+         * Numbers are right aligned and padded with zeros.
+         */
+        Record set(int column, int width, long value) {
+            String s = Long.toString(Math.abs(value));
+            if (s.length() + (value < 0 ? 1 : 0) > width) {
+                throw new IllegalArgumentException(value + " past niet in " + width + " posities");
+            }
+            Arrays.fill(chars, column - 1, column - 1 + width, '0');
+            s.getChars(0, s.length(), chars, column - 1 + width - s.length());
+            if (value < 0) {
+                chars[column - 1] = '-';
+            }
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars) + "\n";
+        }
+    }
+
+    /**
+     * Generate a file from the command line: output file and number of
+     * blocks.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Gebruik: SUF2BenchmarkFiles <uitvoer.nen> <aantal>");
+            System.exit(1);
+        }
+        generate(new File(args[0]), Integer.parseInt(args[1]));
+    }
+}
@@ -0,0 +1,127 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.EOFException;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import nl.b3p.suf2.SUF2RecordCollector;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of reading a whole SUF2 file: records parsed by the
+ * SUF2RecordCollector, features created by the {@link SUF2FeatureReader} and
+ * features returned by the {@link SUF2DataStore}. Every invocation reads the
+ * whole file, the number of records or features per second follows from the
+ * score and the count logged at setup. Run with {@code -prof gc} for the
+ * allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SUF2ReadBenchmark {
+
+    private static final Log log = LogFactory.getLog(SUF2ReadBenchmark.class);
+
+    /**
+     * Number of blocks of generated records, see {@link SUF2BenchmarkFiles}.
+     */
+    @Param({"1", "10", "100"})
+    public int copies;
+    @Param({"1", "4"})
+    public int threads;
+    private File file;
+    private SUF2DataStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = SUF2BenchmarkFiles.get(copies);
+        store = new SUF2DataStore(file.toURI().toURL(), null);
+        store.setThreads(threads);
+        log.info(file + ": " + file.length() + " bytes, " + store.getSummary().getCount() + " features");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.dispose();
+    }
+
+    @Benchmark
+    public int records(Blackhole bh) throws Exception {
+        SUF2RecordCollector collector = new SUF2RecordCollector(file.toURI().toURL());
+        int count = 0;
+        try {
+            while (collector.hasNext()) {
+                bh.consume(collector.next());
+                count++;
+            }
+        } catch (Exception ex) {
+            if (!(ex instanceof EOFException)) {
+                throw ex;
+            }
+        } finally {
+            collector.close();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int featureReader(Blackhole bh) throws Exception {
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = new SUF2FeatureReader(file.toURI().toURL(), store.getSchema(), Query.ALL);
+        return consume(reader, bh);
+    }
+
+    @Benchmark
+    public int dataStore(Blackhole bh) throws Exception {
+        return consume(store.createFeatureReader(Query.ALL), bh);
+    }
+
+    @Benchmark
+    public int featureSource(Blackhole bh) throws Exception {
+        SimpleFeatureIterator it = store.getFeatureSource().getFeatures().features();
+        int count = 0;
+        try {
+            while (it.hasNext()) {
+                bh.consume(it.next());
+                count++;
+            }
+        } finally {
+            it.close();
+        }
+        return count;
+    }
+
+    private static int consume(FeatureReader<SimpleFeatureType, SimpleFeature> reader, Blackhole bh) throws Exception {
+        int count = 0;
+        try {
+            while (reader.hasNext()) {
+                bh.consume(reader.next());
+                count++;
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,100 @@
+package nl.b3p.geotools.data.suf2;
+
+/**
+ * How arcs are converted to line strings. Either a fixed number of segments
+ * for a full circle, or a maximum distance between the arc and its chords
+ * (the sagitta) so small arcs get fewer vertices than large arcs. When
+ * {@link #isCurved() curved}, arcs are not converted but returned as circular
+ * strings, the tolerance is then only used when the circular string is
+ * linearized by its consumer.
+ */
+public class SUF2ArcLinearization {
+
+    /**
+     * Linearization used before it was configurable:
+     * {@value SUF2GeometryFactory#NUM_SEGMENTS} segments for a full circle.
+     */
+    public static final SUF2ArcLinearization DEFAULT = bySegments((int) SUF2GeometryFactory.NUM_SEGMENTS);
+    /* bounds for the number of segments of a full circle with a tolerance */
+    private static final int MIN_SEGMENTS = 4;
+    private static final int MAX_SEGMENTS = 1024;
+    private final int segments;
+    private final double tolerance;
+    private final boolean curved;
+
+    private SUF2ArcLinearization(int segments, double tolerance, boolean curved) {
+        this.segments = segments;
+        this.tolerance = tolerance;
+        this.curved = curved;
+    }
+
+    /**
+     * @param segments number of segments for a full circle
+     */
+    public static SUF2ArcLinearization bySegments(int segments) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("Aantal segmenten moet groter dan 0 zijn: " + segments);
+        }
+        return new SUF2ArcLinearization(segments, 0, false);
+    }
+
+    /**
+     * @param tolerance maximum distance between the arc and the line string
+     * in map units
+     */
+    public static SUF2ArcLinearization byTolerance(double tolerance) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("Tolerantie moet groter dan 0 zijn: " + tolerance);
+        }
+        return new SUF2ArcLinearization(0, tolerance, false);
+    }
+
+    /**
+     * @return the same linearization, returning arcs as circular strings
+     */
+    public SUF2ArcLinearization curved() {
+        return new SUF2ArcLinearization(segments, tolerance, true);
+    }
+
+    /**
+     * @return true if arcs are returned as circular strings instead of line
+     * strings
+     */
+    public boolean isCurved() {
+        return curved;
+    }
+
+    /**
+     * @return number of segments for a full circle, 0 if a tolerance is used
+     */
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return maximum distance between arc and chord, 0 if a fixed number of
+     * segments is used
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * The angle of one segment in radians. With a tolerance the angle follows
+     * from the sagitta s = r * (1 - cos(a / 2)), limited to between
+     * {@value #MIN_SEGMENTS} and {@value #MAX_SEGMENTS} segments for a full
+     * circle.
+     */
+    public double getSegmentAngle(double radius) {
+        if (tolerance == 0) {
+            return (2 * Math.PI) / segments;
+        }
+        double angle = tolerance >= radius ? Math.PI : 2 * Math.acos(1 - tolerance / radius);
+        return Math.max((2 * Math.PI) / MAX_SEGMENTS, Math.min((2 * Math.PI) / MIN_SEGMENTS, angle));
+    }
+
+    @Override
+    public String toString() {
+        return (curved ? "curved, " : "") + (tolerance == 0 ? segments + " segments" : "tolerance " + tolerance);
+    }
+}
@@ -0,0 +1,212 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import nl.b3p.suf2.records.SUF2Record;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.data.FeatureReader;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKBWriter;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Binary sidecar file with the parsed features of a SUF2 file, so repeated
+ * reads do not have to parse the text records and linearize arcs again. The
+ * sidecar is written next to the SUF2 file with extension
+ * {@value #EXTENSION} and is only used while the size and modification time
+ * of the SUF2 file and the arc linearization match those it was written for.
+ * <p>
+ * Layout: a header with magic, version, size and modification time of the
+ * SUF2 file, the arc linearization and the name and kind of every attribute
+ * of the flat feature type. Then every feature as a length prefixed record
+ * with its line number, layer, envelope and the values of its attributes,
+ * geometries as WKB. A record length of -1 ends the file.
+ */
+public class SUF2BinaryCache {
+
+    private static final Log log = LogFactory.getLog(SUF2BinaryCache.class);
+    public static final String EXTENSION = ".sufb";
+    static final int MAGIC = 0x53554642; // "SUFB"
+    static final int VERSION = 1;
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final byte GEOMETRY = 0;
+    static final byte STRING = 1;
+    static final byte DOUBLE = 2;
+    static final byte INTEGER = 3;
+    static final byte NULL = -1;
+
+    private SUF2BinaryCache() {
+    }
+
+    public static File getCacheFile(File file) {
+        return new File(file.getPath() + EXTENSION);
+    }
+
+    /**
+     * @return true if there is a sidecar for the current version of the file
+     * written with the given arc linearization
+     */
+    public static boolean isValid(File file, SUF2ArcLinearization arcs) {
+        File cacheFile = getCacheFile(file);
+        if (!cacheFile.exists()) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 1024));
+            try {
+                return readHeader(in, file, arcs) != null;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            log.debug("Ongeldige binaire cache " + cacheFile + ": " + ex.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Read the header of a sidecar.
+     *
+     * @return names and kinds of the attributes, or null when the sidecar
+     * does not match the file
+     */
+    static Object[][] readHeader(DataInputStream in, File file, SUF2ArcLinearization arcs) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            return null;
+        }
+        if (in.readLong() != file.length() || in.readLong() != file.lastModified()) {
+            return null;
+        }
+        if (!in.readUTF().equals(arcs.toString())) {
+            return null;
+        }
+        Object[][] attributes = new Object[in.readInt()][];
+        for (int i = 0; i < attributes.length; i++) {
+            attributes[i] = new Object[]{in.readUTF(), in.readByte()};
+        }
+        return attributes;
+    }
+
+    /**
+     * Write the sidecar for a file with the flat features of the reader. The
+     * sidecar is written to a temporary file first, so readers never see a
+     * partial sidecar.
+     *
+     * @param reader reader of all features of the file with the flat feature
+     * type, closed when done
+     * @return the sidecar file
+     */
+    public static File write(File file, SUF2ArcLinearization arcs, FeatureReader<SimpleFeatureType, SimpleFeature> reader) throws IOException {
+        if (arcs.isCurved()) {
+            throw new IOException("Binaire cache niet mogelijk voor bogen als circular strings");
+        }
+        long fileLength = file.length();
+        long lastModified = file.lastModified();
+        File cacheFile = getCacheFile(file);
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+        int count = 0;
+        try {
+            SimpleFeatureType ft = reader.getFeatureType();
+            int attributeCount = ft.getAttributeCount();
+            int typeIndex = ft.indexOf(SUF2FeatureReader.TYPE);
+            int idIndex = ft.indexOf(SUF2Record.ID);
+            Map<Object, SUF2Layer> layers = new HashMap<Object, SUF2Layer>();
+            for (SUF2Layer layer : SUF2Layer.values()) {
+                layers.put(layer.getRecordType().getDescription(), layer);
+            }
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(fileLength);
+                out.writeLong(lastModified);
+                out.writeUTF(arcs.toString());
+                out.writeInt(attributeCount);
+                for (int i = 0; i < attributeCount; i++) {
+                    Class<?> binding = ft.getDescriptor(i).getType().getBinding();
+                    out.writeUTF(ft.getDescriptor(i).getLocalName());
+                    out.writeByte(Geometry.class.isAssignableFrom(binding) ? GEOMETRY
+                            : Double.class.equals(binding) ? DOUBLE
+                            : Integer.class.equals(binding) ? INTEGER : STRING);
+                }
+
+                /* records are built in a buffer to prefix them with their length */
+                ByteArrayOutputStream record = new ByteArrayOutputStream(4096);
+                DataOutputStream recordOut = new DataOutputStream(record);
+                WKBWriter wkbWriter = new WKBWriter();
+                while (reader.hasNext()) {
+                    SimpleFeature f = reader.next();
+                    record.reset();
+                    Object id = idIndex == -1 ? null : f.getAttribute(idIndex);
+                    SUF2Layer layer = typeIndex == -1 ? null : layers.get(f.getAttribute(typeIndex));
+                    Geometry geometry = (Geometry) f.getDefaultGeometry();
+                    Envelope envelope = geometry == null ? new Envelope() : geometry.getEnvelopeInternal();
+                    recordOut.writeInt(id instanceof Integer ? (Integer) id : 0);
+                    recordOut.writeByte(layer == null ? -1 : layer.ordinal());
+                    recordOut.writeDouble(envelope.getMinX());
+                    recordOut.writeDouble(envelope.getMaxX());
+                    recordOut.writeDouble(envelope.getMinY());
+                    recordOut.writeDouble(envelope.getMaxY());
+                    for (int i = 0; i < attributeCount; i++) {
+                        Object value = f.getAttribute(i);
+                        if (value == null) {
+                            recordOut.writeByte(NULL);
+                        } else if (value instanceof Geometry) {
+                            byte[] wkb = wkbWriter.write((Geometry) value);
+                            recordOut.writeByte(GEOMETRY);
+                            recordOut.writeInt(wkb.length);
+                            recordOut.write(wkb);
+                        } else if (value instanceof Double) {
+                            recordOut.writeByte(DOUBLE);
+                            recordOut.writeDouble((Double) value);
+                        } else if (value instanceof Integer) {
+                            recordOut.writeByte(INTEGER);
+                            recordOut.writeInt((Integer) value);
+                        } else {
+                            recordOut.writeByte(STRING);
+                            recordOut.writeUTF(value.toString());
+                        }
+                    }
+                    recordOut.flush();
+                    out.writeInt(record.size());
+                    record.writeTo(out);
+                    count++;
+                }
+                out.writeInt(-1);
+            } finally {
+                out.close();
+            }
+        } catch (IOException | RuntimeException ex) {
+            tempFile.delete();
+            throw ex;
+        } finally {
+            reader.close();
+        }
+        if (file.length() != fileLength || file.lastModified() != lastModified) {
+            tempFile.delete();
+            throw new IOException("Bestand " + file + " is gewijzigd tijdens schrijven van binaire cache");
+        }
+        if (cacheFile.exists() && !cacheFile.delete()) {
+            tempFile.delete();
+            throw new IOException("Kan bestaande binaire cache " + cacheFile + " niet vervangen");
+        }
+        if (!tempFile.renameTo(cacheFile)) {
+            throw new IOException("Kan binaire cache " + cacheFile + " niet schrijven");
+        }
+        log.debug(count + " features van " + file + " in binaire cache " + cacheFile);
+        return cacheFile;
+    }
+}
@@ -0,0 +1,255 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.geotools.data.DataSourceException;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureImpl;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.filter.identity.FeatureIdImpl;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Reads the features of a SUF2 file from its {@link SUF2BinaryCache} sidecar.
+ * Handles the query like {@link SUF2FeatureReader}: records outside the
+ * bounding box of the filter are skipped using the envelope in the record
+ * and only the attributes of the read type are decoded. For the feature type
+ * of a layer only the records of the layer are returned.
+ */
+class SUF2BinaryFeatureReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
+
+    private final DataInputStream in;
+    private final SimpleFeatureType ft;
+    private final SUF2Layer layer;
+    private final String featureIdPrefix;
+    private final WKBReader wkbReader;
+    private SimpleFeatureType readType;
+    private SimpleFeatureType resultType;
+    /* index in the read type of every attribute in the sidecar, -1 when not read */
+    private int[] attributeIndex;
+    private Filter filter;
+    private Envelope bbox;
+    private int startIndex = 0;
+    private int maxFeatures = Integer.MAX_VALUE;
+    private int skipped = 0;
+    private int returned = 0;
+    private boolean end = false;
+    private SimpleFeature feature;
+    private final SUF2Statistics statistics;
+
+    SUF2BinaryFeatureReader(File file, SUF2ArcLinearization arcs, SimpleFeatureType ft, Query query, GeometryFactory gf, SUF2Statistics parent) throws IOException {
+        this.ft = ft;
+        this.readType = ft;
+        this.resultType = ft;
+        this.layer = SUF2Layer.of(ft);
+        this.featureIdPrefix = ft.getTypeName() + ".";
+        this.wkbReader = new WKBReader(gf);
+        if (query != null) {
+            applyQuery(query);
+        }
+        this.statistics = new SUF2Statistics(parent);
+        statistics.readerOpened();
+
+        File cacheFile = SUF2BinaryCache.getCacheFile(file);
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), SUF2BinaryCache.BUFFER_SIZE));
+        try {
+            Object[][] attributes = SUF2BinaryCache.readHeader(in, file, arcs);
+            if (attributes == null) {
+                throw new IOException("Binaire cache " + cacheFile + " hoort niet bij " + file);
+            }
+            attributeIndex = new int[attributes.length];
+            for (int i = 0; i < attributes.length; i++) {
+                attributeIndex[i] = readType.indexOf((String) attributes[i][0]);
+            }
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    private void applyQuery(Query query) throws IOException {
+        if (query.getFilter() != null && !Filter.INCLUDE.equals(query.getFilter())) {
+            filter = query.getFilter();
+            bbox = SUF2FeatureReader.getBounds(filter);
+        }
+        if (query.getStartIndex() != null) {
+            startIndex = query.getStartIndex();
+        }
+        maxFeatures = query.getMaxFeatures();
+
+        String[] propertyNames = query.getPropertyNames();
+        if (propertyNames != null) {
+            try {
+                resultType = SimpleFeatureTypeBuilder.retype(ft, propertyNames);
+                readType = resultType;
+                if (filter != null) {
+                    /* the filter may need attributes which are not requested */
+                    Set<String> names = new LinkedHashSet<String>(Arrays.asList(propertyNames));
+                    names.addAll(Arrays.asList(DataUtilities.attributeNames(filter, ft)));
+                    if (names.size() > propertyNames.length) {
+                        readType = SimpleFeatureTypeBuilder.retype(ft, names.toArray(new String[names.size()]));
+                    }
+                }
+            } catch (Exception e) {
+                throw new DataSourceException("Error creating SimpleFeatureType for query", e);
+            }
+        }
+    }
+
+    /**
+     * @return counters of this reader
+     */
+    public SUF2Statistics getStatistics() {
+        return statistics;
+    }
+
+    public SimpleFeatureType getFeatureType() {
+        return resultType;
+    }
+
+    public SimpleFeature next() throws IOException, IllegalArgumentException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more features in SUF2 file");
+        }
+        SimpleFeature next = feature;
+        feature = null;
+        return next;
+    }
+
+    public boolean hasNext() throws IOException {
+        if (feature != null) {
+            return true;
+        }
+        while (!end && returned < maxFeatures) {
+            int length = in.readInt();
+            if (length < 0) {
+                end = true;
+                break;
+            }
+            statistics.bytesRead(length + 4);
+            statistics.recordRead();
+            int line = in.readInt();
+            int recordLayer = in.readByte();
+            double minX = in.readDouble();
+            double maxX = in.readDouble();
+            double minY = in.readDouble();
+            double maxY = in.readDouble();
+            int remaining = length - 37;
+            if (layer != null && recordLayer != layer.ordinal()) {
+                skip(remaining);
+                continue;
+            }
+            if (bbox != null && (maxX < minX || !bbox.intersects(new Envelope(minX, maxX, minY, maxY)))) {
+                skip(remaining);
+                statistics.skipped(SUF2Statistics.Skip.BOUNDS, null);
+                continue;
+            }
+            SimpleFeature candidate = readFeature(line);
+            if (candidate == null) {
+                statistics.skipped(SUF2Statistics.Skip.LAYER, layer.getRecordType().getDescription());
+                continue;
+            }
+            if (filter != null && !filter.evaluate(candidate)) {
+                statistics.skipped(SUF2Statistics.Skip.FILTER, null);
+                continue;
+            }
+            if (skipped < startIndex) {
+                skipped++;
+                statistics.skipped(SUF2Statistics.Skip.OFFSET, null);
+                continue;
+            }
+            if (resultType != readType) {
+                candidate = SimpleFeatureBuilder.retype(candidate, resultType);
+            }
+            feature = candidate;
+            returned++;
+            statistics.featureReturned();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decode the values of a record, only the attributes of the read type
+     * are kept.
+     *
+     * @return the feature or null when its geometry does not fit the layer
+     */
+    private SimpleFeature readFeature(int line) throws IOException {
+        Object[] values = new Object[readType.getAttributeCount()];
+        boolean valid = true;
+        for (int i = 0; i < attributeIndex.length; i++) {
+            int index = attributeIndex[i];
+            byte kind = in.readByte();
+            Object value;
+            switch (kind) {
+                case SUF2BinaryCache.NULL:
+                    value = null;
+                    break;
+                case SUF2BinaryCache.GEOMETRY:
+                    byte[] wkb = new byte[in.readInt()];
+                    in.readFully(wkb);
+                    if (index == -1) {
+                        continue;
+                    }
+                    try {
+                        value = wkbReader.read(wkb);
+                    } catch (ParseException ex) {
+                        throw new IOException("Ongeldige geometrie in binaire cache", ex);
+                    }
+                    if (layer != null && !layer.getBinding().isInstance(value)) {
+                        valid = false;
+                    }
+                    break;
+                case SUF2BinaryCache.DOUBLE:
+                    value = in.readDouble();
+                    break;
+                case SUF2BinaryCache.INTEGER:
+                    value = in.readInt();
+                    break;
+                case SUF2BinaryCache.STRING:
+                    value = in.readUTF();
+                    break;
+                default:
+                    throw new IOException("Ongeldige waarde in binaire cache: " + kind);
+            }
+            if (index != -1) {
+                values[index] = value;
+            }
+        }
+        if (!valid) {
+            return null;
+        }
+        return new SimpleFeatureImpl(values, readType, new FeatureIdImpl(featureIdPrefix + line), false);
+    }
+
+    private void skip(int n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes(n);
+            if (skipped <= 0) {
+                throw new IOException("Onverwacht einde van binaire cache");
+            }
+            n -= skipped;
+        }
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,95 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.geotools.data.DataSourceException;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.locationtech.jts.geom.Envelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Reads the features of a {@link SUF2FeatureCache} entry matching a query. A
+ * bounding box in the filter is looked up in the spatial index of the entry.
+ * Every returned feature is a new feature, but the geometries are shared
+ * with the cache and must not be modified.
+ */
+class SUF2CachedFeatureReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
+
+    private final SimpleFeatureType resultType;
+    private final Iterator<SimpleFeature> features;
+    private final Filter filter;
+    private final int startIndex;
+    private final int maxFeatures;
+    private int skipped = 0;
+    private int returned = 0;
+    private SimpleFeature feature;
+
+    SUF2CachedFeatureReader(SUF2FeatureCache.Entry entry, SimpleFeatureType ft, Query query) throws IOException {
+        if (query == null) {
+            query = Query.ALL;
+        }
+        if (query.getPropertyNames() == null) {
+            resultType = ft;
+        } else {
+            try {
+                resultType = SimpleFeatureTypeBuilder.retype(ft, query.getPropertyNames());
+            } catch (Exception e) {
+                throw new DataSourceException("Error creating SimpleFeatureType for query", e);
+            }
+        }
+        filter = query.getFilter() == null || Filter.INCLUDE.equals(query.getFilter()) ? null : query.getFilter();
+        startIndex = query.getStartIndex() == null ? 0 : query.getStartIndex();
+        maxFeatures = query.getMaxFeatures();
+
+        Envelope bbox = SUF2FeatureReader.getBounds(filter);
+        List<SimpleFeature> candidates = bbox == null ? entry.getFeatures() : entry.query(bbox);
+        features = candidates.iterator();
+    }
+
+    public SimpleFeatureType getFeatureType() {
+        return resultType;
+    }
+
+    public SimpleFeature next() throws IOException, IllegalArgumentException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more features in SUF2 file");
+        }
+        SimpleFeature next = feature;
+        feature = null;
+        return next;
+    }
+
+    public boolean hasNext() throws IOException {
+        if (feature != null) {
+            return true;
+        }
+        if (returned >= maxFeatures) {
+            return false;
+        }
+        while (features.hasNext()) {
+            SimpleFeature candidate = features.next();
+            if (filter != null && !filter.evaluate(candidate)) {
+                continue;
+            }
+            if (skipped < startIndex) {
+                skipped++;
+                continue;
+            }
+            feature = SimpleFeatureBuilder.retype(candidate, resultType);
+            returned++;
+            return true;
+        }
+        return false;
+    }
+
+    public void close() throws IOException {
+        feature = null;
+    }
+}
@@ -1,10 +1,23 @@
 package nl.b3p.geotools.data.suf2;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.Arrays;
+import java.net.URLConnection;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.management.JMException;
 import nl.b3p.suf2.SUF2ParseException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -12,12 +25,16 @@ import org.geotools.data.DefaultServiceInfo;
 import org.geotools.data.FeatureReader;
 import org.geotools.data.FeatureWriter;
 import org.geotools.data.FileDataStore;
-import org.geotools.data.LockingManager;
 import org.geotools.data.Query;
 import org.geotools.data.ServiceInfo;
 import org.geotools.data.Transaction;
-import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.data.store.ContentDataStore;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureSource;
 import org.geotools.feature.NameImpl;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.Name;
@@ -27,13 +44,35 @@ import org.opengis.filter.Filter;
  * @author Gertjan Al, B3Partners
  * @author mprins
  */
-public class SUF2DataStore implements FileDataStore {
+public class SUF2DataStore extends ContentDataStore implements FileDataStore {
 
     private static final Log log = LogFactory.getLog(SUF2DataStore.class);
     private URL url;
     private String typename;
-    private FeatureReader featureReader;
     private String srs;
+    private SimpleFeatureType featureType;
+    private SUF2ScanSummary summary;
+    private final Object summaryLock = new Object();
+    private volatile boolean createSpatialIndex = false;
+    private SUF2SpatialIndex spatialIndex;
+    private final Object indexLock = new Object();
+    private volatile int threads = 1;
+    private volatile boolean preserveOrder = true;
+    private volatile boolean reuseFeatures = false;
+    private volatile SUF2ArcLinearization arcLinearization = SUF2ArcLinearization.DEFAULT;
+    private final SUF2Statistics statistics = new SUF2Statistics();
+    private volatile boolean cacheFeatures = false;
+    private volatile boolean packedCoordinates = false;
+    private volatile GeometryFactory geometryFactory = SUF2GeometryFactory.createGeometryFactory(false);
+    /* all readers which are not closed yet, closed when the datastore is disposed */
+    private final Set<TrackedFeatureReader> openReaders = Collections.newSetFromMap(new ConcurrentHashMap<TrackedFeatureReader, Boolean>());
+    private volatile Semaphore fileHandles;
+    private volatile int maxOpenFiles = 0;
+    private volatile long openFileTimeout = 30000;
+    private volatile boolean disposed = false;
+    private volatile boolean splitSchema = false;
+    private volatile boolean binaryCache = false;
+    private final Object binaryCacheLock = new Object();
 
     public SUF2DataStore(URL url, String srs) throws IOException {
         this.url = url;
@@ -41,10 +80,6 @@ public class SUF2DataStore implements FileDataStore {
         this.srs = srs;
     }
 
-    public String[] getTypeNames() throws IOException {
-        return new String[]{getURLTypeName(url)};
-    }
-
     static String getURLTypeName(URL url) throws IOException {
         String file = url.getFile();
         if (file.length() == 0) {
@@ -54,6 +89,7 @@ public class SUF2DataStore implements FileDataStore {
             if (i != -1) {
                 file = file.substring(i + 1);
             }
+            file = SUF2Decompression.stripExtension(file);
             if (file.toLowerCase().endsWith(".nen") || file.toLowerCase().endsWith(".sfn")) {
                 file = file.substring(0, file.length() - 4);
             }
@@ -61,105 +97,716 @@ public class SUF2DataStore implements FileDataStore {
         }
     }
 
-    public SimpleFeatureType getSchema(String typeName) throws IOException {
-        /* only one type */
-        return getSchema();
+    /**
+     * @return the local file of this datastore or null when the url is not a
+     * file: url or the file is compressed, as a compressed file can only be
+     * read sequentially
+     */
+    File getFile() {
+        if (SUF2Decompression.isCompressed(url)) {
+            return null;
+        }
+        return getSourceFile();
     }
 
-    public SimpleFeatureType getSchema(Name name) throws IOException {
-        return getSchema();
+    /**
+     * @return the local file of this datastore, possibly compressed, or null
+     * when the url is not a file: url
+     */
+    File getSourceFile() {
+        if (url.getProtocol().equalsIgnoreCase("file")) {
+            return new File(url.getFile());
+        }
+        return null;
     }
 
-    public SimpleFeatureType getSchema() throws IOException {
-        return (SimpleFeatureType) getFeatureReader().getFeatureType();
+    protected Name getTypeName() {
+        return new NameImpl(namespaceURI, typename);
     }
 
-    public List<Name> getNames() throws IOException {
-        return Arrays.asList((Name) new NameImpl(getSchema().getTypeName()));
+    @Override
+    protected List<Name> createTypeNames() throws IOException {
+        if (splitSchema) {
+            List<Name> names = new ArrayList<Name>();
+            names.add(getTypeName());
+            for (SUF2Layer layer : SUF2Layer.values()) {
+                names.add(new NameImpl(namespaceURI, layer.getTypeName(typename)));
+            }
+            return names;
+        }
+        return Collections.singletonList(getTypeName());
     }
 
-    public FeatureReader getFeatureReader(String typeName) throws IOException {
-        /* only one type */
-        return getFeatureReader();
+    /**
+     * @return the layer with the given type name when the schema is split,
+     * otherwise null
+     */
+    SUF2Layer getLayer(String typeName) {
+        if (splitSchema) {
+            for (SUF2Layer layer : SUF2Layer.values()) {
+                if (layer.getTypeName(typename).equals(typeName)) {
+                    return layer;
+                }
+            }
+        }
+        return null;
     }
 
-    public FeatureReader<SimpleFeatureType, SimpleFeature> getFeatureReader(Query query, Transaction transaction) throws IOException {
-        return getFeatureReader();
+    @Override
+    protected ContentFeatureSource createFeatureSource(ContentEntry entry) throws IOException {
+        return new SUF2FeatureSource(entry, Query.ALL);
     }
 
-    public FeatureReader getFeatureReader() throws IOException {
+    /**
+     * The feature type does not depend on the contents of the file, so it is
+     * built once without opening the file.
+     */
+    public synchronized SimpleFeatureType getSchema() throws IOException {
+        if (featureType == null) {
+            featureType = SUF2FeatureReader.createFeatureType(typename, srs);
+        }
+        return featureType;
+    }
+
+    /**
+     * @return the feature type of a layer, which only has the attributes of
+     * the records of the layer
+     */
+    public SimpleFeatureType getSchema(SUF2Layer layer) throws IOException {
+        return SUF2FeatureReader.createFeatureType(layer.getTypeName(typename), srs, layer);
+    }
+
+    /**
+     * @return the schema of a type name of this datastore, used by the
+     * feature sources
+     */
+    SimpleFeatureType buildSchema(Name typeName) throws IOException {
+        SUF2Layer layer = getLayer(typeName.getLocalPart());
+        return layer == null ? getSchema() : getSchema(layer);
+    }
+
+    /**
+     * Count and bounds of all features in the file. The summary is computed
+     * with a single pass over the file and cached until the file changes.
+     */
+    public SUF2ScanSummary getSummary() throws IOException {
+        synchronized (summaryLock) {
+            File file = getSourceFile();
+            if (summary == null || !summary.isValid(file)) {
+                SUF2ScanSummary scan = new SUF2ScanSummary(getSchema().getCoordinateReferenceSystem(), file);
+                FeatureReader<SimpleFeatureType, SimpleFeature> reader = createFeatureReader();
+                try {
+                    while (reader.hasNext()) {
+                        scan.add(reader.next());
+                    }
+                } finally {
+                    reader.close();
+                }
+                summary = scan;
+            }
+            return summary;
+        }
+    }
+
+    /**
+     * The metadata of the header records and the extent of the file, without
+     * parsing the whole file. The extent and count are exact when there is a
+     * valid spatial index or summary, otherwise they are estimated from a
+     * sample of the records of a local file and unknown for a remote file.
+     */
+    public SUF2Header getHeader() throws IOException {
+        if (disposed) {
+            throw new IOException("Databron is gesloten: " + url);
+        }
+        File file = getFile();
+        if (file == null) {
+            SortedMap<String, Object> properties = SUF2Header.readProperties(url);
+            synchronized (summaryLock) {
+                /* a compressed local file is checked, a remote file cannot be */
+                if (summary != null && summary.isValid(getSourceFile())) {
+                    return new SUF2Header(properties, summary.getBounds(), summary.getCount(), true);
+                }
+            }
+            return new SUF2Header(properties, null, -1, false);
+        }
+        SUF2SpatialIndex index;
+        synchronized (indexLock) {
+            if (spatialIndex == null || !spatialIndex.isValid()) {
+                spatialIndex = SUF2SpatialIndex.read(file);
+            }
+            index = spatialIndex;
+        }
+        if (index != null) {
+            return new SUF2Header(SUF2Header.readProperties(file),
+                    new ReferencedEnvelope(index.getBounds(), getSchema().getCoordinateReferenceSystem()), index.getCount(), true);
+        }
+        synchronized (summaryLock) {
+            if (summary != null && summary.isValid(file)) {
+                return new SUF2Header(SUF2Header.readProperties(file), summary.getBounds(), summary.getCount(), true);
+            }
+        }
+        return SUF2Header.sample(file, SUF2Header.readProperties(file), getSchema().getCoordinateReferenceSystem());
+    }
+
+    /**
+     * Expose a feature type per layer (lines, polygons, arcs, texts and
+     * symbols) in addition to the single type with the attributes of all
+     * records, false by default. The single type stays the first type name,
+     * so the {@link org.geotools.data.FileDataStore} methods without type
+     * name, like {@link #getSchema()} and {@link #getFeatureSource()}, keep
+     * working. Must be set before the type names are requested. The features
+     * of all layers can be read in a single pass with
+     * {@link #readLayers(Filter, SUF2Layer.Handler)}. Features which do not
+     * fit a layer are skipped and counted in the statistics as
+     * {@link SUF2Statistics.Skip#LAYER}.
+     */
+    public void setSplitSchema(boolean splitSchema) {
+        this.splitSchema = splitSchema;
+    }
+
+    public boolean isSplitSchema() {
+        return splitSchema;
+    }
+
+    /**
+     * Read the features of all layers in a single pass over the file, in
+     * file order. The filter is evaluated against the flat feature type.
+     *
+     * @return the number of features passed to the handler
+     */
+    public int readLayers(Filter filter, SUF2Layer.Handler handler) throws IOException {
+        SUF2LayerRouter router = new SUF2LayerRouter(this);
+        Query query = new Query(typename, filter == null ? Filter.INCLUDE : filter);
+        int count = 0;
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = createFileFeatureReader(getSchema(), query, true);
         try {
-            featureReader = new SUF2FeatureReader(url, typename, srs);
-            return featureReader;
+            while (reader.hasNext()) {
+                SimpleFeature f = reader.next();
+                SUF2Layer layer = router.getLayer(f);
+                SimpleFeature routed = router.route(layer, f);
+                if (routed != null) {
+                    handler.feature(layer, routed);
+                    count++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    /**
+     * Build the cadastral parcels of the file from the boundary lines in a
+     * single pass, see {@link SUF2ParcelBuilder}.
+     *
+     * @return the number of parcels passed to the handler
+     */
+    public int readParcels(SUF2ParcelBuilder.Handler handler) throws IOException {
+        return new SUF2ParcelBuilder(this).build(handler);
+    }
+
+    /**
+     * @return the properties of the header records, only the header is read
+     */
+    SortedMap<String, Object> readHeaderProperties() throws IOException {
+        File file = getFile();
+        return file == null ? SUF2Header.readProperties(url) : SUF2Header.readProperties(file);
+    }
+
+    /**
+     * Write a {@link SUF2BinaryCache} sidecar on the first read of a local
+     * file when there is no valid sidecar, false by default. A valid sidecar
+     * is always used, whether this is set or not.
+     */
+    public void setBinaryCache(boolean binaryCache) {
+        this.binaryCache = binaryCache;
+    }
+
+    public boolean isBinaryCache() {
+        return binaryCache;
+    }
+
+    /**
+     * (Re)write the binary sidecar of the file of this datastore.
+     */
+    public File createBinaryCache() throws IOException {
+        File file = getSourceFile();
+        if (file == null) {
+            throw new IOException("Binaire cache alleen mogelijk voor lokale bestanden: " + url);
+        }
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader;
+        try {
+            if (threads > 1 && getFile() != null) {
+                reader = new SUF2ParallelFeatureReader(file, getSchema(), Query.ALL, threads, true, arcLinearization, geometryFactory, statistics);
+            } else {
+                reader = configure(new SUF2FeatureReader(url, getSchema(), Query.ALL), true);
+            }
         } catch (SUF2ParseException e) {
             throw new IOException("SUF2 parse exception" + e.getLocalizedMessage());
         }
+        synchronized (binaryCacheLock) {
+            return SUF2BinaryCache.write(file, arcLinearization, reader);
+        }
     }
 
-    public SimpleFeatureSource getFeatureSource() throws IOException {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    /**
+     * @return true if the file can be read from a valid binary sidecar,
+     * written first when enabled
+     */
+    private boolean useBinaryCache(File file) {
+        if (file == null || arcLinearization.isCurved()) {
+            return false;
+        }
+        if (SUF2BinaryCache.isValid(file, arcLinearization)) {
+            return true;
+        }
+        if (binaryCache) {
+            try {
+                synchronized (binaryCacheLock) {
+                    /* may be written by another reader meanwhile */
+                    if (!SUF2BinaryCache.isValid(file, arcLinearization)) {
+                        createBinaryCache();
+                    }
+                }
+                return true;
+            } catch (IOException ex) {
+                log.warn("Fout bij maken van binaire cache, bestand wordt zonder cache gelezen", ex);
+                binaryCache = false;
+            }
+        }
+        return false;
     }
 
-    public SimpleFeatureSource getFeatureSource(String typeName) throws IOException {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    /**
+     * Number of threads used to read a local file, 1 (the default) reads the
+     * file sequentially.
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
     }
 
-    public SimpleFeatureSource getFeatureSource(Name typeName) throws IOException {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    public int getThreads() {
+        return threads;
     }
 
-    public void createSchema(SimpleFeatureType featureType) throws IOException {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    /**
+     * Return features in file order when reading with several threads,
+     * true by default.
+     */
+    public void setPreserveOrder(boolean preserveOrder) {
+        this.preserveOrder = preserveOrder;
     }
 
-    public void updateSchema(SimpleFeatureType featureType) throws IOException {
-        throw new UnsupportedOperationException("Functie niet ondersteund voor alleen-lezen databron.");
+    public boolean isPreserveOrder() {
+        return preserveOrder;
     }
 
-    public void updateSchema(String typeName, SimpleFeatureType featureType) throws IOException {
-        throw new UnsupportedOperationException("Functie niet ondersteund voor alleen-lezen databron.");
+    /**
+     * Let sequential readers return the same feature instance for every
+     * record, for streaming consumers which copy the data out of a feature
+     * before reading the next one. False by default.
+     */
+    public void setReuseFeatures(boolean reuseFeatures) {
+        this.reuseFeatures = reuseFeatures;
     }
 
-    public void updateSchema(Name typeName, SimpleFeatureType featureType) throws IOException {
-        throw new UnsupportedOperationException("Functie niet ondersteund voor alleen-lezen databron.");
+    public boolean isReuseFeatures() {
+        return reuseFeatures;
     }
 
-    public void removeSchema(String typeName) throws IOException {
+    /**
+     * How arcs are converted to line strings, by default
+     * {@link SUF2ArcLinearization#DEFAULT}. Changing it invalidates the
+     * cached summary, as the bounds of arcs depend on it.
+     */
+    public void setArcLinearization(SUF2ArcLinearization arcLinearization) {
+        this.arcLinearization = arcLinearization == null ? SUF2ArcLinearization.DEFAULT : arcLinearization;
+        synchronized (summaryLock) {
+            summary = null;
+        }
+    }
+
+    public SUF2ArcLinearization getArcLinearization() {
+        return arcLinearization;
+    }
+
+    /**
+     * Store the coordinates of geometries in packed double arrays instead of
+     * Coordinate objects, false by default. Uses less memory for features
+     * that are kept, for instance in the feature cache.
+     */
+    public void setPackedCoordinates(boolean packedCoordinates) {
+        this.packedCoordinates = packedCoordinates;
+        this.geometryFactory = SUF2GeometryFactory.createGeometryFactory(packedCoordinates);
+    }
+
+    public boolean isPackedCoordinates() {
+        return packedCoordinates;
+    }
+
+    /**
+     * Keep all features of the file in the shared {@link SUF2FeatureCache}
+     * and answer queries from memory, false by default. Files which do not
+     * fit in the memory budget of the cache are read as usual. A remote file
+     * is only cached when the server sends its length or modification time,
+     * which are requested for every query.
+     */
+    public void setCacheFeatures(boolean cacheFeatures) {
+        this.cacheFeatures = cacheFeatures;
+    }
+
+    public boolean isCacheFeatures() {
+        return cacheFeatures;
+    }
+
+    /**
+     * Maximum number of readers of this datastore that have the file open at
+     * the same time, 0 (the default) for no limit. A reader that reads with
+     * several threads counts as one. When the limit is reached opening a
+     * reader waits until another reader is closed.
+     */
+    public void setMaxOpenFiles(int maxOpenFiles) {
+        this.maxOpenFiles = Math.max(0, maxOpenFiles);
+        this.fileHandles = this.maxOpenFiles > 0 ? new Semaphore(this.maxOpenFiles, true) : null;
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    /**
+     * Milliseconds to wait for a file handle before opening a reader fails,
+     * default 30 seconds.
+     */
+    public void setOpenFileTimeout(long openFileTimeout) {
+        this.openFileTimeout = openFileTimeout;
+    }
+
+    /**
+     * @return number of readers created by this datastore which are not
+     * closed yet
+     */
+    public int getOpenReaderCount() {
+        return openReaders.size();
+    }
+
+    /**
+     * @return counters of all readers created by this datastore
+     */
+    public SUF2Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Register the statistics of this datastore as MBean, it is unregistered
+     * when the datastore is disposed. Turns on timing of the readers, see
+     * {@link SUF2Statistics#setTiming(boolean)}.
+     */
+    public void registerStatistics() {
+        statistics.setTiming(true);
+        try {
+            statistics.register(typename);
+        } catch (JMException ex) {
+            log.warn("Kan statistieken van " + url + " niet registreren als MBean", ex);
+        }
+    }
+
+    FeatureReader<SimpleFeatureType, SimpleFeature> createFeatureReader() throws IOException {
+        return createFeatureReader(Query.ALL);
+    }
+
+    /**
+     * Create the spatial index automatically when a bounding box query is
+     * done and there is no valid index for the file yet.
+     */
+    public void setCreateSpatialIndex(boolean createSpatialIndex) {
+        this.createSpatialIndex = createSpatialIndex;
+    }
+
+    public boolean isCreateSpatialIndex() {
+        return createSpatialIndex;
+    }
+
+    /**
+     * (Re)create the spatial index for the file of this datastore.
+     */
+    public SUF2SpatialIndex createSpatialIndex() throws IOException {
+        File file = getFile();
+        if (file == null) {
+            throw new IOException("Spatial index alleen mogelijk voor lokale bestanden: " + url);
+        }
+        synchronized (indexLock) {
+            spatialIndex = SUF2SpatialIndex.build(file);
+            return spatialIndex;
+        }
+    }
+
+    /**
+     * @return a valid spatial index for the file or null if there is none
+     */
+    SUF2SpatialIndex getSpatialIndex() throws IOException {
+        File file = getFile();
+        if (file == null) {
+            return null;
+        }
+        synchronized (indexLock) {
+            if (spatialIndex == null || !spatialIndex.isValid()) {
+                spatialIndex = SUF2SpatialIndex.read(file);
+                if (spatialIndex == null && createSpatialIndex) {
+                    try {
+                        spatialIndex = SUF2SpatialIndex.build(file);
+                    } catch (IOException ex) {
+                        log.warn("Fout bij maken van spatial index, bestand wordt zonder index gelezen", ex);
+                        createSpatialIndex = false;
+                    }
+                }
+            }
+            return spatialIndex;
+        }
+    }
+
+    FeatureReader<SimpleFeatureType, SimpleFeature> createFeatureReader(Query query) throws IOException {
+        return createFeatureReader(getSchema(), query);
+    }
+
+    /**
+     * @param ft the flat schema or the schema of a layer
+     */
+    FeatureReader<SimpleFeatureType, SimpleFeature> createFeatureReader(SimpleFeatureType ft, Query query) throws IOException {
+        if (disposed) {
+            throw new IOException("Databron is gesloten: " + url);
+        }
+        if (cacheFeatures) {
+            SUF2FeatureCache.Entry entry = getCacheEntry(ft);
+            if (entry != null) {
+                return new SUF2CachedFeatureReader(entry, ft, query);
+            }
+        }
+        return createFileFeatureReader(ft, query, reuseFeatures);
+    }
+
+    /**
+     * @return all features of the file from the shared cache, or null when
+     * they do not fit in the cache or the file can not be cached
+     */
+    private SUF2FeatureCache.Entry getCacheEntry(final SimpleFeatureType ft) throws IOException {
+        long[] version = getVersion();
+        if (version == null) {
+            log.debug("Geen lengte of wijzigingsdatum van " + url + ", features worden niet in de cache gehouden");
+            return null;
+        }
+        String key = url.toExternalForm() + "|" + ft.getTypeName() + "|" + srs + "|" + arcLinearization + "|" + packedCoordinates;
+        return SUF2FeatureCache.getInstance().get(key, version[0], version[1],
+                new SUF2FeatureCache.Loader() {
+            public FeatureReader<SimpleFeatureType, SimpleFeature> open() throws IOException {
+                return createFileFeatureReader(ft, Query.ALL, false);
+            }
+        });
+    }
+
+    /**
+     * @return the length and modification time of the file, for a remote url
+     * from the response headers, or null when they are not known
+     */
+    private long[] getVersion() throws IOException {
+        File file = getSourceFile();
+        if (file != null) {
+            return new long[]{file.length(), file.lastModified()};
+        }
+        URLConnection connection = url.openConnection();
+        try {
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).setRequestMethod("HEAD");
+            }
+            long length = connection.getContentLengthLong();
+            long lastModified = connection.getLastModified();
+            if (length < 0 && lastModified == 0) {
+                return null;
+            }
+            return new long[]{length, lastModified};
+        } finally {
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+    }
+
+    /**
+     * Open a reader on the file, waiting for a file handle when the maximum
+     * number of open files is reached. The reader is tracked until it is
+     * closed.
+     */
+    FeatureReader<SimpleFeatureType, SimpleFeature> createFileFeatureReader(SimpleFeatureType ft, Query query, boolean reuseFeatures) throws IOException {
+        return createFileFeatureReader(ft, query, reuseFeatures, false);
+    }
+
+    /**
+     * @param recordHashes read the file sequentially and put the record hashes
+     * in the user data of the features, see
+     * {@link #createRecordFeatureReader()}
+     */
+    private FeatureReader<SimpleFeatureType, SimpleFeature> createFileFeatureReader(SimpleFeatureType ft, Query query, boolean reuseFeatures, boolean recordHashes) throws IOException {
+        if (disposed) {
+            throw new IOException("Databron is gesloten: " + url);
+        }
+        Semaphore permit = fileHandles;
+        if (permit != null) {
+            try {
+                if (!permit.tryAcquire(openFileTimeout, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("Te veel geopende readers (" + maxOpenFiles + ") voor " + url);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Onderbroken bij wachten op reader voor " + url);
+            }
+        }
+        TrackedFeatureReader reader;
+        try {
+            reader = new TrackedFeatureReader(recordHashes ? openRecordFeatureReader(ft) : openFileFeatureReader(ft, query, reuseFeatures), permit);
+        } catch (IOException | RuntimeException ex) {
+            if (permit != null) {
+                permit.release();
+            }
+            throw ex;
+        }
+        openReaders.add(reader);
+        if (disposed) {
+            /* disposed while opening */
+            reader.close();
+            throw new IOException("Databron is gesloten: " + url);
+        }
+        return reader;
+    }
+
+    private FeatureReader<SimpleFeatureType, SimpleFeature> openFileFeatureReader(SimpleFeatureType ft, Query query, boolean reuseFeatures) throws IOException {
+        try {
+            File sourceFile = getSourceFile();
+            if (useBinaryCache(sourceFile)) {
+                return new SUF2BinaryFeatureReader(sourceFile, arcLinearization, ft, query, geometryFactory, statistics);
+            }
+            File file = getFile();
+            Envelope bbox = SUF2FeatureReader.getBounds(query.getFilter());
+            if (bbox != null) {
+                SUF2SpatialIndex index = getSpatialIndex();
+                if (index != null) {
+                    return configure(new SUF2FeatureReader(index.query(bbox), ft, query), reuseFeatures);
+                }
+            }
+            if (threads > 1 && file != null) {
+                return new SUF2ParallelFeatureReader(file, ft, query, threads, preserveOrder, arcLinearization, geometryFactory, statistics);
+            }
+            if (file != null) {
+                /* positional reads through a file channel instead of the url stream */
+                return configure(new SUF2FeatureReader(SUF2FileSegments.of(file), ft, query), reuseFeatures);
+            }
+            return configure(new SUF2FeatureReader(url, ft, query), reuseFeatures);
+        } catch (SUF2ParseException e) {
+            throw new IOException("SUF2 parse exception" + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * A sequential reader of the file with the identity and coordinate hash
+     * of the record of every feature in its user data, for
+     * {@link SUF2MutationProcessor}. The caches are not used, as they do not
+     * keep the records. The reader is tracked like the other file readers.
+     */
+    FeatureReader<SimpleFeatureType, SimpleFeature> createRecordFeatureReader() throws IOException {
+        return createFileFeatureReader(getSchema(), Query.ALL, false, true);
+    }
+
+    private FeatureReader<SimpleFeatureType, SimpleFeature> openRecordFeatureReader(SimpleFeatureType ft) throws IOException {
+        try {
+            File file = getFile();
+            SUF2FeatureReader reader = configure(file != null
+                    ? new SUF2FeatureReader(SUF2FileSegments.of(file), ft, null)
+                    : new SUF2FeatureReader(url, ft, null), false);
+            reader.setRecordHashes(true);
+            return reader;
+        } catch (SUF2ParseException e) {
+            throw new IOException("SUF2 parse exception" + e.getLocalizedMessage());
+        }
+    }
+
+    private SUF2FeatureReader configure(SUF2FeatureReader reader, boolean reuseFeatures) {
+        reader.setReuseFeatures(reuseFeatures);
+        reader.setArcLinearization(arcLinearization);
+        reader.setGeometryFactory(geometryFactory);
+        reader.setStatistics(statistics);
+        return reader;
+    }
+
+    public FeatureReader getFeatureReader(String typeName) throws IOException {
+        SUF2Layer layer = getLayer(typeName);
+        if (layer != null) {
+            return createFeatureReader(getSchema(layer), Query.ALL);
+        }
+        return getFeatureReader();
+    }
+
+    public FeatureReader getFeatureReader() throws IOException {
+        return createFeatureReader();
+    }
+
+    /**
+     * A query without type name reads the flat type, as the first versions of
+     * this datastore ignored the type name of the query.
+     */
+    @Override
+    public FeatureReader<SimpleFeatureType, SimpleFeature> getFeatureReader(Query query, Transaction transaction) throws IOException {
+        if (query == null || query.getTypeName() == null) {
+            query = query == null ? new Query(typename) : new Query(query);
+            query.setTypeName(typename);
+        }
+        return super.getFeatureReader(query, transaction);
+    }
+
+    public ContentFeatureSource getFeatureSource() throws IOException {
+        return getFeatureSource(getTypeName());
+    }
+
+    @Override
+    public void createSchema(SimpleFeatureType featureType) throws IOException {
         throw new UnsupportedOperationException("Functie niet ondersteund voor alleen-lezen databron.");
     }
 
-    public void removeSchema(Name typeName) throws IOException {
+    public void updateSchema(SimpleFeatureType featureType) throws IOException {
         throw new UnsupportedOperationException("Functie niet ondersteund voor alleen-lezen databron.");
     }
 
-    public FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriter(Filter filter, Transaction transaction) throws IOException {
+    @Override
+    public void updateSchema(String typeName, SimpleFeatureType featureType) throws IOException {
         throw new UnsupportedOperationException("Functie niet ondersteund voor alleen-lezen databron.");
     }
 
-    public FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriter(Transaction transaction) throws IOException {
+    @Override
+    public void updateSchema(Name typeName, SimpleFeatureType featureType) throws IOException {
         throw new UnsupportedOperationException("Functie niet ondersteund voor alleen-lezen databron.");
     }
 
-    public FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriterAppend(Transaction transaction) throws IOException {
+    @Override
+    public void removeSchema(String typeName) throws IOException {
         throw new UnsupportedOperationException("Functie niet ondersteund voor alleen-lezen databron.");
     }
 
-    public FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriter(String typeName, Filter filter, Transaction transaction) throws IOException {
+    @Override
+    public void removeSchema(Name typeName) throws IOException {
         throw new UnsupportedOperationException("Functie niet ondersteund voor alleen-lezen databron.");
     }
 
-    public FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriter(String typeName, Transaction transaction) throws IOException {
+    public FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriter(Filter filter, Transaction transaction) throws IOException {
         throw new UnsupportedOperationException("Functie niet ondersteund voor alleen-lezen databron.");
     }
 
-    public FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriterAppend(String typeName, Transaction transaction) throws IOException {
+    public FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriter(Transaction transaction) throws IOException {
         throw new UnsupportedOperationException("Functie niet ondersteund voor alleen-lezen databron.");
     }
 
-    public LockingManager getLockingManager() {
+    public FeatureWriter<SimpleFeatureType, SimpleFeature> getFeatureWriterAppend(Transaction transaction) throws IOException {
         throw new UnsupportedOperationException("Functie niet ondersteund voor alleen-lezen databron.");
     }
 
+    @Override
     public ServiceInfo getInfo() {
         DefaultServiceInfo serviceInfo = new DefaultServiceInfo();
         serviceInfo.setTitle("SUF2 DataStore");
@@ -171,13 +818,63 @@ public class SUF2DataStore implements FileDataStore {
         return serviceInfo;
     }
 
+    /**
+     * Close all readers which are still open and refuse new readers.
+     */
+    @Override
     public void dispose() {
-        try {
-            this.featureReader.close();
-        } catch (IOException | NullPointerException ex) {
-            log.debug("Mogelijk probleem met sluiten van featureReader", ex);
+        disposed = true;
+        for (TrackedFeatureReader reader : openReaders.toArray(new TrackedFeatureReader[0])) {
+            try {
+                reader.close();
+            } catch (IOException ex) {
+                log.debug("Mogelijk probleem met sluiten van featureReader", ex);
+            }
+        }
+        statistics.unregister();
+        super.dispose();
+    }
+
+    /**
+     * Registers a reader as open until it is closed and releases its file
+     * handle permit when it is closed. Closing is idempotent.
+     */
+    private class TrackedFeatureReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
+
+        private final FeatureReader<SimpleFeatureType, SimpleFeature> delegate;
+        private final Semaphore permit;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        TrackedFeatureReader(FeatureReader<SimpleFeatureType, SimpleFeature> delegate, Semaphore permit) {
+            this.delegate = delegate;
+            this.permit = permit;
+        }
+
+        public SimpleFeatureType getFeatureType() {
+            return delegate.getFeatureType();
+        }
+
+        public SimpleFeature next() throws IOException, IllegalArgumentException, NoSuchElementException {
+            return delegate.next();
+        }
+
+        public boolean hasNext() throws IOException {
+            return !closed.get() && delegate.hasNext();
+        }
+
+        public void close() throws IOException {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            openReaders.remove(this);
+            try {
+                delegate.close();
+            } finally {
+                if (permit != null) {
+                    permit.release();
+                }
+            }
         }
-        this.featureReader = null;
     }
 
 }
@@ -11,7 +11,6 @@ import org.geotools.data.DataStore;
 import org.geotools.data.DataStoreFactorySpi;
 import org.geotools.data.FileDataStore;
 import org.geotools.data.FileDataStoreFactorySpi;
-import org.geotools.referencing.CRS;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.NoSuchAuthorityCodeException;
 
@@ -22,6 +21,23 @@ public class SUF2DataStoreFactory implements FileDataStoreFactorySpi {
 
     public static final DataStoreFactorySpi.Param PARAM_URL = new Param("url", URL.class, "url to a .nen file");
     public static final DataStoreFactorySpi.Param PARAM_SRS = new Param("srs", String.class, "override srs");
+    public static final DataStoreFactorySpi.Param PARAM_THREADS = new Param("threads", Integer.class, "number of threads used to read a local file, 1 reads sequentially", false, 1);
+    public static final DataStoreFactorySpi.Param PARAM_PRESERVE_ORDER = new Param("preserve order", Boolean.class, "return features in file order when reading with several threads", false, Boolean.TRUE);
+    public static final DataStoreFactorySpi.Param PARAM_REUSE_FEATURES = new Param("reuse features", Boolean.class, "return the same feature instance for every record, for streaming consumers only", false, Boolean.FALSE);
+    public static final DataStoreFactorySpi.Param PARAM_ARC_SEGMENTS = new Param("arc segments", Integer.class, "number of segments of a full circle when converting arcs to lines", false, (int) SUF2GeometryFactory.NUM_SEGMENTS);
+    public static final DataStoreFactorySpi.Param PARAM_ARC_TOLERANCE = new Param("arc tolerance", Double.class, "maximum distance between arcs and the lines they are converted to, overrides arc segments", false);
+    public static final DataStoreFactorySpi.Param PARAM_CURVED_ARCS = new Param("curved arcs", Boolean.class, "return arcs as circular strings instead of converting them to lines", false, Boolean.FALSE);
+    public static final DataStoreFactorySpi.Param PARAM_JMX = new Param("jmx statistics", Boolean.class, "register the read statistics of the datastore as MBean and time the readers", false, Boolean.FALSE);
+    public static final DataStoreFactorySpi.Param PARAM_CACHE_FEATURES = new Param("cache features", Boolean.class, "keep the features in a memory cache shared by all datastores", false, Boolean.FALSE);
+    public static final DataStoreFactorySpi.Param PARAM_PACKED_COORDINATES = new Param("packed coordinates", Boolean.class, "store coordinates in packed arrays to use less memory", false, Boolean.FALSE);
+    public static final DataStoreFactorySpi.Param PARAM_MAX_OPEN_FILES = new Param("max open files", Integer.class, "maximum number of readers with the file open at the same time, 0 for no limit", false, 0);
+    public static final DataStoreFactorySpi.Param PARAM_SPLIT_SCHEMA = new Param("split schema", Boolean.class, "a feature type per layer (lines, polygons, arcs, texts, symbols) in addition to the single type", false, Boolean.FALSE);
+    public static final DataStoreFactorySpi.Param PARAM_BINARY_CACHE = new Param("binary cache", Boolean.class, "write a binary sidecar file on the first read, used for later reads until the file changes", false, Boolean.FALSE);
+    public static final DataStoreFactorySpi.Param PARAM_SPATIAL_INDEX = new Param("create spatial index", Boolean.class, "create a spatial index file on the first bounding box query", false, Boolean.FALSE);
+
+    static {
+        SUF2TypeCache.warmUp();
+    }
 
     public String getDisplayName() {
         return "SUF2 File";
@@ -32,21 +48,28 @@ public class SUF2DataStoreFactory implements FileDataStoreFactorySpi {
     }
 
     public String[] getFileExtensions() {
-        return new String[]{".nen", ".sfn"};
+        return new String[]{".nen", ".sfn", ".nen.gz", ".sfn.gz", ".nen.zip", ".sfn.zip"};
     }
 
     /**
-     * @return true if the file of the f parameter exists
+     * @return true if the f parameter is a SUF2 file, a gzip compressed SUF2
+     * file or a zip file. A local zip file is accepted when it contains a
+     * SUF2 file, a remote zip file only with a SUF2 name such as
+     * kaart.nen.zip because its content is not known before reading it.
      */
     public boolean canProcess(URL f) {
-        return f.getFile().toLowerCase().endsWith(".nen") || f.getFile().toLowerCase().endsWith(".sfn");
+        String name = f.getFile();
+        if (name.toLowerCase().endsWith(".zip") && f.getProtocol().equalsIgnoreCase("file")) {
+            return SUF2Decompression.containsSUF2(new File(name));
+        }
+        return SUF2Decompression.isSUF2Name(SUF2Decompression.stripExtension(name));
     }
 
     /**
      * @return true if srs can be resolved
      */
     public boolean canProcess(String srs) throws NoSuchAuthorityCodeException, FactoryException {
-        return CRS.decode(srs) != null;
+        return SUF2TypeCache.getCRS(srs) != null;
     }
 
     /**
@@ -85,7 +108,7 @@ public class SUF2DataStoreFactory implements FileDataStoreFactorySpi {
     }
 
     public Param[] getParametersInfo() {
-        return new Param[]{PARAM_URL};
+        return new Param[]{PARAM_URL, PARAM_SPATIAL_INDEX, PARAM_THREADS, PARAM_PRESERVE_ORDER, PARAM_REUSE_FEATURES, PARAM_ARC_SEGMENTS, PARAM_ARC_TOLERANCE, PARAM_CURVED_ARCS, PARAM_CACHE_FEATURES, PARAM_PACKED_COORDINATES, PARAM_MAX_OPEN_FILES, PARAM_SPLIT_SCHEMA, PARAM_BINARY_CACHE, PARAM_JMX};
     }
 
     public Map getImplementationHints() {
@@ -113,7 +136,65 @@ public class SUF2DataStoreFactory implements FileDataStoreFactorySpi {
         if (!canProcess(params)) {
             throw new FileNotFoundException("SUF2 file not found: " + params);
         }
-        return new SUF2DataStore((URL) params.get(PARAM_URL.key), (String) params.get(PARAM_SRS.key));
+        SUF2DataStore store = new SUF2DataStore((URL) params.get(PARAM_URL.key), (String) params.get(PARAM_SRS.key));
+        Boolean spatialIndex = (Boolean) PARAM_SPATIAL_INDEX.lookUp(params);
+        if (spatialIndex != null) {
+            store.setCreateSpatialIndex(spatialIndex);
+        }
+        Integer threads = (Integer) PARAM_THREADS.lookUp(params);
+        if (threads != null) {
+            store.setThreads(threads);
+        }
+        Boolean preserveOrder = (Boolean) PARAM_PRESERVE_ORDER.lookUp(params);
+        if (preserveOrder != null) {
+            store.setPreserveOrder(preserveOrder);
+        }
+        Boolean reuseFeatures = (Boolean) PARAM_REUSE_FEATURES.lookUp(params);
+        if (reuseFeatures != null) {
+            store.setReuseFeatures(reuseFeatures);
+        }
+        Double arcTolerance = (Double) PARAM_ARC_TOLERANCE.lookUp(params);
+        Integer arcSegments = (Integer) PARAM_ARC_SEGMENTS.lookUp(params);
+        Boolean curvedArcs = (Boolean) PARAM_CURVED_ARCS.lookUp(params);
+        try {
+            SUF2ArcLinearization arcs = SUF2ArcLinearization.DEFAULT;
+            if (arcTolerance != null) {
+                arcs = SUF2ArcLinearization.byTolerance(arcTolerance);
+            } else if (arcSegments != null) {
+                arcs = SUF2ArcLinearization.bySegments(arcSegments);
+            }
+            if (curvedArcs != null && curvedArcs) {
+                arcs = arcs.curved();
+            }
+            store.setArcLinearization(arcs);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        Integer maxOpenFiles = (Integer) PARAM_MAX_OPEN_FILES.lookUp(params);
+        if (maxOpenFiles != null) {
+            store.setMaxOpenFiles(maxOpenFiles);
+        }
+        Boolean packedCoordinates = (Boolean) PARAM_PACKED_COORDINATES.lookUp(params);
+        if (packedCoordinates != null) {
+            store.setPackedCoordinates(packedCoordinates);
+        }
+        Boolean cacheFeatures = (Boolean) PARAM_CACHE_FEATURES.lookUp(params);
+        if (cacheFeatures != null) {
+            store.setCacheFeatures(cacheFeatures);
+        }
+        Boolean splitSchema = (Boolean) PARAM_SPLIT_SCHEMA.lookUp(params);
+        if (splitSchema != null) {
+            store.setSplitSchema(splitSchema);
+        }
+        Boolean binaryCache = (Boolean) PARAM_BINARY_CACHE.lookUp(params);
+        if (binaryCache != null) {
+            store.setBinaryCache(binaryCache);
+        }
+        Boolean jmx = (Boolean) PARAM_JMX.lookUp(params);
+        if (jmx != null && jmx) {
+            store.registerStatistics();
+        }
+        return store;
     }
 
     public DataStore createNewDataStore(Map params) throws IOException {
@@ -0,0 +1,263 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Reading of gzip compressed SUF2 files (.nen.gz, .sfn.gz) and zip files
+ * containing a SUF2 file. The file is decompressed by a separate thread which
+ * hands blocks of {@value #BLOCK_SIZE} bytes to the parser through a bounded
+ * queue, so reading, decompressing and parsing overlap.
+ */
+class SUF2Decompression {
+
+    private static final Log log = LogFactory.getLog(SUF2Decompression.class);
+    static final int BLOCK_SIZE = 256 * 1024;
+    static final int QUEUE_SIZE = 8;
+    private static final Object END = new Object();
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    private SUF2Decompression() {
+    }
+
+    static boolean isCompressed(URL url) {
+        return isCompressed(url.getFile());
+    }
+
+    static boolean isCompressed(String name) {
+        name = name.toLowerCase();
+        return name.endsWith(".gz") || name.endsWith(".zip");
+    }
+
+    /**
+     * @return the name without .gz or .zip extension
+     */
+    static String stripExtension(String name) {
+        String lower = name.toLowerCase();
+        if (lower.endsWith(".gz")) {
+            return name.substring(0, name.length() - 3);
+        } else if (lower.endsWith(".zip")) {
+            return name.substring(0, name.length() - 4);
+        }
+        return name;
+    }
+
+    static boolean isSUF2Name(String name) {
+        name = name.toLowerCase();
+        return name.endsWith(".nen") || name.endsWith(".sfn");
+    }
+
+    /**
+     * @return true if the zip file contains a SUF2 file
+     */
+    static boolean containsSUF2(File zip) {
+        try {
+            ZipFile zipFile = new ZipFile(zip);
+            try {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (!entry.isDirectory() && isSUF2Name(entry.getName())) {
+                        return true;
+                    }
+                }
+            } finally {
+                zipFile.close();
+            }
+        } catch (IOException ex) {
+            log.debug("Kan zip bestand " + zip + " niet lezen: " + ex.getLocalizedMessage());
+        }
+        return false;
+    }
+
+    /**
+     * @return an url reading the decompressed file, or the url itself when it
+     * is not compressed
+     */
+    static URL toURL(final URL url) throws MalformedURLException {
+        if (!isCompressed(url)) {
+            return url;
+        }
+        return SUF2StreamHandler.createURL(url, new SUF2StreamHandler.StreamSource() {
+            public InputStream openStream() throws IOException {
+                return decompress(url.openStream(), url.getFile());
+            }
+        });
+    }
+
+    /**
+     * Decompress the stream of a file with the given name in a separate
+     * thread. For a zip file the first SUF2 file in it is read. The stream is
+     * closed when the returned stream is closed.
+     */
+    static InputStream decompress(InputStream in, String name) throws IOException {
+        InputStream decompressed;
+        try {
+            InputStream buffered = new BufferedInputStream(in, BLOCK_SIZE);
+            if (name.toLowerCase().endsWith(".zip")) {
+                ZipInputStream zip = new ZipInputStream(buffered);
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (!entry.isDirectory() && isSUF2Name(entry.getName())) {
+                        break;
+                    }
+                }
+                if (entry == null) {
+                    throw new IOException("Geen SUF2 bestand gevonden in " + name);
+                }
+                decompressed = zip;
+            } else {
+                decompressed = new GZIPInputStream(buffered, BLOCK_SIZE);
+            }
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+        return new PipelinedInputStream(decompressed, name);
+    }
+
+    /**
+     * Stream of the blocks read by a background thread from another stream.
+     */
+    private static class PipelinedInputStream extends InputStream {
+
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_SIZE);
+        private final InputStream source;
+        private final String name;
+        private final Thread thread;
+        private volatile boolean closed = false;
+        private byte[] block;
+        private int position = 0;
+        private boolean end = false;
+
+        PipelinedInputStream(InputStream source, String name) {
+            this.source = source;
+            this.name = name;
+            this.thread = new Thread(new Runnable() {
+                public void run() {
+                    produce();
+                }
+            }, "suf2-decompress-" + THREAD_NUMBER.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void produce() {
+            try {
+                while (!closed) {
+                    byte[] buffer = new byte[BLOCK_SIZE];
+                    int length = 0;
+                    int n = 0;
+                    while (length < BLOCK_SIZE && (n = source.read(buffer, length, BLOCK_SIZE - length)) != -1) {
+                        length += n;
+                    }
+                    if (length > 0) {
+                        queue.put(length == BLOCK_SIZE ? buffer : Arrays.copyOf(buffer, length));
+                    }
+                    if (n == -1) {
+                        queue.put(END);
+                        break;
+                    }
+                }
+            } catch (InterruptedException ex) {
+                /* closed by the reader */
+            } catch (IOException ex) {
+                if (!closed) {
+                    try {
+                        queue.put(ex);
+                    } catch (InterruptedException ie) {
+                        /* closed by the reader */
+                    }
+                }
+            } finally {
+                try {
+                    source.close();
+                } catch (IOException ex) {
+                    log.debug("Mogelijk probleem met sluiten van " + name, ex);
+                }
+            }
+        }
+
+        private boolean fill() throws IOException {
+            if (closed) {
+                throw new IOException("Stream is gesloten: " + name);
+            }
+            if (end) {
+                return false;
+            }
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Onderbroken bij uitpakken van " + name);
+            }
+            if (item == END) {
+                end = true;
+                return false;
+            }
+            if (item instanceof IOException) {
+                end = true;
+                throw new IOException("Fout bij uitpakken van " + name, (IOException) item);
+            }
+            block = (byte[]) item;
+            position = 0;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if ((block == null || position == block.length) && !fill()) {
+                return -1;
+            }
+            return block[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if ((block == null || position == block.length) && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, block.length - position);
+            System.arraycopy(block, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return block == null ? 0 : block.length - position;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            end = true;
+            block = null;
+            thread.interrupt();
+            queue.clear();
+        }
+    }
+}
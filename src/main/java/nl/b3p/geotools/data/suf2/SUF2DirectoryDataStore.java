@@ -0,0 +1,335 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.data.DefaultServiceInfo;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.ServiceInfo;
+import org.geotools.data.store.ContentDataStore;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.feature.NameImpl;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.locationtech.jts.geom.Envelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
+
+/**
+ * Read-only datastore presenting the SUF2 files in a directory, for instance
+ * the sheets of a map series, as a single feature type named after the
+ * directory. Every file is read by its own {@link SUF2DataStore}, created with
+ * the same parameters. The extent of every file is kept, so a query with a
+ * bounding box only opens the files which intersect it. The files of a query
+ * are read concurrently by at most {@link #getFileThreads()} threads.
+ * <p>
+ * The directory is listed for every read, so files can be added and removed
+ * while the datastore is in use.
+ */
+public class SUF2DirectoryDataStore extends ContentDataStore {
+
+    private static final Log log = LogFactory.getLog(SUF2DirectoryDataStore.class);
+    private final File directory;
+    private final PathMatcher matcher;
+    private final String typename;
+    private final String srs;
+    private final Map fileParams;
+    private final SUF2DataStoreFactory factory = new SUF2DataStoreFactory();
+    private final Map<File, SUF2DataStore> stores = new ConcurrentHashMap<File, SUF2DataStore>();
+    private final Map<File, FileExtent> extents = new ConcurrentHashMap<File, FileExtent>();
+    private SimpleFeatureType featureType;
+    private volatile int fileThreads = 4;
+    private volatile boolean disposed = false;
+
+    /**
+     * @param pattern glob pattern for the names of the files, for instance
+     * "*.nen", or null for all files which can be read as SUF2 file
+     * @param fileParams parameters of {@link SUF2DataStoreFactory} used for
+     * the datastore of every file, may be null
+     */
+    public SUF2DirectoryDataStore(File directory, String pattern, String srs, Map fileParams) throws IOException {
+        if (!directory.isDirectory()) {
+            throw new IOException("Map bestaat niet: " + directory);
+        }
+        this.directory = directory;
+        this.matcher = pattern == null ? null : FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        this.typename = directory.getName();
+        this.srs = srs;
+        this.fileParams = fileParams == null ? new HashMap() : new HashMap(fileParams);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Set the maximum number of files read at the same time by a reader,
+     * 4 by default.
+     */
+    public void setFileThreads(int fileThreads) {
+        this.fileThreads = Math.max(1, fileThreads);
+    }
+
+    public int getFileThreads() {
+        return fileThreads;
+    }
+
+    protected Name getTypeName() {
+        return new NameImpl(namespaceURI, typename);
+    }
+
+    @Override
+    protected List<Name> createTypeNames() throws IOException {
+        return Collections.singletonList(getTypeName());
+    }
+
+    @Override
+    protected ContentFeatureSource createFeatureSource(ContentEntry entry) throws IOException {
+        return new SUF2DirectoryFeatureSource(entry, Query.ALL);
+    }
+
+    public synchronized SimpleFeatureType getSchema() throws IOException {
+        if (featureType == null) {
+            featureType = SUF2FeatureReader.createFeatureType(typename, srs);
+        }
+        return featureType;
+    }
+
+    /**
+     * @return the SUF2 files in the directory, sorted by name
+     */
+    public List<File> getFiles() {
+        List<File> files = new ArrayList<File>();
+        File[] children = directory.listFiles();
+        if (children != null) {
+            Arrays.sort(children);
+            for (File file : children) {
+                if (file.isFile() && accept(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        /* forget the files which are removed */
+        for (File file : stores.keySet()) {
+            if (!files.contains(file)) {
+                SUF2DataStore store = stores.remove(file);
+                extents.remove(file);
+                if (store != null) {
+                    store.dispose();
+                }
+            }
+        }
+        return files;
+    }
+
+    private boolean accept(File file) {
+        if (matcher != null) {
+            return matcher.matches(Paths.get(file.getName()));
+        }
+        try {
+            return factory.canProcess(file.toURI().toURL());
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the datastore of a file in the directory, created with the
+     * parameters of this datastore
+     */
+    public SUF2DataStore getDataStore(File file) throws IOException {
+        if (disposed) {
+            throw new IOException("Databron is gesloten: " + directory);
+        }
+        SUF2DataStore store = stores.get(file);
+        if (store == null) {
+            synchronized (stores) {
+                store = stores.get(file);
+                if (store == null) {
+                    Map params = new HashMap(fileParams);
+                    params.put(SUF2DataStoreFactory.PARAM_URL.key, file.toURI().toURL());
+                    if (srs != null) {
+                        params.put(SUF2DataStoreFactory.PARAM_SRS.key, srs);
+                    }
+                    store = (SUF2DataStore) factory.createDataStore(params);
+                    stores.put(file, store);
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * The extent of a file, exact from a spatial index or otherwise from the
+     * summary of the file. Kept until the file changes.
+     */
+    private FileExtent getExtent(File file) throws IOException {
+        FileExtent extent = extents.get(file);
+        if (extent != null && extent.isValid(file)) {
+            return extent;
+        }
+        SUF2DataStore store = getDataStore(file);
+        SUF2Header header = store.getHeader();
+        if (header.isExact()) {
+            extent = new FileExtent(file, header.getBounds(), header.getCount());
+        } else {
+            SUF2ScanSummary summary = store.getSummary();
+            extent = new FileExtent(file, summary.getBounds(), summary.getCount());
+        }
+        extents.put(file, extent);
+        return extent;
+    }
+
+    /**
+     * Get the extents of the files, the extents which are not known yet are
+     * determined concurrently.
+     */
+    private List<FileExtent> getExtents(final List<File> files) throws IOException {
+        List<File> missing = new ArrayList<File>();
+        for (File file : files) {
+            FileExtent extent = extents.get(file);
+            if (extent == null || !extent.isValid(file)) {
+                missing.add(file);
+            }
+        }
+        if (missing.size() > 1 && fileThreads > 1) {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(fileThreads, missing.size()));
+            try {
+                List<Future<FileExtent>> futures = new ArrayList<Future<FileExtent>>();
+                for (final File file : missing) {
+                    futures.add(executor.submit(new Callable<FileExtent>() {
+                        public FileExtent call() throws IOException {
+                            return getExtent(file);
+                        }
+                    }));
+                }
+                for (Future<FileExtent> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Onderbroken bij bepalen van extent van " + directory);
+            } catch (ExecutionException ex) {
+                throw new IOException("Kan extent van " + directory + " niet bepalen: " + ex.getCause().getLocalizedMessage(), ex.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        List<FileExtent> result = new ArrayList<FileExtent>();
+        for (File file : files) {
+            result.add(getExtent(file));
+        }
+        return result;
+    }
+
+    /**
+     * @return the bounds of all files in the directory
+     */
+    public ReferencedEnvelope getBounds() throws IOException {
+        ReferencedEnvelope bounds = new ReferencedEnvelope(getSchema().getCoordinateReferenceSystem());
+        for (FileExtent extent : getExtents(getFiles())) {
+            if (extent.bounds != null && !extent.bounds.isNull()) {
+                bounds.expandToInclude(extent.bounds);
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * @return the number of features in all files in the directory
+     */
+    public int getCount() throws IOException {
+        int count = 0;
+        for (FileExtent extent : getExtents(getFiles())) {
+            count += extent.count;
+        }
+        return count;
+    }
+
+    FeatureReader<SimpleFeatureType, SimpleFeature> createFeatureReader(Query query) throws IOException {
+        if (disposed) {
+            throw new IOException("Databron is gesloten: " + directory);
+        }
+        List<File> files = getFiles();
+        Envelope bbox = query == null || query.getFilter() == null || Filter.INCLUDE.equals(query.getFilter())
+                ? null : SUF2FeatureReader.getBounds(query.getFilter());
+        List<SUF2DataStore> selected = new ArrayList<SUF2DataStore>();
+        if (bbox == null) {
+            for (File file : files) {
+                selected.add(getDataStore(file));
+            }
+        } else {
+            for (FileExtent extent : getExtents(files)) {
+                if (extent.bounds != null && !extent.bounds.isNull() && extent.bounds.intersects(bbox)) {
+                    selected.add(getDataStore(extent.file));
+                }
+            }
+            log.debug(selected.size() + " van " + files.size() + " bestanden in " + directory + " binnen " + bbox);
+        }
+        return new SUF2DirectoryFeatureReader(selected, getSchema(), query, fileThreads);
+    }
+
+    @Override
+    public ServiceInfo getInfo() {
+        DefaultServiceInfo serviceInfo = new DefaultServiceInfo();
+        serviceInfo.setTitle("SUF2 Directory DataStore");
+        serviceInfo.setSource(directory.toURI());
+        return serviceInfo;
+    }
+
+    /**
+     * Dispose the datastores of all files.
+     */
+    @Override
+    public void dispose() {
+        disposed = true;
+        for (SUF2DataStore store : stores.values()) {
+            store.dispose();
+        }
+        stores.clear();
+        extents.clear();
+        super.dispose();
+    }
+
+    private static class FileExtent {
+
+        private final File file;
+        private final long fileLength;
+        private final long lastModified;
+        private final ReferencedEnvelope bounds;
+        private final int count;
+
+        FileExtent(File file, ReferencedEnvelope bounds, int count) {
+            this.file = file;
+            this.fileLength = file.length();
+            this.lastModified = file.lastModified();
+            this.bounds = bounds;
+            this.count = count;
+        }
+
+        boolean isValid(File file) {
+            return file.length() == fileLength && file.lastModified() == lastModified;
+        }
+    }
+}
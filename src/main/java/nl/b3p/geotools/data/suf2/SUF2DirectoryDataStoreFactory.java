@@ -0,0 +1,109 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.geotools.data.DataStore;
+import org.geotools.data.DataStoreFactorySpi;
+
+/**
+ * Factory for a {@link SUF2DirectoryDataStore}. The parameters of
+ * {@link SUF2DataStoreFactory}, except url, are used for the datastore of
+ * every file in the directory.
+ */
+public class SUF2DirectoryDataStoreFactory implements DataStoreFactorySpi {
+
+    public static final DataStoreFactorySpi.Param PARAM_DIRECTORY = new Param("directory", URL.class, "url to a directory with .nen files");
+    public static final DataStoreFactorySpi.Param PARAM_PATTERN = new Param("pattern", String.class, "glob pattern for the names of the files, for instance *.nen", false);
+    public static final DataStoreFactorySpi.Param PARAM_FILE_THREADS = new Param("file threads", Integer.class, "maximum number of files read at the same time", false, 4);
+
+    public String getDisplayName() {
+        return "SUF2 Directory";
+    }
+
+    public String getDescription() {
+        return "Directory of SUF2 NEN 1878 files as a single layer";
+    }
+
+    /**
+     * @return true if the directory param is an existing local directory
+     */
+    public boolean canProcess(Map params) {
+        if (!params.containsKey(PARAM_DIRECTORY.key)) {
+            return false;
+        }
+        try {
+            URL url = (URL) PARAM_DIRECTORY.lookUp(params);
+            if (url == null || !url.getProtocol().equalsIgnoreCase("file") || !new File(url.getFile()).isDirectory()) {
+                return false;
+            }
+        } catch (IOException ioe) {
+            /* return false on any exception */
+            return false;
+        }
+        if (params.containsKey(SUF2DataStoreFactory.PARAM_SRS.key)) {
+            try {
+                return new SUF2DataStoreFactory().canProcess((String) SUF2DataStoreFactory.PARAM_SRS.lookUp(params));
+            } catch (Exception ex) {
+                /* return false on any exception */
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Always returns true, no additional libraries needed
+     */
+    public boolean isAvailable() {
+        return true;
+    }
+
+    public Param[] getParametersInfo() {
+        Param[] fileParams = new SUF2DataStoreFactory().getParametersInfo();
+        Param[] params = new Param[fileParams.length + 3];
+        params[0] = PARAM_DIRECTORY;
+        params[1] = PARAM_PATTERN;
+        params[2] = PARAM_FILE_THREADS;
+        /* all parameters of a file except its url */
+        int i = 3;
+        for (Param param : fileParams) {
+            if (param != SUF2DataStoreFactory.PARAM_URL) {
+                params[i++] = param;
+            }
+        }
+        params[i] = SUF2DataStoreFactory.PARAM_SRS;
+        return params;
+    }
+
+    public Map getImplementationHints() {
+        return Collections.EMPTY_MAP;
+    }
+
+    public DataStore createDataStore(Map params) throws IOException {
+        if (!canProcess(params)) {
+            throw new FileNotFoundException("SUF2 directory not found: " + params);
+        }
+        URL url = (URL) PARAM_DIRECTORY.lookUp(params);
+        String pattern = (String) PARAM_PATTERN.lookUp(params);
+        String srs = (String) SUF2DataStoreFactory.PARAM_SRS.lookUp(params);
+        Map fileParams = new HashMap(params);
+        fileParams.remove(PARAM_DIRECTORY.key);
+        fileParams.remove(PARAM_PATTERN.key);
+        fileParams.remove(PARAM_FILE_THREADS.key);
+        SUF2DirectoryDataStore store = new SUF2DirectoryDataStore(new File(url.getFile()), pattern, srs, fileParams);
+        Integer fileThreads = (Integer) PARAM_FILE_THREADS.lookUp(params);
+        if (fileThreads != null) {
+            store.setFileThreads(fileThreads);
+        }
+        return store;
+    }
+
+    public DataStore createNewDataStore(Map params) throws IOException {
+        throw new UnsupportedOperationException("This plugin is read-only");
+    }
+}
@@ -0,0 +1,211 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.data.DataSourceException;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Reads the features of several SUF2 files as features of one feature type,
+ * see {@link SUF2DirectoryDataStore}. The files are read concurrently by a
+ * bounded number of threads, each file through a bounded queue. Features are
+ * returned in the order of the files, feature ids are those of the file.
+ */
+class SUF2DirectoryFeatureReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
+
+    private static final Log log = LogFactory.getLog(SUF2DirectoryFeatureReader.class);
+    private static final int QUEUE_SIZE = 1024;
+    private static final Object END = new Object();
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    private final SimpleFeatureType resultType;
+    private final ExecutorService executor;
+    private final BlockingQueue<Object>[] queues;
+    private final int startIndex;
+    private final int maxFeatures;
+    private volatile boolean closed = false;
+    private int current = 0;
+    private IOException failure;
+    private int skipped = 0;
+    private int returned = 0;
+    private SimpleFeature feature;
+
+    SUF2DirectoryFeatureReader(List<SUF2DataStore> stores, SimpleFeatureType ft, Query query, int threads) throws IOException {
+        if (query == null) {
+            query = Query.ALL;
+        }
+        if (query.getPropertyNames() == null) {
+            resultType = ft;
+        } else {
+            try {
+                resultType = SimpleFeatureTypeBuilder.retype(ft, query.getPropertyNames());
+            } catch (Exception e) {
+                throw new DataSourceException("Error creating SimpleFeatureType for query", e);
+            }
+        }
+        startIndex = query.getStartIndex() == null ? 0 : query.getStartIndex();
+        maxFeatures = query.getMaxFeatures();
+
+        /* offset and limit are applied to the merged features */
+        Query fileQuery = new Query(query);
+        fileQuery.setStartIndex(null);
+        fileQuery.setMaxFeatures(Query.DEFAULT_MAX);
+
+        queues = new BlockingQueue[stores.size()];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayBlockingQueue<Object>(QUEUE_SIZE);
+        }
+        executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, stores.size())), new DaemonThreadFactory());
+        for (int i = 0; i < stores.size(); i++) {
+            executor.execute(new FileTask(stores.get(i), fileQuery, queues[i]));
+        }
+        executor.shutdown();
+    }
+
+    public SimpleFeatureType getFeatureType() {
+        return resultType;
+    }
+
+    public SimpleFeature next() throws IOException, IllegalArgumentException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more features in SUF2 files");
+        }
+        SimpleFeature next = feature;
+        feature = null;
+        return next;
+    }
+
+    public boolean hasNext() throws IOException {
+        if (feature != null) {
+            return true;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (closed || returned >= maxFeatures) {
+            return false;
+        }
+        try {
+            while (current < queues.length) {
+                Object item = queues[current].take();
+                if (item == END) {
+                    current++;
+                } else if (item instanceof Failure) {
+                    /* the file task queues nothing after a failure */
+                    failure = new IOException("Fout bij lezen van SUF2 bestand " + ((Failure) item).store.getSourceFile(), ((Failure) item).exception);
+                    throw failure;
+                } else if (skipped < startIndex) {
+                    skipped++;
+                } else {
+                    feature = (SimpleFeature) item;
+                    returned++;
+                    return true;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Onderbroken bij lezen van SUF2 bestanden");
+        }
+        return false;
+    }
+
+    public void close() throws IOException {
+        closed = true;
+        executor.shutdownNow();
+        for (BlockingQueue<Object> queue : queues) {
+            queue.clear();
+        }
+    }
+
+    private static class Failure {
+
+        private final SUF2DataStore store;
+        private final Throwable exception;
+
+        Failure(SUF2DataStore store, Throwable exception) {
+            this.store = store;
+            this.exception = exception;
+        }
+    }
+
+    private class FileTask implements Runnable {
+
+        private final SUF2DataStore store;
+        private final Query query;
+        private final BlockingQueue<Object> queue;
+
+        FileTask(SUF2DataStore store, Query query, BlockingQueue<Object> queue) {
+            this.store = store;
+            this.query = query;
+            this.queue = queue;
+        }
+
+        /**
+         * Queues the features of the file followed by END or a Failure, so
+         * the consumer never waits for a file which stopped.
+         */
+        public void run() {
+            FeatureReader<SimpleFeatureType, SimpleFeature> reader = null;
+            Object last = END;
+            try {
+                if (closed) {
+                    return;
+                }
+                reader = store.createFeatureReader(query);
+                while (!closed && reader.hasNext()) {
+                    /* copied to the type of the directory, also when the store reuses features */
+                    queue.put(SimpleFeatureBuilder.retype(reader.next(), resultType));
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                last = null;
+            } catch (Throwable ex) {
+                if (!closed) {
+                    log.error("Fout bij lezen van " + store.getSourceFile(), ex);
+                }
+                last = new Failure(store, ex);
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException ex) {
+                        log.debug("Mogelijk probleem met sluiten van featureReader", ex);
+                    }
+                }
+                if (last != null && !closed) {
+                    try {
+                        queue.put(last);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final int pool = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger number = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "suf2-directory-" + pool + "-" + number.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.IOException;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Read-only feature source for the SUF2 files of a directory. Bounds and
+ * count of all features are answered from the extents of the files kept by
+ * the datastore, other queries are answered by reading the files.
+ */
+public class SUF2DirectoryFeatureSource extends ContentFeatureSource {
+
+    public SUF2DirectoryFeatureSource(ContentEntry entry, Query query) {
+        super(entry, query);
+    }
+
+    @Override
+    public SUF2DirectoryDataStore getDataStore() {
+        return (SUF2DirectoryDataStore) super.getDataStore();
+    }
+
+    @Override
+    protected SimpleFeatureType buildFeatureType() throws IOException {
+        return getDataStore().getSchema();
+    }
+
+    @Override
+    protected ReferencedEnvelope getBoundsInternal(Query query) throws IOException {
+        if (!Filter.INCLUDE.equals(query.getFilter()) || query.getStartIndex() != null || !query.isMaxFeaturesUnlimited()) {
+            return null;
+        }
+        return getDataStore().getBounds();
+    }
+
+    @Override
+    protected int getCountInternal(Query query) throws IOException {
+        if (!Filter.INCLUDE.equals(query.getFilter())) {
+            return -1;
+        }
+        int count = getDataStore().getCount();
+        if (query.getStartIndex() != null) {
+            count = Math.max(0, count - query.getStartIndex());
+        }
+        if (!query.isMaxFeaturesUnlimited()) {
+            count = Math.min(count, query.getMaxFeatures());
+        }
+        return count;
+    }
+
+    @Override
+    protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(Query query) throws IOException {
+        return getDataStore().createFeatureReader(query);
+    }
+
+    @Override
+    protected boolean canFilter() {
+        return true;
+    }
+
+    @Override
+    protected boolean canRetype() {
+        return true;
+    }
+
+    @Override
+    protected boolean canLimit() {
+        return true;
+    }
+
+    @Override
+    protected boolean canOffset() {
+        return true;
+    }
+}
@@ -0,0 +1,321 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.data.FeatureReader;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Process wide cache of all features of SUF2 files, shared by the datastores
+ * with feature caching enabled. Entries are keyed by the url of the file and
+ * the settings that determine the features, and are invalid when the size or
+ * modification time of the file changes. The estimated memory of all entries
+ * is kept below a budget by evicting the least recently used entries. Files
+ * which do not fit in the budget are not cached, this is remembered until the
+ * file changes so they are not loaded for every query. A file is loaded once
+ * when several threads ask for it at the same time.
+ * <p>
+ * The budget in megabytes is read from system property
+ * {@value #MEMORY_PROPERTY}, default {@value #DEFAULT_MEMORY_MB}.
+ */
+public class SUF2FeatureCache {
+
+    private static final Log log = LogFactory.getLog(SUF2FeatureCache.class);
+    public static final String MEMORY_PROPERTY = "nl.b3p.geotools.data.suf2.cache.memory";
+    public static final int DEFAULT_MEMORY_MB = 256;
+    private static final SUF2FeatureCache instance = new SUF2FeatureCache(Long.getLong(MEMORY_PROPERTY, DEFAULT_MEMORY_MB) * 1024 * 1024);
+    private static final int MAX_TOO_LARGE = 1024;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    /* keys being loaded, waited for by other threads asking for the same key */
+    private final Map<String, Loading> loading = new HashMap<String, Loading>();
+    /* length and modification time of the files which do not fit */
+    private final Map<String, long[]> tooLarge = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+            return size() > MAX_TOO_LARGE;
+        }
+    };
+    private long maxMemory;
+    private long memory = 0;
+
+    /**
+     * Reads all features of a file for the cache.
+     */
+    interface Loader {
+
+        FeatureReader<SimpleFeatureType, SimpleFeature> open() throws IOException;
+    }
+
+    SUF2FeatureCache(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+    public static SUF2FeatureCache getInstance() {
+        return instance;
+    }
+
+    public synchronized long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * Change the memory budget in bytes, entries are evicted when the cache
+     * uses more.
+     */
+    public synchronized void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+        evict(0);
+    }
+
+    /**
+     * @return estimated memory of the cached features in bytes
+     */
+    public synchronized long getMemory() {
+        return memory;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        tooLarge.clear();
+        memory = 0;
+    }
+
+    /**
+     * @return the cached features for the key, loaded when there is no valid
+     * entry, or null when the features do not fit in the budget
+     */
+    Entry get(final String key, final long length, final long lastModified, final Loader loader) throws IOException {
+        Loading task;
+        boolean owner = false;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.length == length && entry.lastModified == lastModified) {
+                    return entry;
+                }
+                remove(key);
+            }
+            long[] version = tooLarge.get(key);
+            if (version != null) {
+                if (version[0] == length && version[1] == lastModified) {
+                    return null;
+                }
+                tooLarge.remove(key);
+            }
+            task = loading.get(key);
+            if (task == null || task.length != length || task.lastModified != lastModified) {
+                task = new Loading(length, lastModified, new Callable<Entry>() {
+                    public Entry call() throws IOException {
+                        return load(key, length, lastModified, loader);
+                    }
+                });
+                loading.put(key, task);
+                owner = true;
+            }
+        }
+        if (owner) {
+            /* loaded outside the lock, other threads asking for the key wait for the task */
+            task.run();
+            synchronized (this) {
+                /* published before the task is removed, so no thread finds neither */
+                publish(key, task);
+                if (loading.get(key) == task) {
+                    loading.remove(key);
+                }
+            }
+        }
+        Entry entry;
+        try {
+            entry = task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Onderbroken bij wachten op laden van " + key);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        return entry;
+    }
+
+    /**
+     * Put the result of a finished load in the cache, or remember that the
+     * features did not fit. A failed load is not remembered. Must be called
+     * while holding the lock.
+     */
+    private void publish(String key, Loading task) {
+        Entry entry;
+        try {
+            entry = task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException ex) {
+            return;
+        }
+        if (entry == null) {
+            tooLarge.put(key, new long[]{task.length, task.lastModified});
+        } else {
+            remove(key);
+            evict(entry.memory);
+            entries.put(key, entry);
+            memory += entry.memory;
+        }
+    }
+
+    private Entry load(String key, long length, long lastModified, Loader loader) throws IOException {
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        long size = 0;
+        long max = getMaxMemory();
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = loader.open();
+        try {
+            while (reader.hasNext()) {
+                SimpleFeature f = reader.next();
+                features.add(f);
+                size += estimate(f);
+                if (size > max) {
+                    log.debug("Features van " + key + " passen niet in de cache");
+                    return null;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        log.debug(features.size() + " features van " + key + " in de cache, ongeveer " + (size / 1024) + " kB");
+        return new Entry(features, size, length, lastModified);
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            memory -= entry.memory;
+        }
+    }
+
+    /**
+     * Evict least recently used entries until the extra bytes fit.
+     */
+    private void evict(long extra) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (memory + extra > maxMemory && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            log.debug("Features van " + eldest.getKey() + " uit de cache verwijderd");
+            memory -= eldest.getValue().memory;
+            it.remove();
+        }
+    }
+
+    /**
+     * Rough estimate of the memory used by a feature: object headers and
+     * references, strings and coordinates.
+     */
+    static long estimate(SimpleFeature f) {
+        long size = 64 + f.getAttributeCount() * 8;
+        for (Object value : f.getAttributes()) {
+            if (value instanceof String) {
+                size += 48 + ((String) value).length() * 2;
+            } else if (value instanceof Geometry) {
+                size += 64 + ((Geometry) value).getNumPoints() * 48;
+            } else if (value != null) {
+                size += 24;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Loading of a key for a length and modification time.
+     */
+    private static class Loading extends FutureTask<Entry> {
+
+        private final long length;
+        private final long lastModified;
+
+        Loading(long length, long lastModified, Callable<Entry> callable) {
+            super(callable);
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * All features of a file with a lazily built spatial index.
+     */
+    static class Entry {
+
+        private final List<SimpleFeature> features;
+        private final long memory;
+        private final long length;
+        private final long lastModified;
+        private STRtree tree;
+
+        Entry(List<SimpleFeature> features, long memory, long length, long lastModified) {
+            this.features = Collections.unmodifiableList(features);
+            this.memory = memory;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        List<SimpleFeature> getFeatures() {
+            return features;
+        }
+
+        /**
+         * @return the features whose geometry may intersect the bounding box,
+         * in file order
+         */
+        List<SimpleFeature> query(Envelope bbox) {
+            List hits = getTree().query(bbox);
+            int[] indexes = new int[hits.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = (Integer) hits.get(i);
+            }
+            Arrays.sort(indexes);
+            List<SimpleFeature> result = new ArrayList<SimpleFeature>(indexes.length);
+            for (int i : indexes) {
+                result.add(features.get(i));
+            }
+            return result;
+        }
+
+        private synchronized STRtree getTree() {
+            if (tree == null) {
+                STRtree t = new STRtree();
+                for (int i = 0; i < features.size(); i++) {
+                    Object geometry = features.get(i).getDefaultGeometry();
+                    if (geometry instanceof Geometry) {
+                        t.insert(((Geometry) geometry).getEnvelopeInternal(), i);
+                    }
+                }
+                t.build();
+                tree = t;
+            }
+            return tree;
+        }
+    }
+}
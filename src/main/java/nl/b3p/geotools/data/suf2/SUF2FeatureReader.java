@@ -4,15 +4,20 @@
 package nl.b3p.geotools.data.suf2;
 
 import nl.b3p.suf2.SUF2ParseException;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.PrecisionModel;
 import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import nl.b3p.suf2.SUF2RecordCollector;
@@ -20,69 +25,247 @@ import nl.b3p.suf2.records.*;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geotools.data.DataSourceException;
+import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureReader;
-import org.geotools.referencing.ReferencingFactoryFinder;
-import org.opengis.referencing.crs.CRSFactory;
+import org.geotools.data.Query;
+import org.geotools.filter.identity.FeatureIdImpl;
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.geotools.feature.IllegalAttributeException;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureImpl;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
-import org.geotools.referencing.CRS;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
 import org.opengis.geometry.PrecisionType;
 
 /**
  * @author Gertjan Al, B3Partners
  */
-public class SUF2FeatureReader implements FeatureReader {
+public class SUF2FeatureReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
 
     private static final Log log = LogFactory.getLog(SUF2FeatureReader.class);
+    private static final String GEOMETRY = "the_geom";
+    static final String TYPE = "type";
+    private static final Double ZERO = 0.0;
+    private static final int FLUSH_INTERVAL = 256;
     private GeometryFactory gf;
+    private SUF2ArcLinearization arcs = SUF2ArcLinearization.DEFAULT;
     private SimpleFeatureType ft;
-    private Map<String, String[]> metadata = new HashMap<String, String[]>();
-    private int featureID = 0;
+    /* only records of this layer are read, null for all records */
+    private SUF2Layer layer;
+    /* feature type of the features as they are read, including attributes needed by the filter */
+    private SimpleFeatureType readType;
+    /* feature type of the features returned to the caller */
+    private SimpleFeatureType resultType;
+    private Filter filter;
+    private Envelope bbox;
+    private boolean needsGeometry = true;
+    /* index of every attribute of the read type */
+    private Map<String, Integer> attributeIndex;
+    private int geometryIndex;
+    private int typeIndex;
+    private int angleIndex;
+    private int idIndex;
+    private boolean reuseFeatures = false;
+    private boolean recordHashes = false;
+    private Object[] reusedValues;
+    private FeatureIdImpl reusedId;
+    private SimpleFeature reusedFeature;
+    private int startIndex = 0;
+    private int maxFeatures = Integer.MAX_VALUE;
+    private int skipped = 0;
+    private int returned = 0;
+    private String featureIdPrefix;
     private SUF2RecordCollector recordCollector;
+    private SUF2FileSegments segments;
     private SimpleFeature feature;
     private SortedMap info = new TreeMap();
+    private SUF2Statistics statistics;
+    private boolean timing = false;
+    /* counts not yet added to the statistics */
+    private int pendingRecords = 0;
+    private int pendingFeatures = 0;
+    private CountingInputStream input;
+    private long reportedBytes = 0;
 
     public SUF2FeatureReader(URL url, String typeName, String srs) throws IOException, SUF2ParseException {
-        gf = new GeometryFactory(new PrecisionModel(100));
-        recordCollector = new SUF2RecordCollector(url);
-        createFeatureType(typeName, srs);
+        this(url, createFeatureType(typeName, srs));
     }
 
-    private void createFeatureType(String typeName, String srs) throws DataSourceException {
-        CoordinateReferenceSystem crs = null;
-        String[] csMetadata = metadata.get("coordinatesystem");
-        if (csMetadata != null) {
-            String wkt = csMetadata[0];
-            try {
-                /* parse WKT */
-                CRSFactory crsFactory = ReferencingFactoryFinder.getCRSFactory(null);
-                crs = crsFactory.createFromWKT(wkt);
-            } catch (Exception e) {
-                throw new DataSourceException("Error parsing CoordinateSystem WKT: \"" + wkt + "\"");
+    /**
+     * Create a reader for an already built feature type, see
+     * {@link #createFeatureType(java.lang.String, java.lang.String)}.
+     */
+    public SUF2FeatureReader(URL url, SimpleFeatureType ft) throws IOException, SUF2ParseException {
+        this(url, ft, null);
+    }
+
+    /**
+     * Create a reader that only returns the features matching the query. The
+     * property names of the query are used to only extract the requested
+     * attributes, a bounding box in the filter is checked against the SUF2
+     * coordinates before any geometry is created and reading stops as soon as
+     * the start index and max features of the query are satisfied.
+     */
+    public SUF2FeatureReader(URL url, SimpleFeatureType ft, Query query) throws IOException, SUF2ParseException {
+        this(url, ft, query, null);
+    }
+
+    /**
+     * Create a reader for a selection of records from a local file, for
+     * instance the result of a {@link SUF2SpatialIndex} query. Line numbers
+     * are reported as line numbers in the file.
+     */
+    public SUF2FeatureReader(SUF2FileSegments segments, SimpleFeatureType ft, Query query) throws IOException, SUF2ParseException {
+        this(segments.toURL(), ft, query, segments);
+    }
+
+    private SUF2FeatureReader(URL url, SimpleFeatureType ft, Query query, SUF2FileSegments segments) throws IOException, SUF2ParseException {
+        this.segments = segments;
+        this.gf = SUF2GeometryFactory.createGeometryFactory(false);
+        this.ft = ft;
+        this.readType = ft;
+        this.resultType = ft;
+        this.layer = SUF2Layer.of(ft);
+        this.featureIdPrefix = ft.getTypeName() + ".";
+        if (query != null) {
+            applyQuery(query);
+        }
+        indexAttributes();
+        this.recordCollector = new SUF2RecordCollector(countingURL(url));
+    }
+
+    /**
+     * An url reading from the stream of the given url, counting the bytes
+     * read. Compressed files are decompressed, the compressed bytes are
+     * counted.
+     */
+    private URL countingURL(final URL url) throws IOException {
+        return SUF2StreamHandler.createURL(url, new SUF2StreamHandler.StreamSource() {
+            public InputStream openStream() throws IOException {
+                input = new CountingInputStream(url.openStream());
+                if (SUF2Decompression.isCompressed(url)) {
+                    return SUF2Decompression.decompress(input, url.getFile());
+                }
+                return input;
             }
+        });
+    }
+
+    private void applyQuery(Query query) throws IOException {
+        if (query.getFilter() != null && !Filter.INCLUDE.equals(query.getFilter())) {
+            filter = query.getFilter();
+            bbox = getBounds(filter);
+        }
+        if (query.getStartIndex() != null) {
+            startIndex = query.getStartIndex();
         }
+        maxFeatures = query.getMaxFeatures();
 
-        /* override srs when provided */
-        if (srs != null) {
+        String[] propertyNames = query.getPropertyNames();
+        if (propertyNames != null) {
             try {
-                crs = CRS.decode(srs);
+                resultType = SimpleFeatureTypeBuilder.retype(ft, propertyNames);
+                readType = resultType;
+                if (filter != null) {
+                    /* the filter may need attributes which are not requested */
+                    Set<String> names = new LinkedHashSet<String>(Arrays.asList(propertyNames));
+                    names.addAll(Arrays.asList(DataUtilities.attributeNames(filter, ft)));
+                    if (names.size() > propertyNames.length) {
+                        readType = SimpleFeatureTypeBuilder.retype(ft, names.toArray(new String[names.size()]));
+                    }
+                }
             } catch (Exception e) {
-                throw new DataSourceException("Error parsing CoordinateSystem srs: \"" + srs + "\"");
+                throw new DataSourceException("Error creating SimpleFeatureType for query", e);
+            }
+        }
+    }
+
+    private void indexAttributes() {
+        attributeIndex = new HashMap<String, Integer>(readType.getAttributeCount() * 2);
+        for (int i = 0; i < readType.getAttributeCount(); i++) {
+            attributeIndex.put(readType.getDescriptor(i).getLocalName(), i);
+        }
+        geometryIndex = readType.indexOf(GEOMETRY);
+        typeIndex = readType.indexOf(TYPE);
+        angleIndex = readType.indexOf(SUF2Record.ANGLE);
+        idIndex = readType.indexOf(SUF2Record.ID);
+        needsGeometry = geometryIndex != -1 || angleIndex != -1 || readType.indexOf(SUF2Record06.TEKST) != -1;
+    }
+
+    /**
+     * @return the bounding box a feature must intersect to match the filter,
+     * or null if the filter does not limit the bounds
+     */
+    static Envelope getBounds(Filter filter) {
+        if (filter == null || Filter.INCLUDE.equals(filter)) {
+            return null;
+        }
+        Envelope bounds = (Envelope) filter.accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR, null);
+        if (bounds == null || bounds.isNull() || Double.isInfinite(bounds.getWidth()) || Double.isInfinite(bounds.getHeight())) {
+            return null;
+        }
+        return bounds;
+    }
+
+    /**
+     * Build the feature type for SUF2 features. The type is the same for
+     * every SUF2 file so the file itself is not read. Feature types and
+     * coordinate reference systems are cached, see {@link SUF2TypeCache}.
+     */
+    public static SimpleFeatureType createFeatureType(String typeName, String srs) throws DataSourceException {
+        return SUF2TypeCache.getFeatureType(typeName, srs);
+    }
+
+    /**
+     * Build the feature type of a layer, with only the attributes of the
+     * records of the layer. Readers of this type only return the records of
+     * the layer.
+     */
+    public static SimpleFeatureType createFeatureType(String typeName, String srs, SUF2Layer layer) throws DataSourceException {
+        return SUF2TypeCache.getFeatureType(typeName, srs, layer);
+    }
+
+    static SimpleFeatureType buildFeatureType(String typeName, CoordinateReferenceSystem crs, SUF2Layer layer) throws DataSourceException {
+        if (layer == null) {
+            return buildFeatureType(typeName, crs);
+        }
+        try {
+            SimpleFeatureTypeBuilder ftb = new SimpleFeatureTypeBuilder();
+            ftb.setName(typeName);
+            ftb.setCRS(crs);
+
+            ftb.add(GEOMETRY, layer.getBinding());
+            for (String name : layer.getAttributeNames()) {
+                if (SUF2Record.ANGLE.equals(name)) {
+                    ftb.add(name, Double.class);
+                } else if (SUF2Record.ID.equals(name)) {
+                    ftb.add(name, Integer.class);
+                } else {
+                    ftb.add(name, String.class);
+                }
             }
+            SimpleFeatureType ft = ftb.buildFeatureType();
+            ft.getUserData().put(SUF2Layer.class, layer);
+            return ft;
+
+        } catch (Exception e) {
+            log.error("Error creating SimpleFeature",e);
+            throw new DataSourceException("Error creating SimpleFeatureType", e);
         }
+    }
 
+    static SimpleFeatureType buildFeatureType(String typeName, CoordinateReferenceSystem crs) throws DataSourceException {
         try {
 
             SimpleFeatureTypeBuilder ftb = new SimpleFeatureTypeBuilder();
             ftb.setName(typeName);
             ftb.setCRS(crs);
 
-            ftb.add("the_geom", Geometry.class);
-            ftb.add("type", String.class);
+            ftb.add(GEOMETRY, Geometry.class);
+            ftb.add(TYPE, String.class);
 
             ftb.add(SUF2Record.RECORDTYPE, String.class);
             ftb.add(SUF2Record.LKI_CLASSIFICATIECODE, String.class);
@@ -140,7 +323,7 @@ public class SUF2FeatureReader implements FeatureReader {
             ftb.add(SUF2Record06.INDEXLETTER, String.class);
             ftb.add(SUF2Record06.INDEXNUMMER, String.class);
             ftb.add(SUF2Record.ID, Integer.class);
-            ft = ftb.buildFeatureType();
+            return ftb.buildFeatureType();
 
         } catch (Exception e) {
             log.error("Error creating SimpleFeature",e);
@@ -148,51 +331,82 @@ public class SUF2FeatureReader implements FeatureReader {
         }
     }
 
+    /**
+     * @return the type of the returned features, with only the properties of
+     * the query
+     */
     public SimpleFeatureType getFeatureType() {
-        return ft;
+        return resultType;
     }
 
     public SimpleFeature next() throws IOException, IllegalAttributeException, NoSuchElementException {
-        return feature;
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more features in SUF2 file");
+        }
+        SimpleFeature next = feature;
+        feature = null;
+        return next;
     }
 
     public boolean hasNext() throws IOException {
+        if (feature != null) {
+            return true;
+        }
+        if (returned >= maxFeatures) {
+            return false;
+        }
+        if (statistics == null) {
+            setStatistics(null);
+        }
         try {
-            if (!recordCollector.hasNext()) {
-                return false;
-
-            } else {
-                SUF2Record record;
-                for (;;) {
-                    // Loop till record with geometry is found
-                    record = recordCollector.next();
-                    if (record.hasGeometry()) {
-                        boolean error = false;
-                        try {
-                            feature = createFeature(record);
-                        } catch (Exception ex) {
-                            log.debug("Exception in record " + record.getLineNumber() + "; " + ex.getLocalizedMessage());
-                            error = true;
-                        } finally {
-                            if (!error) {
-                                break;
-                            }
-                        }
-                    } else {
-                        // Record contains file information
-                        try {
-                            info.putAll(record.getProperties());
-                        } catch (SUF2ParseException ex) {
-                            throw new IOException(ex.getMessage());
-                        }
-                        if (!recordCollector.hasNext()) {
-                            return false;
-                        }
+            SUF2Record record;
+            while ((record = nextRecord()) != null) {
+                if (!record.hasGeometry()) {
+                    // Record contains file information
+                    try {
+                        info.putAll(record.getProperties());
+                    } catch (SUF2ParseException ex) {
+                        throw new IOException(ex.getMessage());
                     }
+                    continue;
+                }
+                if (layer != null && record.getType() != layer.getRecordType()) {
+                    continue;
                 }
 
+                SimpleFeature candidate;
+                try {
+                    if (bbox != null && !bbox.intersects(SUF2GeometryFactory.createEnvelope(record))) {
+                        statistics.skipped(SUF2Statistics.Skip.BOUNDS, null);
+                        continue;
+                    }
+                    candidate = createFeature(record);
+                } catch (Exception ex) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Exception in record " + getLineNumber(record) + "; " + ex.getLocalizedMessage());
+                    }
+                    statistics.skipped(SUF2Statistics.Skip.ERROR, record.getType() == null ? null : record.getType().getDescription());
+                    continue;
+                }
+                if (filter != null && !filter.evaluate(candidate)) {
+                    statistics.skipped(SUF2Statistics.Skip.FILTER, null);
+                    continue;
+                }
+                if (skipped < startIndex) {
+                    skipped++;
+                    statistics.skipped(SUF2Statistics.Skip.OFFSET, null);
+                    continue;
+                }
+                if (resultType != readType) {
+                    candidate = SimpleFeatureBuilder.retype(candidate, resultType);
+                }
+                feature = candidate;
+                returned++;
+                pendingFeatures++;
+                return true;
             }
         } catch (EOFException ex) {
+            flushStatistics();
             return false;
 
         } catch (Exception ex) {
@@ -200,76 +414,241 @@ public class SUF2FeatureReader implements FeatureReader {
             throw new IOException(ex);
         }
 
-        return true;
+        return false;
     }
 
+    /**
+     * @return the next record or null at the end of the file
+     */
+    private SUF2Record nextRecord() throws Exception {
+        long start = timing ? System.nanoTime() : 0;
+        try {
+            if (!recordCollector.hasNext()) {
+                flushStatistics();
+                return null;
+            }
+            SUF2Record record = recordCollector.next();
+            if (++pendingRecords == FLUSH_INTERVAL) {
+                flushStatistics();
+            }
+            return record;
+        } finally {
+            if (timing) {
+                statistics.parseTime(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Add the records, features and bytes read since the last call to the
+     * statistics, so the counters of the parents are not updated for every
+     * record.
+     */
+    private void flushStatistics() {
+        if (statistics == null) {
+            return;
+        }
+        if (pendingRecords > 0) {
+            statistics.recordsRead(pendingRecords);
+            pendingRecords = 0;
+        }
+        if (pendingFeatures > 0) {
+            statistics.featuresReturned(pendingFeatures);
+            pendingFeatures = 0;
+        }
+        if (input != null && input.count != reportedBytes) {
+            statistics.bytesRead(input.count - reportedBytes);
+            reportedBytes = input.count;
+        }
+    }
+
+    /**
+     * Create a feature of the read type. Only the properties present in the
+     * record are looked up in the attribute index of the read type. The
+     * geometry is only created when it is requested or when the text
+     * attributes that are derived from it are requested.
+     */
     private SimpleFeature createFeature(SUF2Record record) throws Exception {
-        Map properties = record.getProperties();
-
-        Object[] values = new Object[]{
-            SUF2GeometryFactory.createGeometry(gf, record), //the_geom
-            record.getType().getDescription(), // Recordtype in plain text
-
-            (String) properties.get(SUF2Record.RECORDTYPE),
-            (String) properties.get(SUF2Record.LKI_CLASSIFICATIECODE),
-            (properties.containsKey(SUF2Record06.ANGLE) ? (Double) properties.get(SUF2Record06.ANGLE) : new Double(0.0)),
-            (String) properties.get(SUF2Record01.BESTANDSIDENTIFICATIE),
-            (String) properties.get(SUF2Record01.VOLLEDIG_OF_MUTATIE),
-            (String) properties.get(SUF2Record01.DATUM_HERZIENING),
-            (String) properties.get(SUF2Record01.DATUM_ACTUALITEIT),
-            (String) properties.get(SUF2Record01.UITWISSELING_DEELBESTANDEN),
-            (String) properties.get(SUF2Record01.UITWISSELING_DEELBESTANDEN_HUIDIG),
-            (String) properties.get(SUF2Record01.BESTANDSNAAM),
-            (String) properties.get(SUF2Record02.RD),
-            (String) properties.get(SUF2Record02.LKI),
-            (String) properties.get(SUF2Record02.COORD_MILLIMETERS),
-            (String) properties.get(SUF2Record02.RICHTINGEN_MICROGON),
-            (String) properties.get(SUF2Record02.LKI_SYMBOOL),
-            (String) properties.get(SUF2Record02.NAP),
-            (String) properties.get(SUF2Record02.HEEFT_OPTEL_X),
-            (String) properties.get(SUF2Record02.HEEFT_OPTEL_Y),
-            (String) properties.get(SUF2Record02.HEEFT_OPTEL_Z),
-            (String) properties.get(SUF2Record02.VERMENIGVULDIGINGSCONSTANTE_XY),
-            (String) properties.get(SUF2Record02.VERMENIGVULDIGINGSCONSTANTE_Z),
-            (String) properties.get(SUF2Record03.GEMEENTECODEPERCEELLINKS),
-            (String) properties.get(SUF2Record03.SECTIEPERCEELLINKS),
-            (String) properties.get(SUF2Record03.INDEXLETTERPERCEELLINKS),
-            (String) properties.get(SUF2Record03.PERCEELNUMMERLINKS),
-            (String) properties.get(SUF2Record03.INDEXNUMMERLINKS),
-            (String) properties.get(SUF2Record03.GEMEENTECODEPERCEELRECHTS),
-            (String) properties.get(SUF2Record03.SECTIEPERCEELRECHTS),
-            (String) properties.get(SUF2Record03.INDEXLETTERPERCEELRECHTS),
-            (String) properties.get(SUF2Record03.PERCEELNUMMERRECHTS),
-            (String) properties.get(SUF2Record03.INDEXNUMMERRECHTS),
-            (String) properties.get(SUF2Record03.G_STRINGSOORT),
-            (String) properties.get(SUF2Record03.G_ZICHTBAARHEID),
-            (String) properties.get(SUF2Record03.G_INWINNING),
-            (String) properties.get(SUF2Record03.G_STATUS_VAN_OBJECT),
-            (String) properties.get(SUF2Record03.D_OPNAMEDATUM),
-            (String) properties.get(SUF2Record03.B_BRONVERMELDING),
-            (String) properties.get(SUF2Record03.B_WIJZE_VERZEKERING),
-            (String) properties.get(SUF2Record04.I_COORD_FUNCTIE),
-            (String) properties.get(SUF2Record04.Q_PRECISIEKLASSE),
-            (String) properties.get(SUF2Record04.Q_IDEALISATIEKLASSE),
-            (String) properties.get(SUF2Record04.Q_BETROUWBAARHEID),
-            (String) properties.get(SUF2Record05.TEXT_ALIGN),
-            (String) properties.get(SUF2Record05.STATUS_PERCEEL),
-            (String) properties.get(SUF2Record05.TEKST_OF_SYMBOOL),
-            (String) properties.get(SUF2Record05.SYMBOOLTYPE),
-            (String) properties.get(SUF2Record06.VELDLENGTE),
-            (String) properties.get(SUF2Record06.TEKST),
-            (String) properties.get(SUF2Record06.GEMEENTECODE),
-            (String) properties.get(SUF2Record06.SECTIE),
-            (String) properties.get(SUF2Record06.PERCEELNUMMER),
-            (String) properties.get(SUF2Record06.INDEXLETTER),
-            (String) properties.get(SUF2Record06.INDEXNUMMER),
-                    (Integer) record.getLineNumber()
-        };
-
-        return SimpleFeatureBuilder.build(ft, values, Integer.toString(featureID++));
+        long start = timing ? System.nanoTime() : 0;
+        Geometry geom = null;
+        if (needsGeometry) {
+            geom = SUF2GeometryFactory.createGeometry(gf, record, arcs, statistics);
+            if (layer != null && !layer.getBinding().isInstance(geom)) {
+                throw new IOException(geom.getGeometryType() + " past niet in laag " + layer.getName());
+            }
+            if (timing) {
+                long end = System.nanoTime();
+                statistics.geometryTime(end - start);
+                start = end;
+            }
+        }
+        Map<?, ?> properties = record.getProperties();
+
+        Object[] values;
+        if (reuseFeatures) {
+            if (reusedFeature == null) {
+                reusedValues = new Object[readType.getAttributeCount()];
+                reusedId = new FeatureIdImpl("");
+                reusedFeature = new SimpleFeatureImpl(reusedValues, readType, reusedId, false);
+            }
+            values = reusedValues;
+            Arrays.fill(values, null);
+        } else {
+            values = new Object[readType.getAttributeCount()];
+        }
+
+        for (Map.Entry<?, ?> entry : properties.entrySet()) {
+            Integer index = attributeIndex.get(entry.getKey());
+            if (index != null) {
+                Object value = entry.getValue();
+                values[index] = value == null || value instanceof String ? value : value.toString();
+            }
+        }
+        if (geometryIndex != -1) {
+            values[geometryIndex] = geom;
+        }
+        if (typeIndex != -1) {
+            // Recordtype in plain text
+            values[typeIndex] = record.getType().getDescription();
+        }
+        if (angleIndex != -1) {
+            Object angle = properties.get(SUF2Record06.ANGLE);
+            values[angleIndex] = angle instanceof Double ? angle : ZERO;
+        }
+        int lineNumber = getLineNumber(record);
+        if (idIndex != -1) {
+            values[idIndex] = lineNumber;
+        }
+
+        SimpleFeature created;
+        if (reuseFeatures) {
+            reusedId.setID(createFeatureId(lineNumber));
+            created = reusedFeature;
+        } else {
+            created = new SimpleFeatureImpl(values, readType, new FeatureIdImpl(createFeatureId(lineNumber)), false);
+        }
+        if (recordHashes) {
+            created.getUserData().put(SUF2MutationProcessor.class, SUF2MutationProcessor.hashRecord(record));
+        }
+        if (timing) {
+            statistics.featureTime(System.nanoTime() - start);
+        }
+        return created;
+    }
+
+    /**
+     * Return the same feature instance for every record, with its values
+     * replaced. Only for callers which copy the data out of a feature before
+     * calling {@link #next()} again. False by default.
+     */
+    void setReuseFeatures(boolean reuseFeatures) {
+        this.reuseFeatures = reuseFeatures;
+    }
+
+    /**
+     * Put the identity and coordinate hash of the record of every feature in
+     * the user data of the feature, for {@link SUF2MutationProcessor}. False
+     * by default.
+     */
+    void setRecordHashes(boolean recordHashes) {
+        this.recordHashes = recordHashes;
+    }
+
+    /**
+     * Add the counters of this reader to the given statistics, for instance
+     * of the datastore. Must be called before reading, the reader times its
+     * records when the parent does.
+     */
+    void setStatistics(SUF2Statistics parent) {
+        statistics = new SUF2Statistics(parent);
+        timing = statistics.isTiming();
+        statistics.readerOpened();
+    }
+
+    /**
+     * @return counters of this reader. Records, features and bytes are added
+     * every {@value #FLUSH_INTERVAL} records, at the end of the file and when
+     * the reader is closed.
+     */
+    public SUF2Statistics getStatistics() {
+        if (statistics == null) {
+            setStatistics(null);
+        }
+        return statistics;
+    }
+
+    /**
+     * Geometry factory for the geometries of the features, by default
+     * {@link SUF2GeometryFactory#createGeometryFactory(boolean)} without
+     * packed coordinates.
+     */
+    void setGeometryFactory(GeometryFactory gf) {
+        this.gf = gf;
+    }
+
+    /**
+     * How arcs are converted to line strings, by default
+     * {@link SUF2ArcLinearization#DEFAULT}.
+     */
+    void setArcLinearization(SUF2ArcLinearization arcs) {
+        this.arcs = arcs;
+    }
+
+    /**
+     * The feature id is the type name and the line number of the record in
+     * the file, so a record always gets the same id regardless of the query,
+     * errors in other records or the part of the file that is read.
+     */
+    private String createFeatureId(int lineNumber) {
+        return featureIdPrefix + lineNumber;
+    }
+
+    /**
+     * @return line number of the record in the file
+     */
+    private int getLineNumber(SUF2Record record) {
+        if (segments == null) {
+            return record.getLineNumber();
+        }
+        return segments.toFileLine(record.getLineNumber());
     }
 
     public void close() throws IOException {
         recordCollector.close();
+        flushStatistics();
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
     }
 }
@@ -0,0 +1,94 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.IOException;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.data.store.ContentEntry;
+import org.geotools.data.store.ContentFeatureSource;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Read-only feature source for a SUF2 file or a layer of a split schema.
+ * Bounds and count of the whole file are answered from the scan summary
+ * cached by the datastore, other queries, also the bounds of a query with a
+ * start index or max features, are answered by reading the file. Filter,
+ * property selection, start index and max features are handled by the
+ * {@link SUF2FeatureReader}.
+ */
+public class SUF2FeatureSource extends ContentFeatureSource {
+
+    public SUF2FeatureSource(ContentEntry entry, Query query) {
+        super(entry, query);
+    }
+
+    @Override
+    public SUF2DataStore getDataStore() {
+        return (SUF2DataStore) super.getDataStore();
+    }
+
+    @Override
+    protected SimpleFeatureType buildFeatureType() throws IOException {
+        return getDataStore().buildSchema(getEntry().getName());
+    }
+
+    @Override
+    protected ReferencedEnvelope getBoundsInternal(Query query) throws IOException {
+        if (!Filter.INCLUDE.equals(query.getFilter()) || isLayer()
+                || query.getStartIndex() != null || !query.isMaxFeaturesUnlimited()) {
+            /* unknown without reading the file, let the caller visit the features */
+            return null;
+        }
+        return getDataStore().getSummary().getBounds();
+    }
+
+    @Override
+    protected int getCountInternal(Query query) throws IOException {
+        if (!Filter.INCLUDE.equals(query.getFilter()) || isLayer()) {
+            return -1;
+        }
+        int count = getDataStore().getSummary().getCount();
+        if (query.getStartIndex() != null) {
+            count = Math.max(0, count - query.getStartIndex());
+        }
+        if (!query.isMaxFeaturesUnlimited()) {
+            count = Math.min(count, query.getMaxFeatures());
+        }
+        return count;
+    }
+
+    @Override
+    protected FeatureReader<SimpleFeatureType, SimpleFeature> getReaderInternal(Query query) throws IOException {
+        return getDataStore().createFeatureReader(getSchema(), query);
+    }
+
+    /**
+     * @return true if this is the source of a layer of a split schema, the
+     * summary of the datastore only applies to the flat schema
+     */
+    private boolean isLayer() {
+        return getDataStore().getLayer(getEntry().getTypeName()) != null;
+    }
+
+    @Override
+    protected boolean canFilter() {
+        return true;
+    }
+
+    @Override
+    protected boolean canRetype() {
+        return true;
+    }
+
+    @Override
+    protected boolean canLimit() {
+        return true;
+    }
+
+    @Override
+    protected boolean canOffset() {
+        return true;
+    }
+}
@@ -0,0 +1,190 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A selection of byte ranges of a local SUF2 file which is read as a single
+ * stream. The first range should be the header of the file, so the
+ * SUF2RecordCollector reads the file and coordinate system records before the
+ * selected records. Line numbers in the stream are translated back to line
+ * numbers in the file.
+ */
+public class SUF2FileSegments {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final File file;
+    private long[] starts = new long[16];
+    private long[] ends = new long[16];
+    private int[] streamLines = new int[16];
+    private int[] fileLines = new int[16];
+    private int size = 0;
+    private int nextStreamLine;
+
+    /**
+     * @param firstLine line number the SUF2RecordCollector uses for the first
+     * line of a stream
+     */
+    public SUF2FileSegments(File file, int firstLine) {
+        this.file = file;
+        this.nextStreamLine = firstLine;
+    }
+
+    /**
+     * Selection of the whole file, line numbers are not translated.
+     */
+    public static SUF2FileSegments of(File file) {
+        SUF2FileSegments segments = new SUF2FileSegments(file, 1);
+        segments.add(0, file.length(), 1, 0);
+        return segments;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Add the bytes from start (inclusive) to end (exclusive) containing
+     * lineCount lines, starting at line fileLine of the file. Ranges must be
+     * added in file order, adjoining ranges are merged.
+     */
+    public void add(long start, long end, int fileLine, int lineCount) {
+        if (end <= start) {
+            return;
+        }
+        if (size > 0 && ends[size - 1] == start
+                && fileLines[size - 1] + (nextStreamLine - streamLines[size - 1]) == fileLine) {
+            ends[size - 1] = end;
+        } else {
+            if (size == starts.length) {
+                int capacity = size * 2;
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                streamLines = Arrays.copyOf(streamLines, capacity);
+                fileLines = Arrays.copyOf(fileLines, capacity);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            streamLines[size] = nextStreamLine;
+            fileLines[size] = fileLine;
+            size++;
+        }
+        nextStreamLine += lineCount;
+    }
+
+    /**
+     * @return number of separate ranges after merging
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return total number of bytes in the stream
+     */
+    public long getLength() {
+        long length = 0;
+        for (int i = 0; i < size; i++) {
+            length += ends[i] - starts[i];
+        }
+        return length;
+    }
+
+    public int toFileLine(int streamLine) {
+        int i = Arrays.binarySearch(streamLines, 0, size, streamLine);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        if (i < 0) {
+            return streamLine;
+        }
+        return fileLines[i] + (streamLine - streamLines[i]);
+    }
+
+    public InputStream openStream() throws IOException {
+        return new SegmentInputStream();
+    }
+
+    /**
+     * @return url which can be passed to the SUF2RecordCollector to read the
+     * selected ranges
+     */
+    public URL toURL() throws MalformedURLException {
+        return SUF2StreamHandler.createURL(file.toURI().toURL(), new SUF2StreamHandler.StreamSource() {
+            public InputStream openStream() throws IOException {
+                return SUF2FileSegments.this.openStream();
+            }
+        });
+    }
+
+    private class SegmentInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private int segment = 0;
+        private long position;
+
+        SegmentInputStream() throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            buffer.flip();
+            position = size > 0 ? starts[0] : 0;
+        }
+
+        private boolean fill() throws IOException {
+            while (segment < size) {
+                if (position >= ends[segment]) {
+                    segment++;
+                    if (segment < size) {
+                        position = starts[segment];
+                    }
+                    continue;
+                }
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), ends[segment] - position));
+                int n = channel.read(buffer, position);
+                if (n <= 0) {
+                    /* file is shorter than expected */
+                    segment = size;
+                    return false;
+                }
+                position += n;
+                buffer.flip();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!buffer.hasRemaining() && !fill()) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining() && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -2,12 +2,13 @@ package nl.b3p.geotools.data.suf2;
 
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LinearRing;
-import org.locationtech.jts.geom.impl.CoordinateArraySequence;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import nl.b3p.suf2.SUF2Coordinate;
@@ -18,6 +19,7 @@ import nl.b3p.suf2.records.SUF2Record05;
 import nl.b3p.suf2.records.SUF2Record06;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.geotools.geometry.jts.CircularString;
 
 /**
  * @author Gertjan Al, B3Partners
@@ -28,18 +30,25 @@ public class SUF2GeometryFactory {
     public static final double NUM_SEGMENTS = 32.0;
 
     public static Geometry createGeometry(GeometryFactory gf, SUF2Record record) throws Exception {
+        return createGeometry(gf, record, SUF2ArcLinearization.DEFAULT);
+    }
+
+    /**
+     * @param arcs how arcs are converted to line strings
+     */
+    public static Geometry createGeometry(GeometryFactory gf, SUF2Record record, SUF2ArcLinearization arcs) throws Exception {
+        return createGeometry(gf, record, arcs, null);
+    }
+
+    /**
+     * @param statistics counts arcs converted to a straight line, may be null
+     */
+    public static Geometry createGeometry(GeometryFactory gf, SUF2Record record, SUF2ArcLinearization arcs, SUF2Statistics statistics) throws Exception {
         List<SUF2Coordinate> coordinatePoints = record.getCoordinates();
 
         // Record is a arc
         if (record.getType() == SUF2Record.Type.ARC) {
-            return createArc(gf, record);
-        }
-
-        // Record is a line, text or symbol
-        Coordinate[] coordinates = new Coordinate[coordinatePoints.size()];
-        for (int i = 0; i < coordinatePoints.size(); i++) {
-            SUF2Coordinate coordinate = coordinatePoints.get(i);
-            coordinates[i] = new Coordinate(coordinate.x, coordinate.y);
+            return createArc(gf, record.getCoordinates(), arcs, statistics);
         }
 
         // If text or symbol
@@ -50,7 +59,7 @@ public class SUF2GeometryFactory {
         }
 
         // If lineStart == lineEnd; convert to point
-        if (coordinates.length == 2) {
+        if (coordinatePoints.size() == 2) {
             if (record.getProperties().containsKey(SUF2Record05.TEKST_OF_SYMBOOL)) {
                 if (record.getProperties().get(SUF2Record05.TEKST_OF_SYMBOOL).toString().equals("1")) {
                     return createTextPoint(gf, record);
@@ -58,21 +67,67 @@ public class SUF2GeometryFactory {
             }
         }
 
-        if (coordinates.length <= 0) {
+        if (coordinatePoints.size() <= 0) {
             throw new IOException("No coordinates found");
+        }
+
+        // Record is a line, text or symbol; coordinates are written directly in a sequence of the factory
+        CoordinateSequence coordinates = gf.getCoordinateSequenceFactory().create(coordinatePoints.size(), 2);
+        for (int i = 0; i < coordinatePoints.size(); i++) {
+            SUF2Coordinate coordinate = coordinatePoints.get(i);
+            coordinates.setOrdinate(i, CoordinateSequence.X, coordinate.x);
+            coordinates.setOrdinate(i, CoordinateSequence.Y, coordinate.y);
+        }
 
-        } else if (coordinates.length == 1) {
-            return gf.createPoint(coordinates[0]);
+        if (coordinates.size() == 1) {
+            return gf.createPoint(coordinates);
 
         } else if (isPolygon(record, coordinatePoints)) {
-            CoordinateSequence coordinateSequence = new CoordinateArraySequence(coordinates);
-            LinearRing linearRing = new LinearRing(coordinateSequence, gf);
+            LinearRing linearRing = gf.createLinearRing(coordinates);
             return gf.createPolygon(linearRing, new LinearRing[0]);
         } else {
             return gf.createLineString(coordinates);
         }
     }
 
+    /**
+     * A geometry factory with the precision of SUF2 coordinates (centimeters).
+     *
+     * @param packedCoordinates store coordinates in packed double arrays
+     * instead of Coordinate objects, which uses less memory for geometries
+     * that are kept
+     */
+    public static GeometryFactory createGeometryFactory(boolean packedCoordinates) {
+        if (packedCoordinates) {
+            return new GeometryFactory(new PrecisionModel(100), 0, PackedCoordinateSequenceFactory.DOUBLE_FACTORY);
+        }
+        return new GeometryFactory(new PrecisionModel(100));
+    }
+
+    /**
+     * Envelope of the geometry of a record, computed from the SUF2 coordinates
+     * without creating the geometry. For an arc the envelope of the full
+     * circle is used, so the envelope may be larger than the arc.
+     */
+    public static Envelope createEnvelope(SUF2Record record) throws Exception {
+        List<SUF2Coordinate> coordinates = record.getCoordinates();
+        Envelope envelope = new Envelope();
+        for (SUF2Coordinate coordinate : coordinates) {
+            envelope.expandToInclude(coordinate.x, coordinate.y);
+        }
+        if (record.getType() == SUF2Record.Type.ARC && coordinates.size() >= 3) {
+            try {
+                SUF2Coordinate pc = circle(coordinates);
+                SUF2Coordinate p1 = coordinates.get(0);
+                double radius = Math.sqrt((p1.x - pc.x) * (p1.x - pc.x) + (p1.y - pc.y) * (p1.y - pc.y));
+                envelope.expandToInclude(new Envelope(pc.x - radius, pc.x + radius, pc.y - radius, pc.y + radius));
+            } catch (Exception ex) {
+                // arc will be converted to a line
+            }
+        }
+        return envelope;
+    }
+
     private static boolean isPolygon(SUF2Record record, List<SUF2Coordinate> coordinatePoints) {
         if (record.getType() == Type.POLYGON) {
             return true;
@@ -93,6 +148,14 @@ public class SUF2GeometryFactory {
     }
 
     public static Geometry createArc(GeometryFactory gf, List<SUF2Coordinate> coordinates) throws Exception {
+        return createArc(gf, coordinates, SUF2ArcLinearization.DEFAULT);
+    }
+
+    public static Geometry createArc(GeometryFactory gf, List<SUF2Coordinate> coordinates, SUF2ArcLinearization arcs) throws Exception {
+        return createArc(gf, coordinates, arcs, null);
+    }
+
+    public static Geometry createArc(GeometryFactory gf, List<SUF2Coordinate> coordinates, SUF2ArcLinearization arcs, SUF2Statistics statistics) throws Exception {
         SUF2Coordinate p1 = coordinates.get(0);
         SUF2Coordinate p2 = coordinates.get(1);
         SUF2Coordinate p3 = coordinates.get(2);
@@ -102,10 +165,16 @@ public class SUF2GeometryFactory {
             pc = circle(coordinates);
         } catch (Exception ex) {
             log.debug(ex.getLocalizedMessage() + "; converted arc to line");
+            if (statistics != null) {
+                statistics.arcDegenerated();
+            }
             return gf.createLineString(new Coordinate[]{new Coordinate(p1.x, p1.y), new Coordinate(p3.x, p3.y)});
         }
 
         double radius = Math.sqrt((p1.x - pc.x) * (p1.x - pc.x) + (p1.y - pc.y) * (p1.y - pc.y));
+        if (arcs.isCurved()) {
+            return createCircularString(gf, p1, p2, p3, pc, arcs, statistics);
+        }
 
         double angle1 = Math.toRadians(SUF2Math.angle(pc, p1));
         double angle2 = Math.toRadians(SUF2Math.angle(pc, p2));
@@ -118,6 +187,9 @@ public class SUF2GeometryFactory {
         } else if (angle2 == angle1 || angle2 == angle3) {
             //log.debug("Record at line " + record.getLineNumber() + ": Arc with middleCoordinate equal to startCoordinate or endCoordinate");
             log.debug("Record at line someline: Arc with middleCoordinate equal to startCoordinate or endCoordinate");
+            if (statistics != null) {
+                statistics.arcDegenerated();
+            }
 
             Coordinate[] line = new Coordinate[]{new Coordinate(p1.x, p1.y), new Coordinate(p3.x, p3.y)};
             return gf.createLineString(line);
@@ -156,7 +228,32 @@ public class SUF2GeometryFactory {
             angle3 = temp + Math.PI * 2;
         }*/
 
-        return gf.createLineString(toCoordinateArray(pc, radius, angle1, angle3, gf));
+        return gf.createLineString(toCoordinateSequence(pc, radius, angle1, angle3, gf, arcs));
+    }
+
+    /**
+     * Circular string through the three control points of the arc. A full
+     * circle (start equals end) is written with the point opposite of the
+     * start as middle point, as the middle point of the record may be any
+     * point on the circle.
+     */
+    private static Geometry createCircularString(GeometryFactory gf, SUF2Coordinate p1, SUF2Coordinate p2, SUF2Coordinate p3, SUF2Coordinate pc, SUF2ArcLinearization arcs, SUF2Statistics statistics) {
+        if (p2.x == p1.x && p2.y == p1.y || p2.x == p3.x && p2.y == p3.y) {
+            log.debug("Arc with middleCoordinate equal to startCoordinate or endCoordinate");
+            if (statistics != null) {
+                statistics.arcDegenerated();
+            }
+            return gf.createLineString(new Coordinate[]{new Coordinate(p1.x, p1.y), new Coordinate(p3.x, p3.y)});
+        }
+        double[] controlPoints;
+        if (p1.x == p3.x && p1.y == p3.y) {
+            controlPoints = new double[]{p1.x, p1.y, 2 * pc.x - p1.x, 2 * pc.y - p1.y, p1.x, p1.y};
+        } else {
+            controlPoints = new double[]{p1.x, p1.y, p2.x, p2.y, p3.x, p3.y};
+        }
+        /* without a tolerance GeoTools linearizes with its default number of segments */
+        double tolerance = arcs.getTolerance() > 0 ? arcs.getTolerance() : Double.MAX_VALUE;
+        return new CircularString(controlPoints, gf, tolerance);
     }
 
     private static Geometry createTextPoint(GeometryFactory gf, SUF2Record record) throws Exception {
@@ -233,53 +330,39 @@ public class SUF2GeometryFactory {
     }
 
     public static Coordinate[] toCoordinateArray(SUF2Coordinate point, double radius, double startAngle, double endAngle, GeometryFactory gf) throws Exception {
+        return toCoordinateSequence(point, radius, startAngle, endAngle, gf, SUF2ArcLinearization.DEFAULT).toCoordinateArray();
+    }
+
+    /**
+     * Linearize an arc from startAngle to endAngle. The number of vertices is
+     * computed up front and written into a coordinate sequence of the
+     * geometry factory. Every segment has the segment angle of the
+     * linearization, except the last segment which ends at endAngle.
+     */
+    public static CoordinateSequence toCoordinateSequence(SUF2Coordinate point, double radius, double startAngle, double endAngle, GeometryFactory gf, SUF2ArcLinearization arcs) throws Exception {
         if (point == null) {
-            throw new Exception("toCoordinateArray(...) point == null");
+            throw new Exception("toCoordinateSequence(...) point == null");
         } else if (radius <= 0) {
-            throw new Exception("toCoordinateArray(...) radius is equal or below zero (radius=" + radius + ")");
+            throw new Exception("toCoordinateSequence(...) radius is equal or below zero (radius=" + radius + ")");
         }
         /*zijn de angles clockwise (cw) of counterclockwise (ccw). Dit bepaalt of de radius segment angle
         moet oplopen of aflopen*/
-        boolean ccw=startAngle < endAngle;
-
-        List<Coordinate> lc = new ArrayList<Coordinate>();
-        double segAngle = (2 * Math.PI) / NUM_SEGMENTS;
-        double angle = startAngle;
-
-        for (;;) {
-            double x = point.x + radius * Math.cos(angle);
-            double y = point.y + radius * Math.sin(angle);
-            lc.add(new Coordinate(x, y));
-            //if ccw dan optellen
-            if (ccw){
-                if (angle >= endAngle) {
-                    break;
-                }
-
-                angle += segAngle;
-                if (angle > endAngle) {
-                    // snap arc to endAngle
-                    angle = endAngle;
-                }
-            //anders aftrekken
-            }else{
-                if (angle <= endAngle) {
-                    break;
-                }
-
-                angle -= segAngle;
-                if (angle < endAngle) {
-                    // snap arc to endAngle
-                    angle = endAngle;
-                }
-            }
-
+        double segAngle = arcs.getSegmentAngle(radius);
+        if (startAngle > endAngle) {
+            segAngle = -segAngle;
         }
-
-        if (lc.size() <= 1) {
-            throw new Exception("toCoordinateArray(...) returned " + lc.size() + " coordinates, value must be 2 or more");
+        int segments = (int) Math.ceil((endAngle - startAngle) / segAngle);
+        if (segments < 1) {
+            throw new Exception("toCoordinateSequence(...) returned 1 coordinates, value must be 2 or more");
         }
 
-        return lc.toArray(new Coordinate[]{});
+        CoordinateSequence sequence = gf.getCoordinateSequenceFactory().create(segments + 1, 2);
+        for (int i = 0; i <= segments; i++) {
+            // snap arc to endAngle
+            double angle = i == segments ? endAngle : startAngle + i * segAngle;
+            sequence.setOrdinate(i, CoordinateSequence.X, point.x + radius * Math.cos(angle));
+            sequence.setOrdinate(i, CoordinateSequence.Y, point.y + radius * Math.sin(angle));
+        }
+        return sequence;
     }
 }
@@ -0,0 +1,227 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import nl.b3p.suf2.SUF2RecordCollector;
+import nl.b3p.suf2.records.SUF2Record;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.locationtech.jts.geom.Envelope;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * File level metadata of a SUF2 file: the properties of the leading records
+ * without geometry (records 01 and 02) and an estimate of the extent and the
+ * number of features. The estimate is exact when it comes from a spatial
+ * index or a summary of the whole file, otherwise it is based on a sample of
+ * the records and may be smaller than the real extent.
+ */
+public class SUF2Header {
+
+    private static final Log log = LogFactory.getLog(SUF2Header.class);
+    private static final int BUFFER_SIZE = 8 * 1024;
+    static final int SAMPLES = 16;
+    static final long SAMPLE_SIZE = 64 * 1024;
+    private final SortedMap<String, Object> properties;
+    private final ReferencedEnvelope bounds;
+    private final int count;
+    private final boolean exact;
+
+    SUF2Header(SortedMap<String, Object> properties, ReferencedEnvelope bounds, int count, boolean exact) {
+        this.properties = Collections.unmodifiableSortedMap(properties);
+        this.bounds = bounds;
+        this.count = count;
+        this.exact = exact;
+    }
+
+    /**
+     * @return the properties of the header records, for instance
+     * BESTANDSIDENTIFICATIE and DATUM_ACTUALITEIT
+     */
+    public SortedMap<String, Object> getProperties() {
+        return properties;
+    }
+
+    public Object getProperty(String name) {
+        return properties.get(name);
+    }
+
+    /**
+     * @return the (estimated) extent of the features or null when it is not
+     * known, for instance for a remote file
+     */
+    public ReferencedEnvelope getBounds() {
+        return bounds == null ? null : new ReferencedEnvelope(bounds);
+    }
+
+    /**
+     * @return the (estimated) number of features or -1 when it is not known
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return true if bounds and count are not estimated
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Read the properties of the records before the first record with
+     * geometry of a local file. Only the header bytes are read.
+     */
+    static SortedMap<String, Object> readProperties(File file) throws IOException {
+        long headerLength;
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            headerLength = findRecordStart(channel, 0);
+        } finally {
+            channel.close();
+        }
+        SUF2FileSegments segments = new SUF2FileSegments(file, 1);
+        segments.add(0, headerLength, 1, 0);
+        return readProperties(segments.toURL());
+    }
+
+    /**
+     * Read the properties of the records before the first record with
+     * geometry, the stream is closed at the first record with geometry.
+     */
+    static SortedMap<String, Object> readProperties(URL url) throws IOException {
+        SortedMap<String, Object> properties = new TreeMap<String, Object>();
+        try {
+            SUF2RecordCollector collector = new SUF2RecordCollector(SUF2Decompression.toURL(url));
+            try {
+                while (collector.hasNext()) {
+                    SUF2Record record = collector.next();
+                    if (record.hasGeometry()) {
+                        break;
+                    }
+                    properties.putAll(record.getProperties());
+                }
+            } finally {
+                collector.close();
+            }
+        } catch (Exception ex) {
+            throw new IOException("Kan header van " + url + " niet lezen: " + ex.getLocalizedMessage(), ex);
+        }
+        return properties;
+    }
+
+    /**
+     * Estimate extent and number of features of a local file by reading
+     * {@value #SAMPLES} ranges of records spread over the file. Files that
+     * are small enough are read completely and give an exact result.
+     */
+    static SUF2Header sample(File file, SortedMap<String, Object> properties, CoordinateReferenceSystem crs) throws IOException {
+        long length = file.length();
+        SUF2FileSegments segments = new SUF2FileSegments(file, 1);
+        long headerLength;
+        long sampled = 0;
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            headerLength = findRecordStart(channel, 0);
+            segments.add(0, headerLength, 1, 0);
+            long body = length - headerLength;
+            long previousEnd = headerLength;
+            for (int i = 0; i < SAMPLES && previousEnd < length; i++) {
+                long start = Math.max(previousEnd, findRecordStart(channel, headerLength + body * i / SAMPLES));
+                if (start >= length) {
+                    break;
+                }
+                long end = findRecordStart(channel, start + SAMPLE_SIZE);
+                segments.add(start, end, 1, 0);
+                sampled += end - start;
+                previousEnd = end;
+            }
+        } finally {
+            channel.close();
+        }
+
+        ReferencedEnvelope bounds = new ReferencedEnvelope(crs);
+        int records = 0;
+        try {
+            SUF2RecordCollector collector = new SUF2RecordCollector(segments.toURL());
+            try {
+                while (collector.hasNext()) {
+                    SUF2Record record = collector.next();
+                    if (!record.hasGeometry()) {
+                        continue;
+                    }
+                    records++;
+                    try {
+                        Envelope envelope = SUF2GeometryFactory.createEnvelope(record);
+                        if (!envelope.isNull()) {
+                            bounds.expandToInclude(envelope);
+                        }
+                    } catch (Exception ex) {
+                        log.debug("Exception in record " + record.getLineNumber() + "; " + ex.getLocalizedMessage());
+                    }
+                }
+            } finally {
+                collector.close();
+            }
+        } catch (Exception ex) {
+            throw new IOException("Kan " + file + " niet lezen: " + ex.getLocalizedMessage(), ex);
+        }
+
+        long body = length - headerLength;
+        boolean exact = sampled >= body;
+        int count = exact || sampled == 0 ? records : (int) Math.min(Integer.MAX_VALUE, (long) records * body / sampled);
+        return new SUF2Header(properties, bounds.isNull() ? null : bounds, count, exact);
+    }
+
+    /**
+     * @return the offset of the first line at or after position which starts
+     * with record type 03 or 05, or the length of the file if there is none
+     */
+    static long findRecordStart(FileChannel channel, long position) throws IOException {
+        long length = channel.size();
+        if (position >= length) {
+            return length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        /* 1: at the start of a line, 2: line starts with '0' */
+        int state = position == 0 ? 1 : 0;
+        long p = position == 0 ? 0 : position - 1;
+        long lineStart = -1;
+        while (p < length) {
+            buffer.clear();
+            int n = channel.read(buffer, p);
+            if (n <= 0) {
+                break;
+            }
+            buffer.flip();
+            for (int i = 0; i < n; i++, p++) {
+                byte b = buffer.get(i);
+                if (state == 2) {
+                    if (b == '3' || b == '5') {
+                        return lineStart;
+                    }
+                    state = 0;
+                } else if (state == 1) {
+                    if (b == '0') {
+                        state = 2;
+                        lineStart = p;
+                        continue;
+                    }
+                    state = 0;
+                }
+                if (b == '\n') {
+                    state = 1;
+                }
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,648 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ByteOrderValues;
+import org.locationtech.jts.io.WKBWriter;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Bulk export of the features of a SUF2 file into a table of a JDBC
+ * database, bypassing the feature at a time copy of a GeoTools feature store.
+ * The file is read in a single pass with reused features, rows are inserted
+ * with batched prepared statements and committed every
+ * {@link #setCommitSize(int) commit size} rows. The spatial index is built
+ * after all rows are loaded.
+ * <p>
+ * Two table formats are supported:
+ * <ul>
+ * <li>{@link Format#GEOPACKAGE}: a feature table in a GeoPackage (SQLite)
+ * database with geometries as GeoPackage binary. The GeoPackage metadata
+ * tables are created when missing and the table gets an rtree index
+ * (extension gpkg_rtree_index). The triggers which keep the rtree up to date
+ * on later changes are not created, as they need the ST_ functions of a
+ * GeoPackage aware SQLite.</li>
+ * <li>{@link Format#WKB}: a plain table for any JDBC database (for instance
+ * H2) with geometries as WKB and the envelope of every geometry in columns
+ * minx, maxx, miny and maxy, indexed after the load.</li>
+ * </ul>
+ * The tables must not exist yet. An exporter is not thread safe. Rows are
+ * committed every {@link #setCommitSize(int) commit size} rows to bound the
+ * size of the transaction, so a failed export can not simply be rolled back:
+ * on failure the uncommitted rows are rolled back and the tables created by
+ * the export, with their GeoPackage metadata and rtree, are dropped, so the
+ * export can be retried. This is also needed with a commit size of 0, as
+ * some databases (for instance H2) commit on CREATE TABLE.
+ */
+public class SUF2JdbcExporter {
+
+    private static final Log log = LogFactory.getLog(SUF2JdbcExporter.class);
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_COMMIT_SIZE = 50000;
+    public static final int DEFAULT_SRID = 28992;
+    public static final String GEOMETRY_COLUMN = "geom";
+    private static final String FID_COLUMN = "fid";
+    private static final String[] ENVELOPE_COLUMNS = {"minx", "maxx", "miny", "maxy"};
+    private static final String WGS84 = "GEOGCS[\"WGS 84\",DATUM[\"WGS_1984\",SPHEROID[\"WGS 84\",6378137,298.257223563,AUTHORITY[\"EPSG\",\"7030\"]],"
+            + "AUTHORITY[\"EPSG\",\"6326\"]],PRIMEM[\"Greenwich\",0,AUTHORITY[\"EPSG\",\"8901\"]],"
+            + "UNIT[\"degree\",0.0174532925199433,AUTHORITY[\"EPSG\",\"9122\"]],AUTHORITY[\"EPSG\",\"4326\"]]";
+
+    public enum Format {
+        GEOPACKAGE, WKB
+    }
+
+    private final Connection connection;
+    private final Format format;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int commitSize = DEFAULT_COMMIT_SIZE;
+    private boolean createSpatialIndex = true;
+    private int srid = DEFAULT_SRID;
+    private int uncommitted = 0;
+    /* the tables of the running export */
+    private List<Table> tables;
+    /* names of the tables created by the running export, dropped on failure */
+    private final List<String> created = new ArrayList<String>();
+
+    public SUF2JdbcExporter(Connection connection, Format format) {
+        this.connection = connection;
+        this.format = format;
+    }
+
+    /**
+     * Set the number of rows sent to the database in a single batch,
+     * {@value #DEFAULT_BATCH_SIZE} by default.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the number of rows after which the transaction is committed,
+     * {@value #DEFAULT_COMMIT_SIZE} by default. 0 commits once at the end.
+     */
+    public void setCommitSize(int commitSize) {
+        this.commitSize = Math.max(0, commitSize);
+    }
+
+    public int getCommitSize() {
+        return commitSize;
+    }
+
+    /**
+     * Build a spatial index after loading, true by default.
+     */
+    public void setCreateSpatialIndex(boolean createSpatialIndex) {
+        this.createSpatialIndex = createSpatialIndex;
+    }
+
+    public boolean isCreateSpatialIndex() {
+        return createSpatialIndex;
+    }
+
+    /**
+     * Set the srid of the geometries, {@value #DEFAULT_SRID} (RD) by default.
+     */
+    public void setSrid(int srid) {
+        this.srid = srid;
+    }
+
+    public int getSrid() {
+        return srid;
+    }
+
+    /**
+     * Export all features of a file with the flat feature type into a single
+     * table.
+     *
+     * @return the number of rows inserted
+     */
+    public int export(SUF2DataStore store, final String table) throws IOException {
+        final SimpleFeatureType ft = store.getSchema();
+        final List<Table> tables = new ArrayList<Table>();
+        return run(store, tables, new Loader() {
+            public int load(SUF2DataStore store) throws IOException, SQLException {
+                Table t = new Table(table, ft);
+                tables.add(t);
+                FeatureReader<SimpleFeatureType, SimpleFeature> reader = store.createFileFeatureReader(ft, new Query(ft.getTypeName(), Filter.INCLUDE), true);
+                try {
+                    while (reader.hasNext()) {
+                        t.add(reader.next());
+                    }
+                } finally {
+                    reader.close();
+                }
+                return t.count;
+            }
+        });
+    }
+
+    /**
+     * Export the features of a file into a table per layer, named
+     * tablePrefix_LAYER, in a single pass over the file.
+     *
+     * @return the number of rows inserted in all tables
+     */
+    public int exportLayers(SUF2DataStore store, final String tablePrefix) throws IOException {
+        final List<Table> tables = new ArrayList<Table>();
+        return run(store, tables, new Loader() {
+            public int load(SUF2DataStore store) throws IOException, SQLException {
+                final Map<SUF2Layer, Table> layers = new EnumMap<SUF2Layer, Table>(SUF2Layer.class);
+                for (SUF2Layer layer : SUF2Layer.values()) {
+                    Table t = new Table(layer.getTypeName(tablePrefix), store.getSchema(layer));
+                    tables.add(t);
+                    layers.put(layer, t);
+                }
+                return store.readLayers(Filter.INCLUDE, new SUF2Layer.Handler() {
+                    public void feature(SUF2Layer layer, SimpleFeature feature) throws IOException {
+                        try {
+                            layers.get(layer).add(feature);
+                        } catch (SQLException ex) {
+                            throw new IOException("Kan feature " + feature.getID() + " niet toevoegen: " + ex.getLocalizedMessage(), ex);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private interface Loader {
+
+        int load(SUF2DataStore store) throws IOException, SQLException;
+    }
+
+    private int run(SUF2DataStore store, List<Table> tables, Loader loader) throws IOException {
+        long start = System.currentTimeMillis();
+        boolean autoCommit;
+        try {
+            autoCommit = connection.getAutoCommit();
+        } catch (SQLException ex) {
+            throw new IOException("Kan niet exporteren naar database: " + ex.getLocalizedMessage(), ex);
+        }
+        uncommitted = 0;
+        this.tables = tables;
+        created.clear();
+        try {
+            connection.setAutoCommit(false);
+            if (format == Format.GEOPACKAGE) {
+                createGeoPackageTables(store.getSchema().getCoordinateReferenceSystem());
+            }
+            int count = loader.load(store);
+            for (Table t : tables) {
+                t.finish();
+            }
+            connection.commit();
+            log.debug(count + " features van " + store.getSourceFile() + " geexporteerd in " + (System.currentTimeMillis() - start) + " ms");
+            return count;
+        } catch (SQLException | IOException | RuntimeException ex) {
+            try {
+                connection.rollback();
+            } catch (SQLException rex) {
+                log.debug("Mogelijk probleem met terugdraaien van export", rex);
+            }
+            dropCreatedTables();
+            if (ex instanceof SQLException) {
+                throw new IOException("Kan niet exporteren naar database: " + ex.getLocalizedMessage(), ex);
+            }
+            if (ex instanceof IOException) {
+                throw (IOException) ex;
+            }
+            throw (RuntimeException) ex;
+        } finally {
+            for (Table t : tables) {
+                t.close();
+            }
+            this.tables = null;
+            created.clear();
+            try {
+                connection.setAutoCommit(autoCommit);
+            } catch (SQLException ex) {
+                log.debug("Mogelijk probleem met herstellen van auto commit", ex);
+            }
+        }
+    }
+
+    private void rowAdded() throws SQLException {
+        uncommitted++;
+        if (commitSize > 0 && uncommitted >= commitSize) {
+            for (Table t : tables) {
+                t.flush();
+            }
+            connection.commit();
+            uncommitted = 0;
+        }
+    }
+
+    /**
+     * Drop the tables created by a failed export, which may be partly
+     * committed, and remove them from the GeoPackage metadata.
+     */
+    private void dropCreatedTables() {
+        for (String name : created) {
+            try {
+                /* closed first, the statement of a table locks it in SQLite */
+                for (Table t : tables) {
+                    if (t.name.equals(name)) {
+                        t.close();
+                    }
+                }
+                execute("DROP TABLE IF EXISTS " + quote(name));
+                if (format == Format.GEOPACKAGE) {
+                    execute("DROP TABLE IF EXISTS " + quote(getRtreeName(name)));
+                    for (String metadata : new String[]{"gpkg_extensions", "gpkg_geometry_columns", "gpkg_contents"}) {
+                        PreparedStatement ps = connection.prepareStatement("DELETE FROM " + metadata + " WHERE table_name = ?");
+                        try {
+                            ps.setString(1, name);
+                            ps.executeUpdate();
+                        } finally {
+                            ps.close();
+                        }
+                    }
+                }
+                connection.commit();
+            } catch (SQLException ex) {
+                log.error("Kan tabel " + name + " van mislukte export niet verwijderen", ex);
+            }
+        }
+    }
+
+    private static String getRtreeName(String table) {
+        return "rtree_" + table + "_" + GEOMETRY_COLUMN;
+    }
+
+    /**
+     * Create the metadata tables of a GeoPackage when missing and register
+     * the srs.
+     */
+    private void createGeoPackageTables(CoordinateReferenceSystem crs) throws SQLException {
+        Statement s = connection.createStatement();
+        try {
+            s.execute("PRAGMA application_id = 1196444487");
+            s.execute("PRAGMA user_version = 10200");
+            s.execute("CREATE TABLE IF NOT EXISTS gpkg_spatial_ref_sys (srs_name TEXT NOT NULL, srs_id INTEGER PRIMARY KEY, "
+                    + "organization TEXT NOT NULL, organization_coordsys_id INTEGER NOT NULL, definition TEXT NOT NULL, description TEXT)");
+            s.execute("CREATE TABLE IF NOT EXISTS gpkg_contents (table_name TEXT NOT NULL PRIMARY KEY, data_type TEXT NOT NULL, "
+                    + "identifier TEXT UNIQUE, description TEXT DEFAULT '', "
+                    + "last_change DATETIME NOT NULL DEFAULT (strftime('%Y-%m-%dT%H:%M:%fZ','now')), "
+                    + "min_x DOUBLE, min_y DOUBLE, max_x DOUBLE, max_y DOUBLE, srs_id INTEGER, "
+                    + "CONSTRAINT fk_gc_r_srs_id FOREIGN KEY (srs_id) REFERENCES gpkg_spatial_ref_sys(srs_id))");
+            s.execute("CREATE TABLE IF NOT EXISTS gpkg_geometry_columns (table_name TEXT NOT NULL, column_name TEXT NOT NULL, "
+                    + "geometry_type_name TEXT NOT NULL, srs_id INTEGER NOT NULL, z TINYINT NOT NULL, m TINYINT NOT NULL, "
+                    + "CONSTRAINT pk_geom_cols PRIMARY KEY (table_name, column_name), "
+                    + "CONSTRAINT uk_gc_table_name UNIQUE (table_name), "
+                    + "CONSTRAINT fk_gc_tn FOREIGN KEY (table_name) REFERENCES gpkg_contents(table_name), "
+                    + "CONSTRAINT fk_gc_srs FOREIGN KEY (srs_id) REFERENCES gpkg_spatial_ref_sys (srs_id))");
+            s.execute("CREATE TABLE IF NOT EXISTS gpkg_extensions (table_name TEXT, column_name TEXT, "
+                    + "extension_name TEXT NOT NULL, definition TEXT NOT NULL, scope TEXT NOT NULL, "
+                    + "CONSTRAINT ge_tce UNIQUE (table_name, column_name, extension_name))");
+        } finally {
+            s.close();
+        }
+        addSpatialRefSys("Undefined cartesian SRS", -1, "NONE", -1, "undefined");
+        addSpatialRefSys("Undefined geographic SRS", 0, "NONE", 0, "undefined");
+        addSpatialRefSys("WGS 84 geodetic", 4326, "EPSG", 4326, WGS84);
+        addSpatialRefSys("EPSG:" + srid, srid, "EPSG", srid, crs == null ? "undefined" : crs.toWKT());
+    }
+
+    private void addSpatialRefSys(String name, int id, String organization, int code, String definition) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("INSERT OR IGNORE INTO gpkg_spatial_ref_sys "
+                + "(srs_name, srs_id, organization, organization_coordsys_id, definition) VALUES (?, ?, ?, ?, ?)");
+        try {
+            ps.setString(1, name);
+            ps.setInt(2, id);
+            ps.setString(3, organization);
+            ps.setInt(4, code);
+            ps.setString(5, definition);
+            ps.executeUpdate();
+        } finally {
+            ps.close();
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement s = connection.createStatement();
+        try {
+            s.execute(sql);
+        } finally {
+            s.close();
+        }
+    }
+
+    private static String quote(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+
+    private String getSqlType(Class<?> binding) {
+        if (Double.class.equals(binding)) {
+            return format == Format.GEOPACKAGE ? "DOUBLE" : "DOUBLE PRECISION";
+        } else if (Integer.class.equals(binding)) {
+            return "INTEGER";
+        }
+        return format == Format.GEOPACKAGE ? "TEXT" : "VARCHAR";
+    }
+
+    private static int getJdbcType(Class<?> binding) {
+        if (Double.class.equals(binding)) {
+            return Types.DOUBLE;
+        } else if (Integer.class.equals(binding)) {
+            return Types.INTEGER;
+        }
+        return Types.VARCHAR;
+    }
+
+    /**
+     * A table being loaded: its insert statement, the rows in the current
+     * batch and the envelopes for the spatial index.
+     */
+    private class Table {
+
+        private final String name;
+        private final SimpleFeatureType ft;
+        private final int geometryIndex;
+        private final int[] attributeIndex;
+        private final int[] jdbcTypes;
+        private final PreparedStatement insert;
+        private final WKBWriter wkbWriter = new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN);
+        private final ByteArrayOutputStream blob = new ByteArrayOutputStream(1024);
+        private final ByteBuffer header = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+        private final Envelope extent = new Envelope();
+        /* envelopes of the rows for the rtree of a GeoPackage, read back after the load */
+        private File envelopeFile;
+        private DataOutputStream envelopes;
+        private int count = 0;
+        private int batched = 0;
+
+        Table(String name, SimpleFeatureType ft) throws SQLException, IOException {
+            this.name = name;
+            this.ft = ft;
+            this.geometryIndex = ft.indexOf(ft.getGeometryDescriptor().getLocalName());
+            List<Integer> attributes = new ArrayList<Integer>();
+            StringBuilder columns = new StringBuilder(quote(FID_COLUMN) + " INTEGER PRIMARY KEY, " + quote(GEOMETRY_COLUMN) + " "
+                    + (format == Format.GEOPACKAGE ? getGeometryTypeName() : "BLOB"));
+            StringBuilder insertColumns = new StringBuilder(quote(FID_COLUMN) + ", " + quote(GEOMETRY_COLUMN));
+            StringBuilder parameters = new StringBuilder("?, ?");
+            for (int i = 0; i < ft.getAttributeCount(); i++) {
+                if (i == geometryIndex) {
+                    continue;
+                }
+                attributes.add(i);
+                String column = quote(ft.getDescriptor(i).getLocalName());
+                columns.append(", ").append(column).append(' ').append(getSqlType(ft.getDescriptor(i).getType().getBinding()));
+                insertColumns.append(", ").append(column);
+                parameters.append(", ?");
+            }
+            if (format == Format.WKB) {
+                for (String column : ENVELOPE_COLUMNS) {
+                    columns.append(", ").append(quote(column)).append(" DOUBLE PRECISION");
+                    insertColumns.append(", ").append(quote(column));
+                    parameters.append(", ?");
+                }
+            }
+            attributeIndex = new int[attributes.size()];
+            jdbcTypes = new int[attributes.size()];
+            for (int i = 0; i < attributeIndex.length; i++) {
+                attributeIndex[i] = attributes.get(i);
+                jdbcTypes[i] = getJdbcType(ft.getDescriptor(attributeIndex[i]).getType().getBinding());
+            }
+
+            execute("CREATE TABLE " + quote(name) + " (" + columns + ")");
+            created.add(name);
+            if (format == Format.GEOPACKAGE) {
+                registerGeoPackageTable();
+            }
+            insert = connection.prepareStatement("INSERT INTO " + quote(name) + " (" + insertColumns + ") VALUES (" + parameters + ")");
+            if (format == Format.GEOPACKAGE && createSpatialIndex) {
+                envelopeFile = File.createTempFile("suf2-rtree", ".tmp");
+                envelopes = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(envelopeFile), 64 * 1024));
+            }
+        }
+
+        private String getGeometryTypeName() {
+            Class<?> binding = ft.getGeometryDescriptor().getType().getBinding();
+            return Geometry.class.equals(binding) ? "GEOMETRY" : binding.getSimpleName().toUpperCase();
+        }
+
+        private void registerGeoPackageTable() throws SQLException {
+            PreparedStatement ps = connection.prepareStatement("INSERT INTO gpkg_contents (table_name, data_type, identifier, srs_id) VALUES (?, 'features', ?, ?)");
+            try {
+                ps.setString(1, name);
+                ps.setString(2, name);
+                ps.setInt(3, srid);
+                ps.executeUpdate();
+            } finally {
+                ps.close();
+            }
+            ps = connection.prepareStatement("INSERT INTO gpkg_geometry_columns (table_name, column_name, geometry_type_name, srs_id, z, m) VALUES (?, ?, ?, ?, 0, 0)");
+            try {
+                ps.setString(1, name);
+                ps.setString(2, GEOMETRY_COLUMN);
+                ps.setString(3, getGeometryTypeName());
+                ps.setInt(4, srid);
+                ps.executeUpdate();
+            } finally {
+                ps.close();
+            }
+        }
+
+        void add(SimpleFeature f) throws SQLException, IOException {
+            int fid = ++count;
+            Geometry geometry = (Geometry) f.getAttribute(geometryIndex);
+            Envelope envelope = geometry == null ? new Envelope() : geometry.getEnvelopeInternal();
+            int p = 1;
+            insert.setInt(p++, fid);
+            if (geometry == null) {
+                insert.setNull(p++, Types.BLOB);
+            } else {
+                insert.setBytes(p++, format == Format.GEOPACKAGE ? toGeoPackageBinary(geometry, envelope) : wkbWriter.write(geometry));
+            }
+            for (int i = 0; i < attributeIndex.length; i++) {
+                Object value = f.getAttribute(attributeIndex[i]);
+                if (value == null) {
+                    insert.setNull(p++, jdbcTypes[i]);
+                } else if (jdbcTypes[i] == Types.VARCHAR) {
+                    insert.setString(p++, value.toString());
+                } else {
+                    insert.setObject(p++, value, jdbcTypes[i]);
+                }
+            }
+            if (format == Format.WKB) {
+                if (envelope.isNull()) {
+                    for (int i = 0; i < ENVELOPE_COLUMNS.length; i++) {
+                        insert.setNull(p++, Types.DOUBLE);
+                    }
+                } else {
+                    insert.setDouble(p++, envelope.getMinX());
+                    insert.setDouble(p++, envelope.getMaxX());
+                    insert.setDouble(p++, envelope.getMinY());
+                    insert.setDouble(p++, envelope.getMaxY());
+                }
+            }
+            insert.addBatch();
+            if (++batched >= batchSize) {
+                flush();
+            }
+            if (!envelope.isNull()) {
+                extent.expandToInclude(envelope);
+                if (envelopes != null) {
+                    envelopes.writeInt(fid);
+                    envelopes.writeDouble(envelope.getMinX());
+                    envelopes.writeDouble(envelope.getMaxX());
+                    envelopes.writeDouble(envelope.getMinY());
+                    envelopes.writeDouble(envelope.getMaxY());
+                }
+            }
+            rowAdded();
+        }
+
+        /**
+         * @return the geometry as GeoPackage binary: the header with srid
+         * and envelope followed by little endian WKB
+         */
+        private byte[] toGeoPackageBinary(Geometry geometry, Envelope envelope) throws IOException {
+            blob.reset();
+            header.clear();
+            header.put((byte) 'G').put((byte) 'P').put((byte) 0);
+            if (envelope.isNull()) {
+                /* empty geometry, no envelope */
+                header.put((byte) 0x11).putInt(srid);
+            } else {
+                /* little endian, envelope [minx, maxx, miny, maxy] */
+                header.put((byte) 0x03).putInt(srid);
+                header.putDouble(envelope.getMinX()).putDouble(envelope.getMaxX());
+                header.putDouble(envelope.getMinY()).putDouble(envelope.getMaxY());
+            }
+            blob.write(header.array(), 0, header.position());
+            blob.write(wkbWriter.write(geometry));
+            return blob.toByteArray();
+        }
+
+        private void flush() throws SQLException {
+            if (batched > 0) {
+                insert.executeBatch();
+                batched = 0;
+            }
+        }
+
+        /**
+         * Insert the remaining rows, set the extent and build the spatial
+         * index.
+         */
+        void finish() throws SQLException, IOException {
+            flush();
+            if (format == Format.GEOPACKAGE) {
+                if (!extent.isNull()) {
+                    PreparedStatement ps = connection.prepareStatement("UPDATE gpkg_contents SET min_x = ?, min_y = ?, max_x = ?, max_y = ? WHERE table_name = ?");
+                    try {
+                        ps.setDouble(1, extent.getMinX());
+                        ps.setDouble(2, extent.getMinY());
+                        ps.setDouble(3, extent.getMaxX());
+                        ps.setDouble(4, extent.getMaxY());
+                        ps.setString(5, name);
+                        ps.executeUpdate();
+                    } finally {
+                        ps.close();
+                    }
+                }
+                if (envelopes != null) {
+                    envelopes.close();
+                    envelopes = null;
+                    createRtree();
+                }
+            } else if (createSpatialIndex) {
+                execute("CREATE INDEX " + quote(name + "_bbox") + " ON " + quote(name) + " ("
+                        + quote(ENVELOPE_COLUMNS[0]) + ", " + quote(ENVELOPE_COLUMNS[2]) + ")");
+            }
+            log.debug(count + " rijen in tabel " + name);
+        }
+
+        private void createRtree() throws SQLException, IOException {
+            String rtree = getRtreeName(name);
+            execute("CREATE VIRTUAL TABLE " + quote(rtree) + " USING rtree(id, minx, maxx, miny, maxy)");
+            PreparedStatement ps = connection.prepareStatement("INSERT INTO " + quote(rtree) + " VALUES (?, ?, ?, ?, ?)");
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(envelopeFile), 64 * 1024));
+            try {
+                int rows = 0;
+                while (true) {
+                    int fid;
+                    try {
+                        fid = in.readInt();
+                    } catch (EOFException ex) {
+                        break;
+                    }
+                    ps.setInt(1, fid);
+                    ps.setDouble(2, in.readDouble());
+                    ps.setDouble(3, in.readDouble());
+                    ps.setDouble(4, in.readDouble());
+                    ps.setDouble(5, in.readDouble());
+                    ps.addBatch();
+                    if (++rows % batchSize == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            } finally {
+                in.close();
+                ps.close();
+            }
+            ps = connection.prepareStatement("INSERT INTO gpkg_extensions (table_name, column_name, extension_name, definition, scope) "
+                    + "VALUES (?, ?, 'gpkg_rtree_index', 'http://www.geopackage.org/spec120/#extension_rtree', 'write-only')");
+            try {
+                ps.setString(1, name);
+                ps.setString(2, GEOMETRY_COLUMN);
+                ps.executeUpdate();
+            } finally {
+                ps.close();
+            }
+        }
+
+        void close() {
+            try {
+                insert.close();
+            } catch (SQLException ex) {
+                log.debug("Mogelijk probleem met sluiten van statement", ex);
+            }
+            if (envelopes != null) {
+                try {
+                    envelopes.close();
+                } catch (IOException ex) {
+                    log.debug("Mogelijk probleem met sluiten van " + envelopeFile, ex);
+                }
+                envelopes = null;
+            }
+            if (envelopeFile != null) {
+                envelopeFile.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.IOException;
+import nl.b3p.suf2.records.SUF2Record;
+import nl.b3p.suf2.records.SUF2Record03;
+import nl.b3p.suf2.records.SUF2Record04;
+import nl.b3p.suf2.records.SUF2Record05;
+import nl.b3p.suf2.records.SUF2Record06;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * The kinds of records with geometry, used as separate feature types when a
+ * datastore splits its schema, see
+ * {@link SUF2DataStore#setSplitSchema(boolean)}. A layer type only has the
+ * attributes that apply to its records and a geometry binding that matches
+ * them. The layer of a feature type is kept in its user data, so every
+ * reader of such a type only returns the records of the layer.
+ */
+public enum SUF2Layer {
+
+    LINES("lines", LineString.class, SUF2Record.Type.LINE),
+    POLYGONS("polygons", Polygon.class, SUF2Record.Type.POLYGON),
+    ARCS("arcs", LineString.class, SUF2Record.Type.ARC),
+    TEXTS("texts", Point.class, SUF2Record.Type.TEXT),
+    SYMBOLS("symbols", Point.class, SUF2Record.Type.SYMBOL);
+
+    private final String name;
+    private final Class<? extends Geometry> binding;
+    private final SUF2Record.Type recordType;
+
+    /**
+     * Receives the features of all layers of a file in a single pass, see
+     * {@link SUF2DataStore#readLayers(org.opengis.filter.Filter, SUF2Layer.Handler)}.
+     */
+    public interface Handler {
+
+        void feature(SUF2Layer layer, SimpleFeature feature) throws IOException;
+    }
+
+    SUF2Layer(String name, Class<? extends Geometry> binding, SUF2Record.Type recordType) {
+        this.name = name;
+        this.binding = binding;
+        this.recordType = recordType;
+    }
+
+    /**
+     * @return suffix of the type name of the layer
+     */
+    public String getName() {
+        return name;
+    }
+
+    public Class<? extends Geometry> getBinding() {
+        return binding;
+    }
+
+    public SUF2Record.Type getRecordType() {
+        return recordType;
+    }
+
+    /**
+     * @return the type name of the layer for a file with the given type name
+     */
+    public String getTypeName(String typeName) {
+        return typeName + "_" + name;
+    }
+
+    /**
+     * @return the attributes of the layer besides the geometry, in order
+     */
+    String[] getAttributeNames() {
+        switch (this) {
+            case TEXTS:
+                return new String[]{SUF2Record.RECORDTYPE, SUF2Record.LKI_CLASSIFICATIECODE, SUF2Record.ANGLE,
+                    SUF2Record03.G_ZICHTBAARHEID, SUF2Record03.G_INWINNING, SUF2Record03.G_STATUS_VAN_OBJECT,
+                    SUF2Record03.D_OPNAMEDATUM, SUF2Record03.B_BRONVERMELDING, SUF2Record03.B_WIJZE_VERZEKERING,
+                    SUF2Record05.TEXT_ALIGN, SUF2Record05.STATUS_PERCEEL, SUF2Record05.TEKST_OF_SYMBOOL,
+                    SUF2Record06.VELDLENGTE, SUF2Record06.TEKST, SUF2Record06.GEMEENTECODE, SUF2Record06.SECTIE,
+                    SUF2Record06.PERCEELNUMMER, SUF2Record06.INDEXLETTER, SUF2Record06.INDEXNUMMER,
+                    SUF2Record.ID};
+            case SYMBOLS:
+                return new String[]{SUF2Record.RECORDTYPE, SUF2Record.LKI_CLASSIFICATIECODE, SUF2Record.ANGLE,
+                    SUF2Record03.G_ZICHTBAARHEID, SUF2Record03.G_INWINNING, SUF2Record03.G_STATUS_VAN_OBJECT,
+                    SUF2Record03.D_OPNAMEDATUM, SUF2Record03.B_BRONVERMELDING, SUF2Record03.B_WIJZE_VERZEKERING,
+                    SUF2Record05.STATUS_PERCEEL, SUF2Record05.TEKST_OF_SYMBOOL, SUF2Record05.SYMBOOLTYPE,
+                    SUF2Record.ID};
+            default:
+                return new String[]{SUF2Record.RECORDTYPE, SUF2Record.LKI_CLASSIFICATIECODE,
+                    SUF2Record03.GEMEENTECODEPERCEELLINKS, SUF2Record03.SECTIEPERCEELLINKS, SUF2Record03.INDEXLETTERPERCEELLINKS,
+                    SUF2Record03.PERCEELNUMMERLINKS, SUF2Record03.INDEXNUMMERLINKS,
+                    SUF2Record03.GEMEENTECODEPERCEELRECHTS, SUF2Record03.SECTIEPERCEELRECHTS, SUF2Record03.INDEXLETTERPERCEELRECHTS,
+                    SUF2Record03.PERCEELNUMMERRECHTS, SUF2Record03.INDEXNUMMERRECHTS,
+                    SUF2Record03.G_STRINGSOORT, SUF2Record03.G_ZICHTBAARHEID, SUF2Record03.G_INWINNING, SUF2Record03.G_STATUS_VAN_OBJECT,
+                    SUF2Record03.D_OPNAMEDATUM, SUF2Record03.B_BRONVERMELDING, SUF2Record03.B_WIJZE_VERZEKERING,
+                    SUF2Record04.I_COORD_FUNCTIE, SUF2Record04.Q_PRECISIEKLASSE, SUF2Record04.Q_IDEALISATIEKLASSE,
+                    SUF2Record04.Q_BETROUWBAARHEID,
+                    SUF2Record.ID};
+        }
+    }
+
+    /**
+     * @return the layer of records with the given type, or null
+     */
+    public static SUF2Layer of(SUF2Record.Type recordType) {
+        for (SUF2Layer layer : values()) {
+            if (layer.recordType == recordType) {
+                return layer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the layer of a feature type built for a layer, or null for the
+     * flat SUF2 feature type
+     */
+    public static SUF2Layer of(SimpleFeatureType ft) {
+        Object layer = ft.getUserData().get(SUF2Layer.class);
+        return layer instanceof SUF2Layer ? (SUF2Layer) layer : null;
+    }
+}
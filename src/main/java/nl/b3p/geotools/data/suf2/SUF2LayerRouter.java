@@ -0,0 +1,96 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import nl.b3p.suf2.records.SUF2Record;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.feature.simple.SimpleFeatureImpl;
+import org.geotools.filter.identity.FeatureIdImpl;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Converts features of the flat SUF2 feature type to features of the type of
+ * their layer, so a single pass with the flat type serves all layers. The
+ * values are copied, so the flat feature may be reused afterwards.
+ * <p>
+ * A flat feature without a layer, or with a geometry which does not fit the
+ * binding of its layer (for instance a degenerated polygon), is not passed to
+ * any layer. This is the only place where such features are dropped: they are
+ * counted in the statistics of the datastore as
+ * {@link SUF2Statistics.Skip#LAYER} and logged.
+ */
+class SUF2LayerRouter {
+
+    private static final Log log = LogFactory.getLog(SUF2LayerRouter.class);
+    private final SUF2DataStore store;
+    private final SUF2Statistics statistics;
+    private int dropped = 0;
+    private final Map<SUF2Layer, SimpleFeatureType> types = new EnumMap<SUF2Layer, SimpleFeatureType>(SUF2Layer.class);
+    private final Map<SUF2Layer, int[]> indexes = new EnumMap<SUF2Layer, int[]>(SUF2Layer.class);
+    private final Map<Object, SUF2Layer> byType = new HashMap<Object, SUF2Layer>();
+    private final int typeIndex;
+    private final int idIndex;
+
+    SUF2LayerRouter(SUF2DataStore store) throws IOException {
+        this.store = store;
+        this.statistics = store.getStatistics();
+        SimpleFeatureType flat = store.getSchema();
+        for (SUF2Layer layer : SUF2Layer.values()) {
+            SimpleFeatureType ft = store.getSchema(layer);
+            int[] index = new int[ft.getAttributeCount()];
+            for (int i = 0; i < index.length; i++) {
+                index[i] = flat.indexOf(ft.getDescriptor(i).getLocalName());
+            }
+            types.put(layer, ft);
+            indexes.put(layer, index);
+            byType.put(layer.getRecordType().getDescription(), layer);
+        }
+        typeIndex = flat.indexOf(SUF2FeatureReader.TYPE);
+        idIndex = flat.indexOf(SUF2Record.ID);
+    }
+
+    /**
+     * @return the layer of a flat feature, or null
+     */
+    SUF2Layer getLayer(SimpleFeature flat) {
+        return byType.get(flat.getAttribute(typeIndex));
+    }
+
+    /**
+     * @param layer the layer of the feature, see
+     * {@link #getLayer(SimpleFeature)}
+     * @return a feature of the type of the layer with the values of the flat
+     * feature, or null when there is no layer or the geometry does not fit
+     * the layer
+     */
+    SimpleFeature route(SUF2Layer layer, SimpleFeature flat) {
+        if (layer == null || !layer.getBinding().isInstance(flat.getDefaultGeometry())) {
+            Object type = flat.getAttribute(typeIndex);
+            statistics.skipped(SUF2Statistics.Skip.LAYER, type == null ? null : type.toString());
+            if (dropped++ == 0) {
+                log.warn("Feature " + flat.getID() + " van " + store.getSourceFile() + " past niet in een laag en wordt overgeslagen"
+                        + (layer == null ? ", onbekend type " + type : ", geometrie " + getGeometryType(flat)));
+            } else if (log.isDebugEnabled()) {
+                log.debug("Feature " + flat.getID() + " past niet in een laag en wordt overgeslagen");
+            }
+            return null;
+        }
+        SimpleFeatureType ft = types.get(layer);
+        int[] index = indexes.get(layer);
+        Object[] values = new Object[index.length];
+        for (int i = 0; i < index.length; i++) {
+            values[i] = index[i] == -1 ? null : flat.getAttribute(index[i]);
+        }
+        return new SimpleFeatureImpl(values, ft, new FeatureIdImpl(ft.getTypeName() + "." + flat.getAttribute(idIndex)), false);
+    }
+
+    private static String getGeometryType(SimpleFeature flat) {
+        Object geometry = flat.getDefaultGeometry();
+        return geometry instanceof Geometry ? ((Geometry) geometry).getGeometryType() : String.valueOf(geometry);
+    }
+}
@@ -0,0 +1,622 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import nl.b3p.suf2.SUF2Coordinate;
+import nl.b3p.suf2.SUF2ParseException;
+import nl.b3p.suf2.records.SUF2Record;
+import nl.b3p.suf2.records.SUF2Record01;
+import nl.b3p.suf2.records.SUF2Record02;
+import nl.b3p.suf2.records.SUF2Record03;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.data.FeatureReader;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Compares the features of a SUF2 delivery with a snapshot of a previously
+ * processed delivery and reports the differences as inserts, updates and
+ * deletes. SUF2 objects have no identifier, the identity of a feature is a
+ * hash of the record type, classification code and the first and last
+ * coordinate of its record, in millimeters as in the file. It does not depend
+ * on the geometry built from the record, so changing for instance the arc
+ * linearization of the datastore does not change identities. An update is a
+ * feature with a known identity but different other attributes or
+ * coordinates. Attributes of the file header (records 01 and 02) and the line
+ * number are not compared.
+ * <p>
+ * For a full delivery every identity of the snapshot which is not in the
+ * delivery is deleted. A mutation delivery, with
+ * {@link SUF2Record01#VOLLEDIG_OF_MUTATIE} starting with "M", only contains
+ * changed objects and objects not in it are kept. In a mutation delivery a
+ * removed object is delivered with a delete marker, by default
+ * {@link SUF2Record03#G_STATUS_VAN_OBJECT} {@value #DEFAULT_DELETE_VALUE}, see
+ * {@link #setDeleteMarker(String, String)}. A changed object may be delivered
+ * as the removal of the old object followed by the new object: when both have
+ * the same identity this is reported as an update. Deletes are reported after
+ * all inserts and updates. After processing the snapshot describes the
+ * current state and is written back.
+ * <p>
+ * Objects with the same identity within a delivery, for instance two equal
+ * lines, are not merged: the second and further ones get an identity derived
+ * from their order of occurrence and are counted as duplicates in the result.
+ */
+public class SUF2MutationProcessor {
+
+    private static final Log log = LogFactory.getLog(SUF2MutationProcessor.class);
+    public static final String EXTENSION = ".snapshot";
+    private static final int MAGIC = 0x53554653; // "SUFS"
+    private static final int VERSION = 2;
+    public static final String DEFAULT_DELETE_VALUE = "V";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int REMOVED = 1;
+    private static final int ADDED_AGAIN = 2;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final Set<String> HEADER_ATTRIBUTES = new HashSet<String>(Arrays.asList(
+            SUF2Record01.BESTANDSIDENTIFICATIE,
+            SUF2Record01.VOLLEDIG_OF_MUTATIE,
+            SUF2Record01.DATUM_HERZIENING,
+            SUF2Record01.DATUM_ACTUALITEIT,
+            SUF2Record01.UITWISSELING_DEELBESTANDEN,
+            SUF2Record01.UITWISSELING_DEELBESTANDEN_HUIDIG,
+            SUF2Record01.BESTANDSNAAM,
+            SUF2Record02.RD,
+            SUF2Record02.LKI,
+            SUF2Record02.COORD_MILLIMETERS,
+            SUF2Record02.RICHTINGEN_MICROGON,
+            SUF2Record02.LKI_SYMBOOL,
+            SUF2Record02.NAP,
+            SUF2Record02.HEEFT_OPTEL_X,
+            SUF2Record02.HEEFT_OPTEL_Y,
+            SUF2Record02.HEEFT_OPTEL_Z,
+            SUF2Record02.VERMENIGVULDIGINGSCONSTANTE_XY,
+            SUF2Record02.VERMENIGVULDIGINGSCONSTANTE_Z,
+            SUF2Record.ID));
+
+    public enum ChangeType {
+        INSERT, UPDATE, DELETE
+    }
+
+    /**
+     * Receives the changes. The feature is null for a delete.
+     */
+    public interface Listener {
+
+        void change(ChangeType type, String identity, SimpleFeature feature) throws IOException;
+    }
+
+    /**
+     * Number of changes of a processed delivery.
+     */
+    public static class Result {
+
+        private boolean mutation;
+        private int inserts;
+        private int updates;
+        private int deletes;
+        private int unchanged;
+        private int duplicates;
+
+        public boolean isMutation() {
+            return mutation;
+        }
+
+        public int getInserts() {
+            return inserts;
+        }
+
+        public int getUpdates() {
+            return updates;
+        }
+
+        public int getDeletes() {
+            return deletes;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * @return number of objects with the identity of an earlier object
+         * in the delivery
+         */
+        public int getDuplicates() {
+            return duplicates;
+        }
+
+        @Override
+        public String toString() {
+            return (mutation ? "mutatie" : "volledig") + ": " + inserts + " nieuw, " + updates + " gewijzigd, "
+                    + deletes + " verwijderd, " + unchanged + " ongewijzigd, " + duplicates + " dubbel";
+        }
+    }
+
+    private final SUF2DataStore store;
+    private Boolean mutation;
+    private String deleteAttribute = SUF2Record03.G_STATUS_VAN_OBJECT;
+    private String deleteValue = DEFAULT_DELETE_VALUE;
+
+    public SUF2MutationProcessor(SUF2DataStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Treat the delivery as mutation (true) or full delivery (false), by
+     * default (null) this is read from the file.
+     */
+    public void setMutation(Boolean mutation) {
+        this.mutation = mutation;
+    }
+
+    /**
+     * Set the attribute and value which mark a record as the removal of an
+     * object, by default {@link SUF2Record03#G_STATUS_VAN_OBJECT}
+     * {@value #DEFAULT_DELETE_VALUE}. The value is compared case insensitive
+     * and trimmed. A null attribute disables delete markers.
+     */
+    public void setDeleteMarker(String attribute, String value) {
+        this.deleteAttribute = attribute;
+        this.deleteValue = value;
+    }
+
+    /**
+     * @return true if the feature has the delete marker
+     */
+    public boolean isDeleted(SimpleFeature f) {
+        if (deleteAttribute == null) {
+            return false;
+        }
+        Object value = f.getAttribute(deleteAttribute);
+        return value != null && value.toString().trim().equalsIgnoreCase(deleteValue);
+    }
+
+    /**
+     * @return true if the feature is from a mutation delivery
+     */
+    public static boolean isMutation(SimpleFeature f) {
+        Object value = f.getAttribute(SUF2Record01.VOLLEDIG_OF_MUTATIE);
+        return value != null && value.toString().trim().toUpperCase().startsWith("M");
+    }
+
+    /**
+     * @return default snapshot file for a SUF2 file
+     */
+    public static File getSnapshotFile(File file) {
+        return new File(file.getPath() + EXTENSION);
+    }
+
+    /**
+     * @return stable identity of a SUF2 feature read by this processor, or
+     * null when the feature is not read with the hashes of its record
+     */
+    public static String getIdentity(SimpleFeature f) {
+        long[] hashes = getHashes(f);
+        return hashes == null ? null : toString(hashes[0]);
+    }
+
+    /**
+     * @return identity and coordinate hash of the record of a feature, see
+     * {@link SUF2FeatureReader#setRecordHashes(boolean)}
+     */
+    static long[] getHashes(SimpleFeature f) {
+        Object hashes = f.getUserData().get(SUF2MutationProcessor.class);
+        return hashes instanceof long[] ? (long[]) hashes : null;
+    }
+
+    /**
+     * @return identity and coordinate hash of a record
+     */
+    static long[] hashRecord(SUF2Record record) throws SUF2ParseException {
+        String type = record.getType() == null ? null : record.getType().getDescription();
+        Object code = record.getProperties().get(SUF2Record.LKI_CLASSIFICATIECODE);
+        List<SUF2Coordinate> coordinates = record.getCoordinates();
+        return new long[]{identityHash(type, code, coordinates), coordinateHash(coordinates)};
+    }
+
+    /**
+     * Compare the delivery of the datastore with the snapshot, report the
+     * changes and write the new snapshot. Without an existing snapshot every
+     * feature is an insert.
+     */
+    public Result process(File snapshotFile, Listener listener) throws IOException {
+        Snapshot old = Snapshot.read(snapshotFile);
+        BitSet seen = new BitSet(old.count);
+        Snapshot current = new Snapshot(1024);
+        /* occurrences of an identity in the delivery, of objects and of removals */
+        LongCounter occurrences = new LongCounter();
+        LongCounter removals = new LongCounter();
+        /* identities with a delete marker, in order, and their state */
+        Snapshot removed = new Snapshot(16);
+        LongCounter removedState = new LongCounter();
+        Result result = new Result();
+        Boolean isMutation = mutation;
+
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = store.createRecordFeatureReader();
+        try {
+            while (reader.hasNext()) {
+                SimpleFeature f = reader.next();
+                if (isMutation == null) {
+                    isMutation = isMutation(f);
+                }
+                long[] hashes = getHashes(f);
+                if (hashes == null) {
+                    throw new IOException("Feature " + f.getID() + " is niet gelezen met de hashes van het record");
+                }
+                boolean delete = isDeleted(f);
+                int ordinal = (delete ? removals : occurrences).increment(hashes[0]) - 1;
+                long identity = duplicateIdentity(hashes[0], ordinal);
+                int i = old.indexOf(identity);
+                if (delete) {
+                    if (i < 0 && occurrences.get(hashes[0]) <= ordinal) {
+                        log.debug("Te verwijderen object " + f.getID() + " (" + toString(identity) + ") is niet bekend");
+                        continue;
+                    }
+                    if (i >= 0) {
+                        seen.set(i);
+                    }
+                    if (removedState.get(identity) == 0) {
+                        removed.add(identity, 0);
+                    }
+                    removedState.put(identity, REMOVED);
+                    continue;
+                }
+                if (ordinal > 0) {
+                    result.duplicates++;
+                    log.debug("Object " + f.getID() + " heeft dezelfde identiteit als een eerder object: " + toString(hashes[0]));
+                }
+                if (removedState.get(identity) == REMOVED) {
+                    removedState.put(identity, ADDED_AGAIN);
+                }
+                long attributes = attributeHash(f, hashes[1]);
+                if (i < 0) {
+                    result.inserts++;
+                    listener.change(ChangeType.INSERT, toString(identity), f);
+                } else {
+                    seen.set(i);
+                    if (old.attributes[i] != attributes) {
+                        result.updates++;
+                        listener.change(ChangeType.UPDATE, toString(identity), f);
+                    } else {
+                        result.unchanged++;
+                    }
+                }
+                current.add(identity, attributes);
+            }
+        } finally {
+            reader.close();
+        }
+        result.mutation = isMutation != null && isMutation;
+        if (result.duplicates > 0) {
+            log.warn(result.duplicates + " objecten in " + store.getSourceFile() + " hebben dezelfde identiteit als een eerder object");
+        }
+
+        for (int i = 0; i < removed.count; i++) {
+            if (removedState.get(removed.identities[i]) == REMOVED) {
+                result.deletes++;
+                listener.change(ChangeType.DELETE, toString(removed.identities[i]), null);
+            }
+        }
+        Snapshot next = new Snapshot(current.count);
+        for (int i = 0; i < current.count; i++) {
+            if (removedState.get(current.identities[i]) != REMOVED) {
+                next.add(current.identities[i], current.attributes[i]);
+            }
+        }
+        for (int i = seen.nextClearBit(0); i < old.count; i = seen.nextClearBit(i + 1)) {
+            if (result.mutation) {
+                /* objects not in a mutation delivery are unchanged */
+                next.add(old.identities[i], old.attributes[i]);
+            } else {
+                result.deletes++;
+                listener.change(ChangeType.DELETE, toString(old.identities[i]), null);
+            }
+        }
+        next.sort();
+        next.write(snapshotFile);
+        log.info("Verwerkt " + store.getSourceFile() + " tegen " + snapshotFile + ": " + result);
+        return result;
+    }
+
+    /**
+     * @return the identity of the n-th object (from 0) with the same identity
+     * in a delivery
+     */
+    static long duplicateIdentity(long identity, int ordinal) {
+        if (ordinal == 0) {
+            return identity;
+        }
+        return mix(hash(hash(FNV_OFFSET, identity), ordinal));
+    }
+
+    private static String toString(long hash) {
+        String s = Long.toHexString(hash);
+        StringBuilder sb = new StringBuilder(16);
+        for (int i = s.length(); i < 16; i++) {
+            sb.append('0');
+        }
+        return sb.append(s).toString();
+    }
+
+    /**
+     * Hash of the record type, classification code and the first and last
+     * coordinate. The end points are taken in a fixed order, so a line which
+     * is delivered in the opposite direction keeps its identity.
+     */
+    static long identityHash(String type, Object code, List<SUF2Coordinate> coordinates) {
+        long h = FNV_OFFSET;
+        h = hash(h, type);
+        h = hash(h, code);
+        if (coordinates != null && !coordinates.isEmpty()) {
+            SUF2Coordinate first = coordinates.get(0);
+            SUF2Coordinate last = coordinates.get(coordinates.size() - 1);
+            if (compare(first, last) > 0) {
+                SUF2Coordinate c = first;
+                first = last;
+                last = c;
+            }
+            h = hash(h, first);
+            h = hash(h, last);
+        }
+        return mix(h);
+    }
+
+    /**
+     * Hash of all coordinates of a record as they are in the file, so a
+     * change of any coordinate is an update.
+     */
+    static long coordinateHash(List<SUF2Coordinate> coordinates) {
+        long h = FNV_OFFSET;
+        if (coordinates != null) {
+            for (SUF2Coordinate c : coordinates) {
+                h = hash(h, c);
+            }
+        }
+        return mix(h);
+    }
+
+    private static int compare(SUF2Coordinate a, SUF2Coordinate b) {
+        int c = Long.compare(toMillimeters(a.x), toMillimeters(b.x));
+        return c != 0 ? c : Long.compare(toMillimeters(a.y), toMillimeters(b.y));
+    }
+
+    private static long toMillimeters(double ordinate) {
+        return Math.round(ordinate * 1000);
+    }
+
+    private static long hash(long h, SUF2Coordinate c) {
+        h = hash(h, toMillimeters(c.x));
+        return hash(h, toMillimeters(c.y));
+    }
+
+    /**
+     * Hash of the attributes except the geometry, which is represented by
+     * the hash of the coordinates of the record.
+     */
+    static long attributeHash(SimpleFeature f, long coordinateHash) {
+        long h = hash(FNV_OFFSET, coordinateHash);
+        SimpleFeatureType type = f.getFeatureType();
+        for (int i = 0; i < type.getAttributeCount(); i++) {
+            String name = type.getDescriptor(i).getLocalName();
+            Object value = f.getAttribute(i);
+            if (value instanceof Geometry || HEADER_ATTRIBUTES.contains(name)) {
+                continue;
+            }
+            h = hash(h, name);
+            h = hash(h, value);
+        }
+        return mix(h);
+    }
+
+    private static long hash(long h, Object value) {
+        if (value == null) {
+            return (h ^ 0xff) * FNV_PRIME;
+        }
+        String s = value.toString();
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        }
+        return (h ^ 0xfe) * FNV_PRIME;
+    }
+
+    private static long hash(long h, long value) {
+        for (int i = 0; i < 8; i++) {
+            h = (h ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return h;
+    }
+
+    /**
+     * Final mixing step of MurmurHash3, spreads FNV hashes of similar input.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Identity and attribute hashes of all features, sorted by identity.
+     */
+    private static class Snapshot {
+
+        private long[] identities;
+        private long[] attributes;
+        private int count = 0;
+
+        Snapshot(int capacity) {
+            identities = new long[capacity];
+            attributes = new long[capacity];
+        }
+
+        void add(long identity, long attribute) {
+            if (count == identities.length) {
+                identities = Arrays.copyOf(identities, Math.max(16, count * 2));
+                attributes = Arrays.copyOf(attributes, Math.max(16, count * 2));
+            }
+            identities[count] = identity;
+            attributes[count] = attribute;
+            count++;
+        }
+
+        int indexOf(long identity) {
+            return Arrays.binarySearch(identities, 0, count, identity);
+        }
+
+        /**
+         * Sort by identity. Identities are unique, a duplicate can only be a
+         * collision of two hashes.
+         */
+        void sort() throws IOException {
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            final long[] ids = identities;
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    int c = Long.compare(ids[a], ids[b]);
+                    return c != 0 ? c : Integer.compare(a, b);
+                }
+            });
+            long[] sortedIdentities = new long[count];
+            long[] sortedAttributes = new long[count];
+            for (int i = 0; i < count; i++) {
+                int j = order[i];
+                if (i > 0 && sortedIdentities[i - 1] == identities[j]) {
+                    throw new IOException("Dubbele identiteit in snapshot: " + SUF2MutationProcessor.toString(identities[j]));
+                }
+                sortedIdentities[i] = identities[j];
+                sortedAttributes[i] = attributes[j];
+            }
+            identities = sortedIdentities;
+            attributes = sortedAttributes;
+        }
+
+        static Snapshot read(File file) throws IOException {
+            if (!file.exists()) {
+                return new Snapshot(0);
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Ongeldig snapshot bestand: " + file);
+                }
+                if (in.readInt() != VERSION) {
+                    throw new IOException("Snapshot " + file + " is van een andere versie, verwerk eerst opnieuw een volledige levering");
+                }
+                int size = in.readInt();
+                Snapshot snapshot = new Snapshot(size);
+                for (int i = 0; i < size; i++) {
+                    snapshot.add(in.readLong(), in.readLong());
+                }
+                return snapshot;
+            } finally {
+                in.close();
+            }
+        }
+
+        void write(File file) throws IOException {
+            File tempFile = new File(file.getPath() + ".tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(identities[i]);
+                    out.writeLong(attributes[i]);
+                }
+            } finally {
+                out.close();
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Kan bestaand snapshot " + file + " niet vervangen");
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Kan snapshot " + file + " niet schrijven");
+            }
+        }
+    }
+
+    /**
+     * Map of long to positive int with open addressing, 0 for absent keys.
+     */
+    private static class LongCounter {
+
+        private long[] keys = new long[64];
+        private int[] values = new int[64];
+        private int size = 0;
+
+        int get(long key) {
+            for (int i = slot(key, keys.length);; i = (i + 1) & (keys.length - 1)) {
+                if (values[i] == 0 || keys[i] == key) {
+                    return values[i];
+                }
+            }
+        }
+
+        void put(long key, int value) {
+            int i = slot(key, keys.length);
+            while (values[i] != 0 && keys[i] != key) {
+                i = (i + 1) & (keys.length - 1);
+            }
+            if (values[i] == 0) {
+                if ((size + 1) * 2 > keys.length) {
+                    grow();
+                    put(key, value);
+                    return;
+                }
+                keys[i] = key;
+                size++;
+            }
+            values[i] = value;
+        }
+
+        int increment(long key) {
+            int value = get(key) + 1;
+            put(key, value);
+            return value;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != 0) {
+                    int j = slot(oldKeys[i], keys.length);
+                    while (values[j] != 0) {
+                        j = (j + 1) & (keys.length - 1);
+                    }
+                    keys[j] = oldKeys[i];
+                    values[j] = oldValues[i];
+                }
+            }
+        }
+
+        private static int slot(long key, int length) {
+            return (int) (key ^ (key >>> 32)) & (length - 1);
+        }
+    }
+}
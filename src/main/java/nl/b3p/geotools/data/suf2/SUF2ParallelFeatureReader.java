@@ -0,0 +1,423 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import nl.b3p.suf2.SUF2RecordCollector;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.data.DataSourceException;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Reads a local SUF2 file with several threads. The file is split into
+ * chunks at lines starting a record with geometry (record type 03 or 05).
+ * Every chunk is read together with the header of the file by its own
+ * {@link SUF2FeatureReader}, the features are handed to the caller through
+ * bounded queues. When the order is preserved features are returned in file
+ * order, otherwise in the order they are created.
+ * <p>
+ * The chunk boundaries of recently read files are kept, so only the first
+ * reader of a file scans it for record starts, until the size or modification
+ * time of the file changes.
+ */
+public class SUF2ParallelFeatureReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
+
+    private static final Log log = LogFactory.getLog(SUF2ParallelFeatureReader.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int QUEUE_SIZE = 1024;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+    private static final Object END = new Object();
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    private static final int MAX_SPLITS = 64;
+    private static final Map<String, Split> splits = new LinkedHashMap<String, Split>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Split> eldest) {
+            return size() > MAX_SPLITS;
+        }
+    };
+    private final SimpleFeatureType resultType;
+    private final ExecutorService executor;
+    private final BlockingQueue<Object>[] queues;
+    private final int chunkCount;
+    private final int startIndex;
+    private final int maxFeatures;
+    private final SUF2ArcLinearization arcs;
+    private final GeometryFactory gf;
+    private final SUF2Statistics statistics;
+    private volatile boolean closed = false;
+    private int current = 0;
+    private IOException failure;
+    private int skipped = 0;
+    private int returned = 0;
+    private SimpleFeature feature;
+
+    public SUF2ParallelFeatureReader(File file, SimpleFeatureType ft, Query query, int threads, boolean preserveOrder) throws IOException {
+        this(file, ft, query, threads, preserveOrder, SUF2ArcLinearization.DEFAULT);
+    }
+
+    /**
+     * @param arcs how arcs are converted to line strings
+     */
+    public SUF2ParallelFeatureReader(File file, SimpleFeatureType ft, Query query, int threads, boolean preserveOrder, SUF2ArcLinearization arcs) throws IOException {
+        this(file, ft, query, threads, preserveOrder, arcs, null);
+    }
+
+    /**
+     * @param parent statistics the counters of all chunks are added to, may
+     * be null
+     */
+    public SUF2ParallelFeatureReader(File file, SimpleFeatureType ft, Query query, int threads, boolean preserveOrder, SUF2ArcLinearization arcs, SUF2Statistics parent) throws IOException {
+        this(file, ft, query, threads, preserveOrder, arcs, null, parent);
+    }
+
+    /**
+     * @param gf geometry factory for the geometries, null for the default of
+     * {@link SUF2FeatureReader}
+     */
+    public SUF2ParallelFeatureReader(File file, SimpleFeatureType ft, Query query, int threads, boolean preserveOrder, SUF2ArcLinearization arcs, GeometryFactory gf, SUF2Statistics parent) throws IOException {
+        if (query == null) {
+            query = Query.ALL;
+        }
+        if (query.getPropertyNames() == null) {
+            resultType = ft;
+        } else {
+            try {
+                resultType = SimpleFeatureTypeBuilder.retype(ft, query.getPropertyNames());
+            } catch (Exception e) {
+                throw new DataSourceException("Error creating SimpleFeatureType for query", e);
+            }
+        }
+        startIndex = query.getStartIndex() == null ? 0 : query.getStartIndex();
+        maxFeatures = query.getMaxFeatures();
+        this.arcs = arcs;
+        this.gf = gf;
+        this.statistics = new SUF2Statistics(parent);
+
+        /* offset and limit are applied to the merged features */
+        Query chunkQuery = new Query(query);
+        chunkQuery.setStartIndex(null);
+        chunkQuery.setMaxFeatures(Query.DEFAULT_MAX);
+
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, file.length() / (threads * CHUNKS_PER_THREAD));
+        Split split = getSplit(file, chunkSize);
+        List<long[]> chunks = split.chunks;
+        long[] header = split.header;
+        int firstLine = split.firstLine;
+
+        chunkCount = chunks.size();
+        queues = new BlockingQueue[preserveOrder ? Math.max(chunkCount, 1) : 1];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayBlockingQueue<Object>(QUEUE_SIZE);
+        }
+        executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, chunkCount)), new DaemonThreadFactory());
+        for (int i = 0; i < chunkCount; i++) {
+            long[] chunk = chunks.get(i);
+            SUF2FileSegments segments = new SUF2FileSegments(file, firstLine);
+            segments.add(0, header[1], firstLine, (int) header[3]);
+            segments.add(chunk[0], chunk[1], firstLine + (int) chunk[2], (int) chunk[3]);
+            executor.execute(new ChunkTask(i, segments, ft, chunkQuery, queues[preserveOrder ? i : 0]));
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * @return the chunks of about chunkSize bytes of the file, split when the
+     * file is read for the first time or has changed
+     */
+    static Split getSplit(File file, long chunkSize) throws IOException {
+        String key = file.getAbsolutePath() + "|" + chunkSize;
+        long length = file.length();
+        long lastModified = file.lastModified();
+        synchronized (splits) {
+            Split split = splits.get(key);
+            if (split != null && split.length == length && split.lastModified == lastModified) {
+                return split;
+            }
+        }
+        List<long[]> chunks = new ArrayList<long[]>();
+        long[] header = split(file, chunkSize, chunks);
+        Split split = new Split(length, lastModified, header, chunks, getFirstLine(file, header));
+        synchronized (splits) {
+            splits.put(key, split);
+        }
+        return split;
+    }
+
+    /**
+     * Split the file in chunks of about chunkSize bytes, starting at lines
+     * with record type 03 or 05.
+     *
+     * @param chunks receives {start, end, line index, line count} for every
+     * chunk
+     * @return {start, end, line index, line count} of the header, the part of
+     * the file before the first record with geometry
+     */
+    static long[] split(File file, long chunkSize, List<long[]> chunks) throws IOException {
+        long length = file.length();
+        long position = 0;
+        int line = 0;
+        long lineStart = 0;
+        int first = -1;
+        boolean atLineStart = true;
+        boolean checkRecordType = false;
+        long[] header = null;
+        long[] chunk = null;
+
+        InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                for (int i = 0; i < n; i++, position++) {
+                    byte b = buffer[i];
+                    if (atLineStart) {
+                        lineStart = position;
+                        first = b;
+                        atLineStart = false;
+                        checkRecordType = true;
+                    } else if (checkRecordType) {
+                        checkRecordType = false;
+                        if (first == '0' && (b == '3' || b == '5')) {
+                            if (header == null) {
+                                header = new long[]{0, lineStart, 0, line};
+                                chunk = new long[]{lineStart, -1, line, -1};
+                            } else if (lineStart - chunk[0] >= chunkSize) {
+                                chunk[1] = lineStart;
+                                chunk[3] = line - chunk[2];
+                                chunks.add(chunk);
+                                chunk = new long[]{lineStart, -1, line, -1};
+                            }
+                        }
+                    }
+                    if (b == '\n') {
+                        line++;
+                        atLineStart = true;
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+        if (header == null) {
+            /* no records with geometry */
+            return new long[]{0, length, 0, line};
+        }
+        chunk[1] = length;
+        chunk[3] = line - chunk[2] + (atLineStart ? 0 : 1);
+        chunks.add(chunk);
+        return header;
+    }
+
+    /**
+     * The line number the SUF2RecordCollector uses for the first line, needed
+     * to translate line numbers of chunks back to the file.
+     */
+    private static int getFirstLine(File file, long[] header) throws IOException {
+        SUF2FileSegments segments = new SUF2FileSegments(file, 1);
+        segments.add(0, header[1], 1, (int) header[3]);
+        try {
+            SUF2RecordCollector collector = new SUF2RecordCollector(segments.toURL());
+            try {
+                if (collector.hasNext()) {
+                    return collector.next().getLineNumber();
+                }
+            } finally {
+                collector.close();
+            }
+        } catch (Exception ex) {
+            log.debug("Kan eerste regelnummer niet bepalen; " + ex.getLocalizedMessage());
+        }
+        return 1;
+    }
+
+    /**
+     * @return counters of all chunks of this reader, the number of readers is
+     * the number of chunks
+     */
+    public SUF2Statistics getStatistics() {
+        return statistics;
+    }
+
+    public SimpleFeatureType getFeatureType() {
+        return resultType;
+    }
+
+    public SimpleFeature next() throws IOException, IllegalArgumentException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more features in SUF2 file");
+        }
+        SimpleFeature next = feature;
+        feature = null;
+        return next;
+    }
+
+    public boolean hasNext() throws IOException {
+        if (feature != null) {
+            return true;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (closed || returned >= maxFeatures) {
+            return false;
+        }
+        try {
+            while (current < chunkCount) {
+                Object item = queues[Math.min(current, queues.length - 1)].take();
+                if (item == END) {
+                    current++;
+                } else if (item instanceof Failure) {
+                    /* no chunk task queues anything after a failure */
+                    failure = new IOException("Fout bij parallel lezen van SUF2 bestand", ((Failure) item).exception);
+                    throw failure;
+                } else if (skipped < startIndex) {
+                    skipped++;
+                } else {
+                    feature = (SimpleFeature) item;
+                    returned++;
+                    return true;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Onderbroken bij parallel lezen van SUF2 bestand");
+        }
+        return false;
+    }
+
+    public void close() throws IOException {
+        closed = true;
+        executor.shutdownNow();
+        for (BlockingQueue<Object> queue : queues) {
+            queue.clear();
+        }
+    }
+
+    private static class Failure {
+
+        private final Throwable exception;
+
+        Failure(Throwable exception) {
+            this.exception = exception;
+        }
+    }
+
+    private class ChunkTask implements Runnable {
+
+        private final int chunk;
+        private final SUF2FileSegments segments;
+        private final SimpleFeatureType ft;
+        private final Query query;
+        private final BlockingQueue<Object> queue;
+
+        ChunkTask(int chunk, SUF2FileSegments segments, SimpleFeatureType ft, Query query, BlockingQueue<Object> queue) {
+            this.chunk = chunk;
+            this.segments = segments;
+            this.ft = ft;
+            this.query = query;
+            this.queue = queue;
+        }
+
+        /**
+         * Queues the features of the chunk followed by END or a Failure, so
+         * the consumer never waits for a chunk which stopped.
+         */
+        public void run() {
+            SUF2FeatureReader reader = null;
+            Object last = END;
+            try {
+                reader = new SUF2FeatureReader(segments, ft, query);
+                reader.setArcLinearization(arcs);
+                if (gf != null) {
+                    reader.setGeometryFactory(gf);
+                }
+                reader.setStatistics(statistics);
+                while (!closed && reader.hasNext()) {
+                    queue.put(reader.next());
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                last = null;
+            } catch (Throwable ex) {
+                if (!closed) {
+                    log.error("Fout in deel " + chunk + " van SUF2 bestand", ex);
+                }
+                last = new Failure(ex);
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException ex) {
+                        log.debug("Mogelijk probleem met sluiten van featureReader", ex);
+                    }
+                }
+                if (last != null && !closed) {
+                    try {
+                        queue.put(last);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The chunks of a file for a chunk size, valid as long as the length and
+     * modification time of the file do not change.
+     */
+    static class Split {
+
+        private final long length;
+        private final long lastModified;
+        private final long[] header;
+        private final List<long[]> chunks;
+        private final int firstLine;
+
+        Split(long length, long lastModified, long[] header, List<long[]> chunks, int firstLine) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.header = header;
+            this.chunks = Collections.unmodifiableList(chunks);
+            this.firstLine = firstLine;
+        }
+
+        List<long[]> getChunks() {
+            return chunks;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final int pool = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger number = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "suf2-reader-" + pool + "-" + number.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import nl.b3p.suf2.records.SUF2Record03;
+import nl.b3p.suf2.records.SUF2Record06;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.data.DataSourceException;
+import org.geotools.feature.simple.SimpleFeatureImpl;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.filter.identity.FeatureIdImpl;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.operation.polygonize.Polygonizer;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Builds cadastral parcel polygons from the boundary lines of a SUF2 file.
+ * Every line (record 03) and arc carries the key of the parcel on its left
+ * and right side, so the lines are grouped by parcel key instead of
+ * polygonizing all lines of the file at once. The groups are polygonized in
+ * batches by a pool of threads and get the parcel number label (record 06
+ * text with the same key) attached.
+ * <p>
+ * Only the lines of {@link #getMaxLines()} are kept in memory. A parcel never
+ * crosses a section, so a large file is read again for every group of
+ * sections which fits.
+ * <p>
+ * Parcels of which the lines do not form a closed ring, for instance at the
+ * edge of a partial file, are skipped and counted, see
+ * {@link #getIncompleteCount()}.
+ */
+public class SUF2ParcelBuilder {
+
+    private static final Log log = LogFactory.getLog(SUF2ParcelBuilder.class);
+    private static final int BATCH_SIZE = 256;
+    private static final int DEFAULT_MAX_LINES = 1000000;
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    private static final String GEOMETRY = "the_geom";
+    public static final String LABEL = "LABEL";
+    public static final String LABEL_POINT = "LABEL_POINT";
+    private static final String[] LEFT = {SUF2Record03.GEMEENTECODEPERCEELLINKS, SUF2Record03.SECTIEPERCEELLINKS,
+        SUF2Record03.INDEXLETTERPERCEELLINKS, SUF2Record03.PERCEELNUMMERLINKS, SUF2Record03.INDEXNUMMERLINKS};
+    private static final String[] RIGHT = {SUF2Record03.GEMEENTECODEPERCEELRECHTS, SUF2Record03.SECTIEPERCEELRECHTS,
+        SUF2Record03.INDEXLETTERPERCEELRECHTS, SUF2Record03.PERCEELNUMMERRECHTS, SUF2Record03.INDEXNUMMERRECHTS};
+    private static final String[] LABEL_KEY = {SUF2Record06.GEMEENTECODE, SUF2Record06.SECTIE,
+        SUF2Record06.INDEXLETTER, SUF2Record06.PERCEELNUMMER, SUF2Record06.INDEXNUMMER};
+    private final SUF2DataStore store;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int maxLines = DEFAULT_MAX_LINES;
+    private SimpleFeatureType featureType;
+    private int incomplete = 0;
+
+    /**
+     * Receives the parcels, on the thread calling
+     * {@link SUF2ParcelBuilder#build(Handler)}, in order of parcel key for
+     * every group of sections read together.
+     */
+    public interface Handler {
+
+        void parcel(SimpleFeature parcel) throws IOException;
+    }
+
+    public SUF2ParcelBuilder(SUF2DataStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Set the number of threads building polygons, the number of processors
+     * by default.
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the number of parcel boundary lines kept in memory,
+     * {@value #DEFAULT_MAX_LINES} by default. The lines of a section are
+     * always read together, when a file has more lines it is read again for
+     * the sections which did not fit.
+     */
+    public void setMaxLines(int maxLines) {
+        this.maxLines = Math.max(1, maxLines);
+    }
+
+    public int getMaxLines() {
+        return maxLines;
+    }
+
+    /**
+     * @return the number of parcels skipped by the last build because their
+     * lines do not form a polygon
+     */
+    public int getIncompleteCount() {
+        return incomplete;
+    }
+
+    /**
+     * The parcel feature type: a multipolygon, the parts of the parcel key,
+     * the text and position of its label.
+     */
+    public synchronized SimpleFeatureType getFeatureType() throws IOException {
+        if (featureType == null) {
+            SimpleFeatureType ft = store.getSchema();
+            try {
+                SimpleFeatureTypeBuilder ftb = new SimpleFeatureTypeBuilder();
+                ftb.setName(ft.getTypeName() + "_parcels");
+                ftb.setCRS(ft.getCoordinateReferenceSystem());
+                ftb.add(GEOMETRY, MultiPolygon.class);
+                for (String name : LABEL_KEY) {
+                    ftb.add(name, String.class);
+                }
+                ftb.add(LABEL, String.class);
+                ftb.add(LABEL_POINT, Point.class);
+                ftb.setDefaultGeometry(GEOMETRY);
+                featureType = ftb.buildFeatureType();
+            } catch (Exception e) {
+                throw new DataSourceException("Error creating SimpleFeatureType", e);
+            }
+        }
+        return featureType;
+    }
+
+    /**
+     * Read the file and build the parcels. The file is read once when the
+     * lines of all parcels fit in {@link #getMaxLines()}, otherwise once for
+     * every group of sections that fits.
+     *
+     * @return the number of parcels passed to the handler
+     */
+    public int build(Handler handler) throws IOException {
+        SimpleFeatureType ft = getFeatureType();
+        incomplete = 0;
+        int count = 0;
+        int passes = 0;
+        long start = System.currentTimeMillis();
+        Set<String> done = new HashSet<String>();
+        Set<String> deferred;
+        do {
+            final Map<String, Parcel> parcels = new TreeMap<String, Parcel>();
+            final Map<String, List<SimpleFeature>> labels = new HashMap<String, List<SimpleFeature>>();
+            deferred = read(done, parcels, labels);
+            passes++;
+            log.debug(parcels.size() + " percelen en " + labels.size() + " perceelnummers gelezen in " + (System.currentTimeMillis() - start) + " ms");
+            count += build(ft, parcels, labels, handler);
+        } while (!deferred.isEmpty());
+        if (incomplete > 0) {
+            log.info(incomplete + " percelen zonder gesloten grens overgeslagen");
+        }
+        log.debug(count + " percelen gemaakt in " + passes + " keer lezen in " + (System.currentTimeMillis() - start) + " ms");
+        return count;
+    }
+
+    /**
+     * Read the lines and labels of the sections which are not done yet, until
+     * {@link #getMaxLines()} lines are read. Sections seen after that are
+     * left for the next read. The sections which are read are added to done.
+     *
+     * @return the sections left for the next read
+     */
+    private Set<String> read(final Set<String> done, final Map<String, Parcel> parcels, final Map<String, List<SimpleFeature>> labels) throws IOException {
+        final Set<String> sections = new HashSet<String>();
+        final Set<String> deferred = new HashSet<String>();
+        final int[] lineCount = {0};
+        store.readLayers(Filter.INCLUDE, new SUF2Layer.Handler() {
+            private boolean accept(String key) {
+                if (key == null) {
+                    return false;
+                }
+                String section = getSection(key);
+                if (sections.contains(section)) {
+                    return true;
+                }
+                if (done.contains(section) || deferred.contains(section)) {
+                    return false;
+                }
+                if (!sections.isEmpty() && lineCount[0] >= maxLines) {
+                    deferred.add(section);
+                    return false;
+                }
+                sections.add(section);
+                return true;
+            }
+
+            public void feature(SUF2Layer layer, SimpleFeature feature) throws IOException {
+                switch (layer) {
+                    case LINES:
+                    case ARCS:
+                        LineString line = (LineString) feature.getDefaultGeometry();
+                        if (line == null || line.isEmpty()) {
+                            return;
+                        }
+                        String left = getKey(feature, LEFT);
+                        String right = getKey(feature, RIGHT);
+                        if (accept(left)) {
+                            getParcel(parcels, left, feature, LEFT).lines.add(line);
+                            lineCount[0]++;
+                        }
+                        if (accept(right)) {
+                            getParcel(parcels, right, feature, RIGHT).lines.add(line);
+                            lineCount[0]++;
+                        }
+                        break;
+                    case TEXTS:
+                        String key = getKey(feature, LABEL_KEY);
+                        if (feature.getDefaultGeometry() != null && accept(key)) {
+                            List<SimpleFeature> candidates = labels.get(key);
+                            if (candidates == null) {
+                                candidates = new ArrayList<SimpleFeature>(1);
+                                labels.put(key, candidates);
+                            }
+                            candidates.add(feature);
+                        }
+                        break;
+                    default:
+                }
+            }
+        });
+        done.addAll(sections);
+        if (!deferred.isEmpty()) {
+            log.debug(sections.size() + " secties gelezen, " + deferred.size() + " secties volgen bij de volgende keer lezen");
+        }
+        return deferred;
+    }
+
+    /**
+     * Polygonize the parcels in batches by a pool of threads and pass them to
+     * the handler in key order.
+     *
+     * @return the number of parcels passed to the handler
+     */
+    private int build(final SimpleFeatureType ft, Map<String, Parcel> parcels, Map<String, List<SimpleFeature>> labels, Handler handler) throws IOException {
+        List<List<Parcel>> batches = new ArrayList<List<Parcel>>();
+        List<Parcel> batch = null;
+        for (Parcel parcel : parcels.values()) {
+            if (batch == null || batch.size() == BATCH_SIZE) {
+                batch = new ArrayList<Parcel>(BATCH_SIZE);
+                batches.add(batch);
+            }
+            parcel.labels = labels.get(parcel.key);
+            batch.add(parcel);
+        }
+        parcels.clear();
+        labels.clear();
+
+        int count = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, batches.size())), new DaemonThreadFactory());
+        try {
+            List<Future<List<SimpleFeature>>> futures = new ArrayList<Future<List<SimpleFeature>>>(batches.size());
+            for (final List<Parcel> b : batches) {
+                futures.add(executor.submit(new Callable<List<SimpleFeature>>() {
+                    public List<SimpleFeature> call() {
+                        List<SimpleFeature> result = new ArrayList<SimpleFeature>(b.size());
+                        for (Parcel parcel : b) {
+                            result.add(parcel.build(ft));
+                            parcel.lines = null;
+                        }
+                        return result;
+                    }
+                }));
+            }
+            batches.clear();
+            for (int i = 0; i < futures.size(); i++) {
+                for (SimpleFeature parcel : futures.get(i).get()) {
+                    if (parcel == null) {
+                        incomplete++;
+                    } else {
+                        handler.parcel(parcel);
+                        count++;
+                    }
+                }
+                /* release the parcels which are handled */
+                futures.set(i, null);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Onderbroken bij maken van percelen");
+        } catch (ExecutionException ex) {
+            throw new IOException("Kan percelen niet maken: " + ex.getCause().getLocalizedMessage(), ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return count;
+    }
+
+    private static Parcel getParcel(Map<String, Parcel> parcels, String key, SimpleFeature feature, String[] attributes) {
+        Parcel parcel = parcels.get(key);
+        if (parcel == null) {
+            String[] values = new String[attributes.length];
+            for (int i = 0; i < attributes.length; i++) {
+                values[i] = normalize(feature.getAttribute(attributes[i]));
+            }
+            parcel = new Parcel(key, values);
+            parcels.put(key, parcel);
+        }
+        return parcel;
+    }
+
+    /**
+     * @return the parcel key of the attributes of a feature, or null when
+     * there is no parcel number
+     */
+    static String getKey(SimpleFeature feature, String[] attributes) {
+        String number = normalize(feature.getAttribute(attributes[3]));
+        if (number == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < attributes.length; i++) {
+            String value = normalize(feature.getAttribute(attributes[i]));
+            if (i > 0) {
+                key.append('|');
+            }
+            if (value != null) {
+                key.append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the municipality and section of a parcel key
+     */
+    static String getSection(String key) {
+        int i = key.indexOf('|');
+        i = i == -1 ? -1 : key.indexOf('|', i + 1);
+        return i == -1 ? key : key.substring(0, i);
+    }
+
+    /**
+     * A part of a parcel key as it is written in the lines and texts of the
+     * file: trimmed, in upper case and numbers without leading zeros, so
+     * "00123" in a line and "123" in a text are the same parcel number.
+     *
+     * @return the normalized value or null when it is empty
+     */
+    static String normalize(Object value) {
+        if (value == null) {
+            return null;
+        }
+        String s = value.toString().trim();
+        if (s.length() == 0) {
+            return null;
+        }
+        int zeros = 0;
+        boolean digits = true;
+        for (int i = 0; i < s.length() && digits; i++) {
+            char c = s.charAt(i);
+            digits = c >= '0' && c <= '9';
+            if (c == '0' && zeros == i) {
+                zeros++;
+            }
+        }
+        if (digits) {
+            return zeros == s.length() ? "0" : s.substring(zeros);
+        }
+        return s.toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * The boundary lines and labels of a parcel.
+     */
+    private static class Parcel {
+
+        private final String key;
+        private final String[] values;
+        /* a line with the parcel on both sides is added once */
+        private Set<LineString> lines = new LinkedHashSet<LineString>();
+        private List<SimpleFeature> labels;
+
+        Parcel(String key, String[] values) {
+            this.key = key;
+            this.values = values;
+        }
+
+        /**
+         * @return the parcel feature or null when the lines do not form a
+         * polygon
+         */
+        SimpleFeature build(SimpleFeatureType ft) {
+            Polygonizer polygonizer = new Polygonizer(true);
+            polygonizer.add((Collection) lines);
+            Collection<Polygon> polygons = polygonizer.getPolygons();
+            if (polygons.isEmpty()) {
+                log.debug("Perceel " + key + " heeft geen gesloten grens (" + lines.size() + " lijnen)");
+                return null;
+            }
+            MultiPolygon geometry = lines.iterator().next().getFactory().createMultiPolygon(polygons.toArray(new Polygon[polygons.size()]));
+
+            /* prefer a label inside the parcel when there are several */
+            SimpleFeature label = null;
+            if (labels != null) {
+                for (SimpleFeature candidate : labels) {
+                    if (label == null) {
+                        label = candidate;
+                    }
+                    if (geometry.contains((Geometry) candidate.getDefaultGeometry())) {
+                        label = candidate;
+                        break;
+                    }
+                }
+            }
+
+            Object[] attributes = new Object[ft.getAttributeCount()];
+            attributes[0] = geometry;
+            System.arraycopy(values, 0, attributes, 1, values.length);
+            if (label != null) {
+                attributes[values.length + 1] = label.getAttribute(SUF2Record06.TEKST);
+                attributes[values.length + 2] = label.getDefaultGeometry();
+            }
+            return new SimpleFeatureImpl(attributes, ft, new FeatureIdImpl(ft.getTypeName() + "." + key.replace('|', '-')), false);
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final int pool = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger number = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "suf2-parcels-" + pool + "-" + number.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+/**
+ * Reads a SUF2 file once and pushes the features to several consumers, for
+ * instance lines to one table and texts to another. A consumer receives the
+ * features of a layer (see {@link SUF2Layer}) or the flat features matching
+ * a filter. Every consumer runs in its own thread and has a bounded queue,
+ * when a queue is full reading waits for the consumer. The file is read
+ * sequentially or with several threads, as configured on the datastore.
+ * <p>
+ * Flat features are shared between the consumers receiving them and must not
+ * be modified.
+ */
+public class SUF2Pipeline {
+
+    private static final Log log = LogFactory.getLog(SUF2Pipeline.class);
+    private static final int DEFAULT_QUEUE_SIZE = 1024;
+    private static final Object END = new Object();
+    private static final AtomicInteger PIPELINE_NUMBER = new AtomicInteger();
+    private final SUF2DataStore store;
+    private final List<Worker> workers = new ArrayList<Worker>();
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private volatile Exception failure;
+
+    /**
+     * Receives the features of a pipeline in file order. All methods are
+     * called from the thread of the consumer.
+     */
+    public interface Consumer {
+
+        /**
+         * Called before the first feature with the properties of the header
+         * records of the file.
+         */
+        void start(SortedMap<String, Object> header) throws IOException;
+
+        void feature(SimpleFeature feature) throws IOException;
+
+        /**
+         * Called after the last feature when the whole file is read. Not
+         * called when reading the file or another consumer fails.
+         */
+        void end() throws IOException;
+    }
+
+    public SUF2Pipeline(SUF2DataStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Maximum number of features waiting for a consumer, default
+     * {@value #DEFAULT_QUEUE_SIZE}.
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = Math.max(1, queueSize);
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Pass the features of a layer to the consumer, with the feature type of
+     * the layer.
+     */
+    public void add(SUF2Layer layer, Consumer consumer) {
+        workers.add(new Worker(layer, null, consumer));
+    }
+
+    /**
+     * Pass the flat features matching the filter to the consumer.
+     */
+    public void add(Filter filter, Consumer consumer) {
+        workers.add(new Worker(null, filter == null ? Filter.INCLUDE : filter, consumer));
+    }
+
+    /**
+     * Read the file and wait until all consumers have handled their
+     * features. Reading stops when a consumer fails. The exception of the
+     * first failure, of reading or of a consumer, is thrown after all
+     * consumer threads have stopped.
+     *
+     * @return the number of features read
+     */
+    public int run() throws IOException {
+        if (workers.isEmpty()) {
+            return 0;
+        }
+        SortedMap<String, Object> header = Collections.unmodifiableSortedMap(store.readHeaderProperties());
+        SUF2LayerRouter router = null;
+        boolean flat = false;
+        for (Worker worker : workers) {
+            if (worker.layer != null && router == null) {
+                router = new SUF2LayerRouter(store);
+            }
+            flat |= worker.layer == null;
+        }
+
+        int pipeline = PIPELINE_NUMBER.incrementAndGet();
+        List<Thread> threads = new ArrayList<Thread>();
+        CountDownLatch handled = new CountDownLatch(workers.size());
+        for (int i = 0; i < workers.size(); i++) {
+            Worker worker = workers.get(i);
+            worker.start(header, queueSize, handled);
+            Thread t = new Thread(worker, "suf2-pipeline-" + pipeline + "-" + (i + 1));
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+
+        int count = 0;
+        boolean interrupted = false;
+        try {
+            count = read(router, flat);
+        } catch (InterruptedException ex) {
+            interrupted = true;
+        } catch (Exception ex) {
+            /* set before the end is sent, so the consumers do not end on a partly read file */
+            log.error("Fout bij lezen van " + store.getSourceFile(), ex);
+            failed(ex);
+        }
+        try {
+            if (!interrupted) {
+                for (Worker worker : workers) {
+                    worker.put(END);
+                }
+                for (Thread t : threads) {
+                    t.join();
+                }
+            }
+        } catch (InterruptedException ex) {
+            interrupted = true;
+        }
+        if (interrupted) {
+            for (Thread t : threads) {
+                t.interrupt();
+            }
+            join(threads);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Onderbroken bij verwerken van SUF2 bestand");
+        }
+        if (failure != null) {
+            throw failure instanceof IOException ? (IOException) failure : new IOException(failure.getMessage(), failure);
+        }
+        return count;
+    }
+
+    private int read(SUF2LayerRouter router, boolean flat) throws IOException, InterruptedException {
+        int count = 0;
+        /* routed features are copies, so the flat features only need to be new when consumers receive them */
+        FeatureReader<SimpleFeatureType, SimpleFeature> reader = store.createFileFeatureReader(store.getSchema(), Query.ALL, !flat);
+        try {
+            while (failure == null && reader.hasNext()) {
+                SimpleFeature f = reader.next();
+                count++;
+                SUF2Layer layer = router == null ? null : router.getLayer(f);
+                SimpleFeature routed = router == null ? null : router.route(layer, f);
+                for (Worker worker : workers) {
+                    if (worker.layer == null) {
+                        if (worker.filter.evaluate(f)) {
+                            worker.put(f);
+                        }
+                    } else if (worker.layer == layer && routed != null) {
+                        worker.put(routed);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    /**
+     * Wait for interrupted consumer threads, which stop at their next
+     * feature.
+     */
+    private static void join(List<Thread> threads) {
+        for (Thread t : threads) {
+            while (t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException ex) {
+                    /* the interrupt is restored by the caller */
+                }
+            }
+        }
+    }
+
+    private void failed(Exception ex) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = ex;
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final SUF2Layer layer;
+        private final Filter filter;
+        private final Consumer consumer;
+        private BlockingQueue<Object> queue;
+        private SortedMap<String, Object> header;
+        private CountDownLatch handled;
+
+        Worker(SUF2Layer layer, Filter filter, Consumer consumer) {
+            this.layer = layer;
+            this.filter = filter;
+            this.consumer = consumer;
+        }
+
+        void start(SortedMap<String, Object> header, int queueSize, CountDownLatch handled) {
+            this.header = header;
+            this.handled = handled;
+            this.queue = new ArrayBlockingQueue<Object>(queueSize);
+        }
+
+        void put(Object item) throws InterruptedException {
+            queue.put(item);
+        }
+
+        public void run() {
+            boolean failedConsumer = false;
+            try {
+                consumer.start(header);
+            } catch (Exception ex) {
+                log.error("Fout bij starten van consumer", ex);
+                failed(ex);
+                failedConsumer = true;
+            }
+            try {
+                Object item;
+                while ((item = queue.take()) != END) {
+                    /* after a failure the queue is emptied so reading does not block */
+                    if (failedConsumer) {
+                        continue;
+                    }
+                    try {
+                        consumer.feature((SimpleFeature) item);
+                    } catch (Exception ex) {
+                        log.error("Fout bij verwerken van feature " + ((SimpleFeature) item).getID(), ex);
+                        failed(ex);
+                        failedConsumer = true;
+                    }
+                }
+                /* a consumer only ends when all consumers have handled their features without failure */
+                handled.countDown();
+                handled.await();
+                if (!failedConsumer && failure == null) {
+                    consumer.end();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ex) {
+                log.error("Fout bij afsluiten van consumer", ex);
+                failed(ex);
+            }
+        }
+    }
+}
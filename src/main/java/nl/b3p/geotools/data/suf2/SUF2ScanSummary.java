@@ -0,0 +1,53 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.File;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Result of a full pass over a SUF2 file: the number of features and their
+ * bounds. For local files the size and modification time of the file are
+ * remembered so a cached summary can be checked against the file.
+ */
+public class SUF2ScanSummary {
+
+    private final ReferencedEnvelope bounds;
+    private final long fileLength;
+    private final long lastModified;
+    private int count = 0;
+
+    public SUF2ScanSummary(CoordinateReferenceSystem crs, File file) {
+        this.bounds = new ReferencedEnvelope(crs);
+        this.fileLength = file == null ? -1 : file.length();
+        this.lastModified = file == null ? -1 : file.lastModified();
+    }
+
+    public void add(SimpleFeature feature) {
+        count++;
+        Geometry geom = (Geometry) feature.getDefaultGeometry();
+        if (geom != null) {
+            bounds.expandToInclude(geom.getEnvelopeInternal());
+        }
+    }
+
+    /**
+     * @return true if the summary still describes the given file, always
+     * true for non-local sources
+     */
+    public boolean isValid(File file) {
+        if (file == null) {
+            return true;
+        }
+        return file.length() == fileLength && file.lastModified() == lastModified;
+    }
+
+    public ReferencedEnvelope getBounds() {
+        return new ReferencedEnvelope(bounds);
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,356 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import nl.b3p.suf2.SUF2RecordCollector;
+import nl.b3p.suf2.records.SUF2Record;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.strtree.STRtree;
+
+/**
+ * Spatial index for a local SUF2 file, stored next to the file with the
+ * extension {@value #EXTENSION}. For every record with geometry the index
+ * holds the byte range and line numbers of the record and the envelope of
+ * its coordinates, so a bounding box query only has to read the records that
+ * may intersect. The index is invalid when the size or modification time of
+ * the SUF2 file changes.
+ */
+public class SUF2SpatialIndex {
+
+    private static final Log log = LogFactory.getLog(SUF2SpatialIndex.class);
+    public static final String EXTENSION = ".qix";
+    static final int MAGIC = 0x53554632; // "SUF2"
+    static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final File file;
+    private long fileLength;
+    private long lastModified;
+    private int firstLine;
+    private long headerLength;
+    private int headerLines;
+    private int count;
+    private long[] offsets;
+    private int[] lengths;
+    private int[] lines;
+    private int[] lineCounts;
+    private double[] envelopes;
+    private STRtree tree;
+
+    private SUF2SpatialIndex(File file) {
+        this.file = file;
+    }
+
+    public static File getIndexFile(File file) {
+        return new File(file.getPath() + EXTENSION);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return true if the index still matches the SUF2 file
+     */
+    public boolean isValid() {
+        return file.length() == fileLength && file.lastModified() == lastModified;
+    }
+
+    /**
+     * @return number of records with geometry in the index
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return envelope of the coordinates of all records, arcs are included
+     * with the envelope of their full circle
+     */
+    public Envelope getBounds() {
+        Envelope bounds = new Envelope();
+        for (int i = 0; i < count; i++) {
+            bounds.expandToInclude(envelope(i));
+        }
+        return bounds;
+    }
+
+    private Envelope envelope(int i) {
+        return new Envelope(envelopes[i * 4], envelopes[i * 4 + 1], envelopes[i * 4 + 2], envelopes[i * 4 + 3]);
+    }
+
+    /**
+     * Select the header of the file and all records which may intersect the
+     * bounding box, in file order.
+     */
+    public SUF2FileSegments query(Envelope bbox) {
+        List hits = getTree().query(bbox);
+        int[] records = new int[hits.size()];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = (Integer) hits.get(i);
+        }
+        Arrays.sort(records);
+
+        SUF2FileSegments segments = new SUF2FileSegments(file, firstLine);
+        segments.add(0, headerLength, firstLine, headerLines);
+        for (int i : records) {
+            segments.add(offsets[i], offsets[i] + lengths[i], lines[i], lineCounts[i]);
+        }
+        return segments;
+    }
+
+    private synchronized STRtree getTree() {
+        if (tree == null) {
+            STRtree t = new STRtree();
+            for (int i = 0; i < count; i++) {
+                t.insert(envelope(i), i);
+            }
+            t.build();
+            tree = t;
+        }
+        return tree;
+    }
+
+    /**
+     * Read the index of a SUF2 file.
+     *
+     * @return the index or null if there is no index or the index is outdated
+     */
+    public static SUF2SpatialIndex read(File file) throws IOException {
+        File indexFile = getIndexFile(file);
+        if (!indexFile.exists()) {
+            return null;
+        }
+        SUF2SpatialIndex index = new SUF2SpatialIndex(file);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), BUFFER_SIZE));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.debug("Ongeldige spatial index: " + indexFile);
+                return null;
+            }
+            index.fileLength = in.readLong();
+            index.lastModified = in.readLong();
+            if (!index.isValid()) {
+                log.debug("Verouderde spatial index: " + indexFile);
+                return null;
+            }
+            index.firstLine = in.readInt();
+            index.headerLength = in.readLong();
+            index.headerLines = in.readInt();
+            index.allocate(in.readInt());
+            for (int i = 0; i < index.count; i++) {
+                index.offsets[i] = in.readLong();
+                index.lengths[i] = in.readInt();
+                index.lines[i] = in.readInt();
+                index.lineCounts[i] = in.readInt();
+                for (int j = 0; j < 4; j++) {
+                    index.envelopes[i * 4 + j] = in.readDouble();
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return index;
+    }
+
+    private void allocate(int size) {
+        count = size;
+        offsets = new long[size];
+        lengths = new int[size];
+        lines = new int[size];
+        lineCounts = new int[size];
+        envelopes = new double[size * 4];
+    }
+
+    /**
+     * Create the index for a SUF2 file by reading all records and write it
+     * next to the file.
+     */
+    public static SUF2SpatialIndex build(File file) throws IOException {
+        SUF2SpatialIndex index = new SUF2SpatialIndex(file);
+        index.fileLength = file.length();
+        index.lastModified = file.lastModified();
+
+        /* line numbers of all records and envelopes of records with geometry */
+        int[] recordLines = new int[1024];
+        int recordCount = 0;
+        int[] geometryRecords = new int[1024];
+        double[] geometryEnvelopes = new double[4096];
+        int geometryCount = 0;
+
+        SUF2RecordCollector collector;
+        try {
+            collector = new SUF2RecordCollector(file.toURI().toURL());
+        } catch (Exception ex) {
+            throw new IOException("Fout bij openen van " + file, ex);
+        }
+        try {
+            while (collector.hasNext()) {
+                SUF2Record record = collector.next();
+                if (recordCount == recordLines.length) {
+                    recordLines = Arrays.copyOf(recordLines, recordCount * 2);
+                }
+                recordLines[recordCount++] = record.getLineNumber();
+                if (record.hasGeometry()) {
+                    Envelope envelope;
+                    try {
+                        envelope = SUF2GeometryFactory.createEnvelope(record);
+                    } catch (Exception ex) {
+                        log.debug("Geen envelope voor record " + record.getLineNumber() + "; " + ex.getLocalizedMessage());
+                        continue;
+                    }
+                    if (envelope.isNull()) {
+                        continue;
+                    }
+                    if (geometryCount == geometryRecords.length) {
+                        geometryRecords = Arrays.copyOf(geometryRecords, geometryCount * 2);
+                        geometryEnvelopes = Arrays.copyOf(geometryEnvelopes, geometryCount * 8);
+                    }
+                    geometryRecords[geometryCount] = recordCount - 1;
+                    geometryEnvelopes[geometryCount * 4] = envelope.getMinX();
+                    geometryEnvelopes[geometryCount * 4 + 1] = envelope.getMaxX();
+                    geometryEnvelopes[geometryCount * 4 + 2] = envelope.getMinY();
+                    geometryEnvelopes[geometryCount * 4 + 3] = envelope.getMaxY();
+                    geometryCount++;
+                }
+            }
+        } catch (Exception ex) {
+            if (ex instanceof IOException && !(ex instanceof EOFException)) {
+                throw (IOException) ex;
+            } else if (!(ex instanceof EOFException)) {
+                throw new IOException("Fout bij lezen van " + file, ex);
+            }
+        } finally {
+            collector.close();
+        }
+        if (recordCount == 0) {
+            throw new IOException("Geen records gevonden in " + file);
+        }
+
+        index.firstLine = recordLines[0];
+        long[] recordOffsets = findLineOffsets(file, index.firstLine, recordLines, recordCount);
+
+        index.allocate(geometryCount);
+        index.headerLength = geometryCount > 0 ? recordOffsets[geometryRecords[0]] : index.fileLength;
+        index.headerLines = (geometryCount > 0 ? recordLines[geometryRecords[0]] : recordLines[recordCount - 1]) - index.firstLine;
+        for (int i = 0; i < geometryCount; i++) {
+            int r = geometryRecords[i];
+            long end = r + 1 < recordCount ? recordOffsets[r + 1] : index.fileLength;
+            int endLine = r + 1 < recordCount ? recordLines[r + 1] : recordLines[r] + 1;
+            index.offsets[i] = recordOffsets[r];
+            index.lengths[i] = (int) (end - recordOffsets[r]);
+            index.lines[i] = recordLines[r];
+            index.lineCounts[i] = endLine - recordLines[r];
+            System.arraycopy(geometryEnvelopes, i * 4, index.envelopes, i * 4, 4);
+        }
+        checkRecordStarts(file, index);
+        index.write();
+        return index;
+    }
+
+    /**
+     * Find the byte offsets of the given (ascending) line numbers by counting
+     * line feeds.
+     */
+    private static long[] findLineOffsets(File file, int firstLine, int[] recordLines, int recordCount) throws IOException {
+        long[] result = new long[recordCount];
+        Arrays.fill(result, file.length());
+        int next = 0;
+        int line = firstLine;
+        long position = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        InputStream in = new FileInputStream(file);
+        try {
+            while (next < recordCount && recordLines[next] <= line) {
+                result[next++] = 0;
+            }
+            int n;
+            while (next < recordCount && (n = in.read(buffer)) != -1) {
+                for (int i = 0; i < n && next < recordCount; i++) {
+                    if (buffer[i] == '\n') {
+                        line++;
+                        while (next < recordCount && recordLines[next] <= line) {
+                            result[next++] = position + i + 1;
+                        }
+                    }
+                }
+                position += n;
+            }
+        } finally {
+            in.close();
+        }
+        return result;
+    }
+
+    /**
+     * Records with geometry start with a line of record type 03 or 05. If they
+     * do not the line numbers reported by the SUF2RecordCollector can not be
+     * used to find records in this file.
+     */
+    private static void checkRecordStarts(File file, SUF2SpatialIndex index) throws IOException {
+        if (index.count == 0) {
+            return;
+        }
+        SUF2FileSegments segments = new SUF2FileSegments(file, index.firstLine);
+        int step = Math.max(1, index.count / 100);
+        for (int i = 0; i < index.count; i += step) {
+            segments.add(index.offsets[i], Math.min(index.offsets[i] + 2, index.offsets[i] + index.lengths[i]), index.lines[i], 0);
+        }
+        InputStream in = segments.openStream();
+        try {
+            int first;
+            while ((first = in.read()) != -1) {
+                int second = in.read();
+                if (first != '0' || (second != '3' && second != '5')) {
+                    throw new IOException("Records in " + file + " beginnen niet op de verwachte regels, geen spatial index gemaakt");
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void write() throws IOException {
+        File indexFile = getIndexFile(file);
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileLength);
+            out.writeLong(lastModified);
+            out.writeInt(firstLine);
+            out.writeLong(headerLength);
+            out.writeInt(headerLines);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(offsets[i]);
+                out.writeInt(lengths[i]);
+                out.writeInt(lines[i]);
+                out.writeInt(lineCounts[i]);
+                for (int j = 0; j < 4; j++) {
+                    out.writeDouble(envelopes[i * 4 + j]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (indexFile.exists() && !indexFile.delete()) {
+            throw new IOException("Kan bestaande spatial index " + indexFile + " niet vervangen");
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            throw new IOException("Kan spatial index " + indexFile + " niet schrijven");
+        }
+    }
+}
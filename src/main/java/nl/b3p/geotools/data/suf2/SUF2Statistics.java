@@ -0,0 +1,313 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Counters of reading SUF2 files. Every reader has its own statistics, which
+ * are also added to the statistics of its parent, for instance the datastore
+ * that created the reader. The counters can be updated from several threads.
+ * <p>
+ * Parse, geometry and feature times are only measured when timing is turned
+ * on, see {@link #setTiming(boolean)}. Readers take the setting of their
+ * parent when they are opened. Times are measured per reader thread, so with
+ * parallel reading their sum is larger than the elapsed time.
+ */
+public class SUF2Statistics implements SUF2StatisticsMBean {
+
+    private static final Log log = LogFactory.getLog(SUF2Statistics.class);
+    public static final String DOMAIN = "nl.b3p.geotools.data.suf2";
+
+    /**
+     * Reasons a record with geometry is not returned as feature.
+     */
+    public enum Skip {
+        /* the feature could not be created */
+        ERROR,
+        /* outside the bounding box of the query */
+        BOUNDS,
+        /* not matching the filter of the query */
+        FILTER,
+        /* before the start index of the query */
+        OFFSET,
+        /* record type or geometry does not fit a layer, see SUF2LayerRouter */
+        LAYER
+    }
+
+    private final SUF2Statistics parent;
+    private final LongAdder readers = new LongAdder();
+    private final LongAdder recordsRead = new LongAdder();
+    private final LongAdder featuresReturned = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder[] skipped = new LongAdder[Skip.values().length];
+    private final ConcurrentMap<String, LongAdder> errorsByRecordType = new ConcurrentHashMap<String, LongAdder>();
+    private final LongAdder arcsDegenerated = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder geometryNanos = new LongAdder();
+    private final LongAdder featureNanos = new LongAdder();
+    private volatile boolean timing;
+    private ObjectName objectName;
+
+    public SUF2Statistics() {
+        this(null);
+    }
+
+    public SUF2Statistics(SUF2Statistics parent) {
+        this.parent = parent;
+        this.timing = parent != null && parent.isTiming();
+        for (int i = 0; i < skipped.length; i++) {
+            skipped[i] = new LongAdder();
+        }
+    }
+
+    public SUF2Statistics getParent() {
+        return parent;
+    }
+
+    /**
+     * Measure the time spent parsing records and creating geometries and
+     * features, false by default. Only readers opened afterwards are timed.
+     */
+    public void setTiming(boolean timing) {
+        this.timing = timing;
+    }
+
+    public boolean isTiming() {
+        return timing;
+    }
+
+    void readerOpened() {
+        readers.increment();
+        if (parent != null) {
+            parent.readerOpened();
+        }
+    }
+
+    void recordRead() {
+        recordsRead.increment();
+        if (parent != null) {
+            parent.recordRead();
+        }
+    }
+
+    void recordsRead(long n) {
+        recordsRead.add(n);
+        if (parent != null) {
+            parent.recordsRead(n);
+        }
+    }
+
+    void featureReturned() {
+        featuresReturned.increment();
+        if (parent != null) {
+            parent.featureReturned();
+        }
+    }
+
+    void featuresReturned(long n) {
+        featuresReturned.add(n);
+        if (parent != null) {
+            parent.featuresReturned(n);
+        }
+    }
+
+    void bytesRead(long n) {
+        bytesRead.add(n);
+        if (parent != null) {
+            parent.bytesRead(n);
+        }
+    }
+
+    /**
+     * @param recordType description of the record type, only used for errors
+     */
+    void skipped(Skip reason, String recordType) {
+        skipped[reason.ordinal()].increment();
+        if (reason == Skip.ERROR) {
+            String key = recordType == null ? "onbekend" : recordType;
+            LongAdder count = errorsByRecordType.get(key);
+            if (count == null) {
+                LongAdder created = new LongAdder();
+                count = errorsByRecordType.putIfAbsent(key, created);
+                if (count == null) {
+                    count = created;
+                }
+            }
+            count.increment();
+        }
+        if (parent != null) {
+            parent.skipped(reason, recordType);
+        }
+    }
+
+    void arcDegenerated() {
+        arcsDegenerated.increment();
+        if (parent != null) {
+            parent.arcDegenerated();
+        }
+    }
+
+    void parseTime(long nanos) {
+        parseNanos.add(nanos);
+        if (parent != null) {
+            parent.parseTime(nanos);
+        }
+    }
+
+    void geometryTime(long nanos) {
+        geometryNanos.add(nanos);
+        if (parent != null) {
+            parent.geometryTime(nanos);
+        }
+    }
+
+    void featureTime(long nanos) {
+        featureNanos.add(nanos);
+        if (parent != null) {
+            parent.featureTime(nanos);
+        }
+    }
+
+    public long getReaders() {
+        return readers.sum();
+    }
+
+    public long getRecordsRead() {
+        return recordsRead.sum();
+    }
+
+    public long getFeaturesReturned() {
+        return featuresReturned.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getSkipped(Skip reason) {
+        return skipped[reason.ordinal()].sum();
+    }
+
+    public long getSkippedErrors() {
+        return getSkipped(Skip.ERROR);
+    }
+
+    public long getSkippedBounds() {
+        return getSkipped(Skip.BOUNDS);
+    }
+
+    public long getSkippedFilter() {
+        return getSkipped(Skip.FILTER);
+    }
+
+    public long getSkippedOffset() {
+        return getSkipped(Skip.OFFSET);
+    }
+
+    public long getSkippedLayer() {
+        return getSkipped(Skip.LAYER);
+    }
+
+    public Map<String, Long> getErrorsByRecordType() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, LongAdder> entry : errorsByRecordType.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    public long getArcsDegenerated() {
+        return arcsDegenerated.sum();
+    }
+
+    public long getParseMillis() {
+        return parseNanos.sum() / 1000000;
+    }
+
+    public long getGeometryMillis() {
+        return geometryNanos.sum() / 1000000;
+    }
+
+    public long getFeatureMillis() {
+        return featureNanos.sum() / 1000000;
+    }
+
+    /**
+     * @return records read per second of measured time
+     */
+    public double getRecordsPerSecond() {
+        long nanos = parseNanos.sum() + geometryNanos.sum() + featureNanos.sum();
+        if (nanos == 0) {
+            return 0;
+        }
+        return recordsRead.sum() * 1e9 / nanos;
+    }
+
+    /**
+     * Reset the counters, the statistics of the parent are not changed.
+     */
+    public void reset() {
+        readers.reset();
+        recordsRead.reset();
+        featuresReturned.reset();
+        bytesRead.reset();
+        for (LongAdder count : skipped) {
+            count.reset();
+        }
+        errorsByRecordType.clear();
+        arcsDegenerated.reset();
+        parseNanos.reset();
+        geometryNanos.reset();
+        featureNanos.reset();
+    }
+
+    /**
+     * Register as MBean in the platform MBean server, with the name
+     * {@value #DOMAIN}:type=SUF2Statistics,name=&lt;name&gt;.
+     */
+    public synchronized void register(String name) throws JMException {
+        if (objectName != null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName on = new ObjectName(DOMAIN + ":type=SUF2Statistics,name=" + ObjectName.quote(name));
+        if (server.isRegistered(on)) {
+            /* another datastore for the same file */
+            on = new ObjectName(DOMAIN + ":type=SUF2Statistics,name=" + ObjectName.quote(name)
+                    + ",id=" + Integer.toHexString(System.identityHashCode(this)));
+        }
+        server.registerMBean(this, on);
+        objectName = on;
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException ex) {
+            log.debug("Fout bij afmelden van MBean " + objectName, ex);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public String toString() {
+        return "records: " + getRecordsRead()
+                + ", features: " + getFeaturesReturned()
+                + ", bytes: " + getBytesRead()
+                + ", fouten: " + getSkippedErrors()
+                + ", bogen als lijn: " + getArcsDegenerated()
+                + ", parse/geometrie/feature ms: " + getParseMillis() + "/" + getGeometryMillis() + "/" + getFeatureMillis();
+    }
+}
@@ -0,0 +1,51 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.util.Map;
+
+/**
+ * JMX interface of {@link SUF2Statistics}.
+ */
+public interface SUF2StatisticsMBean {
+
+    long getReaders();
+
+    long getRecordsRead();
+
+    long getFeaturesReturned();
+
+    long getBytesRead();
+
+    long getSkippedErrors();
+
+    long getSkippedBounds();
+
+    long getSkippedFilter();
+
+    long getSkippedOffset();
+
+    /**
+     * @return flat features which could not be passed to a layer
+     */
+    long getSkippedLayer();
+
+    /**
+     * @return records skipped because of an error, by record type
+     */
+    Map<String, Long> getErrorsByRecordType();
+
+    long getArcsDegenerated();
+
+    long getParseMillis();
+
+    long getGeometryMillis();
+
+    long getFeatureMillis();
+
+    double getRecordsPerSecond();
+
+    boolean isTiming();
+
+    void setTiming(boolean timing);
+
+    void reset();
+}
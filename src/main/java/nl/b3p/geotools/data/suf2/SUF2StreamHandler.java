@@ -0,0 +1,51 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+
+/**
+ * The SUF2RecordCollector only reads from an URL. This handler creates an URL
+ * that reads from a stream supplied by the datastore, for instance a
+ * selection of records from a local file.
+ */
+class SUF2StreamHandler extends URLStreamHandler {
+
+    interface StreamSource {
+
+        InputStream openStream() throws IOException;
+    }
+
+    private final StreamSource source;
+
+    private SUF2StreamHandler(StreamSource source) {
+        this.source = source;
+    }
+
+    /**
+     * @param url the url of the original file, used as the external form of
+     * the created url
+     */
+    static URL createURL(URL url, StreamSource source) throws MalformedURLException {
+        return new URL(null, url.toExternalForm(), new SUF2StreamHandler(source));
+    }
+
+    @Override
+    protected URLConnection openConnection(URL u) throws IOException {
+        return new URLConnection(u) {
+            @Override
+            public void connect() throws IOException {
+                connected = true;
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                connect();
+                return source.openStream();
+            }
+        };
+    }
+}
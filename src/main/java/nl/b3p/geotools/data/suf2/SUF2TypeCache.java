@@ -0,0 +1,144 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.data.DataSourceException;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Process wide cache of decoded coordinate reference systems and of the
+ * feature types built for a (type name, srs) combination, shared by all
+ * readers and datastores. Both caches are bounded and evict the least
+ * recently used entry. Failed decodes are not cached.
+ * <p>
+ * Setting the system property {@value #WARM_UP_PROPERTY} to a comma separated
+ * list of srs codes (or {@code true} for {@value #DEFAULT_SRS}) decodes those
+ * codes in a background thread when the datastore factory is loaded, so the
+ * first request does not have to wait for the EPSG database to start.
+ */
+public class SUF2TypeCache {
+
+    private static final Log log = LogFactory.getLog(SUF2TypeCache.class);
+    public static final String WARM_UP_PROPERTY = "nl.b3p.geotools.data.suf2.warmup";
+    public static final String DEFAULT_SRS = "EPSG:28992";
+    private static final int MAX_CRS = 32;
+    private static final int MAX_FEATURE_TYPES = 256;
+    private static final Map<String, CoordinateReferenceSystem> crsCache = new LruMap<String, CoordinateReferenceSystem>(MAX_CRS);
+    private static final Map<String, SimpleFeatureType> featureTypeCache = new LruMap<String, SimpleFeatureType>(MAX_FEATURE_TYPES);
+
+    private SUF2TypeCache() {
+    }
+
+    /**
+     * @return the decoded srs, or null when srs is null
+     */
+    public static CoordinateReferenceSystem getCRS(String srs) throws FactoryException {
+        if (srs == null) {
+            return null;
+        }
+        CoordinateReferenceSystem crs;
+        synchronized (crsCache) {
+            crs = crsCache.get(srs);
+        }
+        if (crs == null) {
+            /* decode outside the lock, decoding the same srs twice is harmless */
+            crs = CRS.decode(srs);
+            synchronized (crsCache) {
+                crsCache.put(srs, crs);
+            }
+        }
+        return crs;
+    }
+
+    /**
+     * @return the feature type for SUF2 files with the given type name and
+     * coordinate reference system
+     */
+    public static SimpleFeatureType getFeatureType(String typeName, String srs) throws DataSourceException {
+        return getFeatureType(typeName, srs, null);
+    }
+
+    /**
+     * @return the feature type of a layer for SUF2 files with the given type
+     * name and coordinate reference system, the flat type when layer is null
+     */
+    public static SimpleFeatureType getFeatureType(String typeName, String srs, SUF2Layer layer) throws DataSourceException {
+        String key = typeName + "\u0000" + srs + "\u0000" + layer;
+        SimpleFeatureType ft;
+        synchronized (featureTypeCache) {
+            ft = featureTypeCache.get(key);
+        }
+        if (ft == null) {
+            CoordinateReferenceSystem crs;
+            try {
+                crs = getCRS(srs);
+            } catch (Exception e) {
+                throw new DataSourceException("Error parsing CoordinateSystem srs: \"" + srs + "\"");
+            }
+            ft = SUF2FeatureReader.buildFeatureType(typeName, crs, layer);
+            synchronized (featureTypeCache) {
+                featureTypeCache.put(key, ft);
+            }
+        }
+        return ft;
+    }
+
+    public static void clear() {
+        synchronized (crsCache) {
+            crsCache.clear();
+        }
+        synchronized (featureTypeCache) {
+            featureTypeCache.clear();
+        }
+    }
+
+    /**
+     * Decode the srs codes of system property {@value #WARM_UP_PROPERTY} in a
+     * background thread, does nothing when the property is not set.
+     */
+    static void warmUp() {
+        String property = System.getProperty(WARM_UP_PROPERTY);
+        if (property == null || property.trim().length() == 0 || property.equalsIgnoreCase("false")) {
+            return;
+        }
+        final String codes = property.equalsIgnoreCase("true") ? DEFAULT_SRS : property;
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                for (String srs : codes.split(",")) {
+                    srs = srs.trim();
+                    if (srs.length() == 0) {
+                        continue;
+                    }
+                    try {
+                        getCRS(srs);
+                        log.debug("Coordinatenstelsel " + srs + " voorgeladen");
+                    } catch (Exception ex) {
+                        log.warn("Kan coordinatenstelsel " + srs + " niet voorladen: " + ex.getLocalizedMessage());
+                    }
+                }
+            }
+        }, "suf2-crs-warmup");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+        private final int maxSize;
+
+        LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Test files in src/test/resources, copied to a temporary directory so
+ * sidecar files can be written next to them, and a datastore of features in
+ * memory.
+ */
+class Fixtures {
+
+    /**
+     * The fixture small.nen: a header of two lines followed by three records
+     * of three lines each, a line (lines 3-5), a text (lines 6-8) and a line
+     * (lines 9-11). Every line is {@value #LINE_LENGTH} bytes.
+     */
+    static final String SMALL = "small.nen";
+    static final int LINE_LENGTH = 65;
+    /**
+     * The feature ids of the records of small.nen, the type name and the
+     * line number of the first line of the record.
+     */
+    static final List<String> SMALL_IDS = Arrays.asList("small.3", "small.6", "small.9");
+
+    private Fixtures() {
+    }
+
+    static byte[] read(String name) throws IOException {
+        InputStream in = Fixtures.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Testbestand niet gevonden: " + name);
+        }
+        try {
+            return readFully(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    static File copy(String name, File dir) throws IOException {
+        File file = new File(dir, name);
+        write(file, read(name));
+        return file;
+    }
+
+    static void write(File file, byte[] content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read all features and close the reader.
+     */
+    static List<SimpleFeature> readAll(FeatureReader<SimpleFeatureType, SimpleFeature> reader) throws IOException {
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        try {
+            while (reader.hasNext()) {
+                features.add(reader.next());
+            }
+        } finally {
+            reader.close();
+        }
+        return features;
+    }
+
+    static List<String> ids(List<SimpleFeature> features) {
+        List<String> ids = new ArrayList<String>(features.size());
+        for (SimpleFeature feature : features) {
+            ids.add(feature.getID());
+        }
+        return ids;
+    }
+
+    static File createDirectory() throws IOException {
+        return Files.createTempDirectory("suf2").toFile();
+    }
+
+    static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    delete(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Datastore of features in memory instead of a file, for the code on top
+     * of the file readers. Every file reader returns the features, optionally
+     * after a delay or failing after a number of features.
+     */
+    static class ListDataStore extends SUF2DataStore {
+
+        private final SimpleFeatureType ft;
+        private final List<SimpleFeature> features;
+        private long delay = 0;
+        private int failAfter = -1;
+        private Throwable failure;
+        private int readers = 0;
+
+        ListDataStore(String name, SimpleFeatureType ft, List<SimpleFeature> features) throws IOException {
+            super(new URL("file:/" + name + ".nen"), null);
+            this.ft = ft;
+            this.features = features;
+        }
+
+        /**
+         * Wait before the first feature of a reader.
+         */
+        ListDataStore delay(long delay) {
+            this.delay = delay;
+            return this;
+        }
+
+        /**
+         * Throw an IOException "afgebroken bestand" after count features.
+         */
+        ListDataStore failAfter(int count) {
+            return failAfter(count, new IOException("afgebroken bestand"));
+        }
+
+        /**
+         * Throw an IOException, RuntimeException or Error after count
+         * features.
+         */
+        ListDataStore failAfter(int count, Throwable failure) {
+            this.failAfter = count;
+            this.failure = failure;
+            return this;
+        }
+
+        /**
+         * @return the number of readers opened
+         */
+        int getReaders() {
+            return readers;
+        }
+
+        @Override
+        public synchronized SimpleFeatureType getSchema() {
+            return ft;
+        }
+
+        @Override
+        SortedMap<String, Object> readHeaderProperties() {
+            return new TreeMap<String, Object>();
+        }
+
+        @Override
+        FeatureReader<SimpleFeatureType, SimpleFeature> createFileFeatureReader(SimpleFeatureType ft, Query query, boolean reuseFeatures) {
+            return new Reader();
+        }
+
+        @Override
+        FeatureReader<SimpleFeatureType, SimpleFeature> createRecordFeatureReader() {
+            return new Reader();
+        }
+
+        private class Reader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
+
+            private final Iterator<SimpleFeature> iterator = features.iterator();
+            private int read = 0;
+
+            Reader() {
+                readers++;
+            }
+
+            public SimpleFeatureType getFeatureType() {
+                return ft;
+            }
+
+            public SimpleFeature next() {
+                read++;
+                return iterator.next();
+            }
+
+            public boolean hasNext() throws IOException {
+                if (read == 0 && delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (read == failAfter) {
+                    if (failure instanceof IOException) {
+                        throw (IOException) failure;
+                    } else if (failure instanceof Error) {
+                        throw (Error) failure;
+                    }
+                    throw (RuntimeException) failure;
+                }
+                return iterator.hasNext();
+            }
+
+            public void close() {
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.geotools.data.FeatureReader;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Reader of features in memory, for tests.
+ */
+class ListFeatureReader implements FeatureReader<SimpleFeatureType, SimpleFeature> {
+
+    private final SimpleFeatureType ft;
+    private final Iterator<SimpleFeature> iterator;
+
+    ListFeatureReader(SimpleFeatureType ft, List<SimpleFeature> features) {
+        this.ft = ft;
+        this.iterator = features.iterator();
+    }
+
+    public SimpleFeatureType getFeatureType() {
+        return ft;
+    }
+
+    public SimpleFeature next() throws NoSuchElementException {
+        return iterator.next();
+    }
+
+    public boolean hasNext() {
+        return iterator.hasNext();
+    }
+
+    public void close() {
+    }
+}
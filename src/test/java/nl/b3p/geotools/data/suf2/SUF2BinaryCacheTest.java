@@ -0,0 +1,178 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import nl.b3p.suf2.records.SUF2Record;
+import nl.b3p.suf2.records.SUF2Record06;
+import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SUF2BinaryCacheTest {
+
+    private final GeometryFactory gf = new GeometryFactory();
+    private SimpleFeatureType ft;
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        ft = SUF2FeatureReader.createFeatureType("test", null);
+        dir = Fixtures.createDirectory();
+        file = Fixtures.copy(Fixtures.SMALL, dir);
+    }
+
+    @After
+    public void tearDown() {
+        Fixtures.delete(dir);
+    }
+
+    @Test
+    public void testHeader() throws Exception {
+        SUF2BinaryCache.write(file, SUF2ArcLinearization.DEFAULT, new ListFeatureReader(ft, features()));
+        DataInputStream in = new DataInputStream(new FileInputStream(SUF2BinaryCache.getCacheFile(file)));
+        try {
+            Object[][] attributes = SUF2BinaryCache.readHeader(in, file, SUF2ArcLinearization.DEFAULT);
+            assertEquals(ft.getAttributeCount(), attributes.length);
+            for (int i = 0; i < attributes.length; i++) {
+                assertEquals(ft.getDescriptor(i).getLocalName(), attributes[i][0]);
+            }
+            assertEquals(SUF2BinaryCache.GEOMETRY, attributes[ft.indexOf(ft.getGeometryDescriptor().getLocalName())][1]);
+            assertEquals(SUF2BinaryCache.DOUBLE, attributes[ft.indexOf(SUF2Record.ANGLE)][1]);
+            assertEquals(SUF2BinaryCache.INTEGER, attributes[ft.indexOf(SUF2Record.ID)][1]);
+            assertEquals(SUF2BinaryCache.STRING, attributes[ft.indexOf(SUF2Record06.TEKST)][1]);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        List<SimpleFeature> features = features();
+        SUF2BinaryCache.write(file, SUF2ArcLinearization.DEFAULT, new ListFeatureReader(ft, features));
+        assertTrue(SUF2BinaryCache.isValid(file, SUF2ArcLinearization.DEFAULT));
+        assertFalse(SUF2BinaryCache.isValid(file, SUF2ArcLinearization.bySegments(8)));
+
+        List<SimpleFeature> read = read(Query.ALL, null);
+        assertEquals(features.size(), read.size());
+        for (int i = 0; i < features.size(); i++) {
+            SimpleFeature expected = features.get(i);
+            SimpleFeature f = read.get(i);
+            assertEquals("test." + expected.getAttribute(SUF2Record.ID), f.getID());
+            for (int j = 0; j < ft.getAttributeCount(); j++) {
+                Object value = expected.getAttribute(j);
+                if (value instanceof Geometry) {
+                    assertTrue(((Geometry) value).equalsExact((Geometry) f.getAttribute(j)));
+                } else {
+                    assertEquals(value, f.getAttribute(j));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBoundingBoxSkipsRecords() throws Exception {
+        SUF2BinaryCache.write(file, SUF2ArcLinearization.DEFAULT, new ListFeatureReader(ft, features()));
+        Query query = new Query("test", CommonFactoryFinder.getFilterFactory2().bbox(
+                ft.getGeometryDescriptor().getLocalName(), 90, 90, 110, 110, null));
+        SUF2Statistics statistics = new SUF2Statistics();
+        List<SimpleFeature> read = read(query, statistics);
+        assertEquals(1, read.size());
+        assertEquals("test.9", read.get(0).getID());
+        /* the records outside the box and the one without geometry are not decoded */
+        assertEquals(3, statistics.getSkippedBounds());
+        assertEquals(0, statistics.getSkippedFilter());
+    }
+
+    @Test
+    public void testGeometryOutsideLayer() throws Exception {
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>(features());
+        /* a text with a line as geometry does not fit the layer of texts */
+        features.add(feature(13, "TEXT", gf.createLineString(new Coordinate[]{new Coordinate(0, 0), new Coordinate(1, 1)}), "5678", null));
+        SUF2BinaryCache.write(file, SUF2ArcLinearization.DEFAULT, new ListFeatureReader(ft, features));
+        SUF2Statistics statistics = new SUF2Statistics();
+        SUF2BinaryFeatureReader reader = new SUF2BinaryFeatureReader(file, SUF2ArcLinearization.DEFAULT,
+                SUF2FeatureReader.createFeatureType("test", null, SUF2Layer.TEXTS), Query.ALL, gf, statistics);
+        List<SimpleFeature> read = Fixtures.readAll(reader);
+        assertEquals(1, read.size());
+        assertEquals("1234", read.get(0).getAttribute(SUF2Record06.TEKST));
+        assertEquals(1, statistics.getSkippedLayer());
+        assertEquals(0, statistics.getSkippedErrors());
+    }
+
+    @Test
+    public void testChangedFile() throws Exception {
+        SUF2BinaryCache.write(file, SUF2ArcLinearization.DEFAULT, new ListFeatureReader(ft, features()));
+        Fixtures.write(file, Arrays.copyOf(Fixtures.read(Fixtures.SMALL), 2 * Fixtures.LINE_LENGTH));
+        assertFalse(SUF2BinaryCache.isValid(file, SUF2ArcLinearization.DEFAULT));
+        try {
+            read(Query.ALL, null);
+            fail("Verouderde binaire cache gelezen");
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void testCurvedArcs() throws Exception {
+        try {
+            SUF2BinaryCache.write(file, SUF2ArcLinearization.DEFAULT.curved(), new ListFeatureReader(ft, features()));
+            fail("Binaire cache geschreven voor circular strings");
+        } catch (IOException e) {
+        }
+        assertFalse(SUF2BinaryCache.getCacheFile(file).exists());
+    }
+
+    private List<SimpleFeature> read(Query query, SUF2Statistics statistics) throws IOException {
+        SUF2BinaryFeatureReader reader = new SUF2BinaryFeatureReader(file, SUF2ArcLinearization.DEFAULT, ft, query, gf, statistics);
+        try {
+            List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+            while (reader.hasNext()) {
+                features.add(reader.next());
+            }
+            return features;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * A line, a text and a line far away like the records of small.nen, and
+     * a record without geometry.
+     */
+    private List<SimpleFeature> features() {
+        return Arrays.asList(
+                feature(3, "LINE", gf.createLineString(new Coordinate[]{new Coordinate(0, 0), new Coordinate(20, 0)}), null, null),
+                feature(6, "TEXT", gf.createPoint(new Coordinate(10, 10)), "1234", 0.5),
+                feature(9, "LINE", gf.createLineString(new Coordinate[]{new Coordinate(95, 99), new Coordinate(105, 99)}), null, null),
+                feature(12, "LINE", null, null, null));
+    }
+
+    private SimpleFeature feature(int line, String type, Geometry geometry, String text, Double angle) {
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(ft);
+        builder.set(ft.getGeometryDescriptor().getLocalName(), geometry);
+        builder.set(SUF2FeatureReader.TYPE, type);
+        builder.set(SUF2Record06.TEKST, text);
+        builder.set(SUF2Record.ANGLE, angle);
+        builder.set(SUF2Record.ID, line);
+        return builder.buildFeature("test." + line);
+    }
+}
@@ -0,0 +1,125 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.geotools.data.Query;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SUF2DataStoreTest {
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Fixtures.createDirectory();
+        file = Fixtures.copy(Fixtures.SMALL, dir);
+    }
+
+    @After
+    public void tearDown() {
+        Fixtures.delete(dir);
+    }
+
+    @Test
+    public void testFeatureIds() throws Exception {
+        SUF2DataStore store = new SUF2DataStore(file.toURI().toURL(), null);
+        try {
+            assertEquals(Fixtures.SMALL_IDS, Fixtures.ids(Fixtures.readAll(store.createFeatureReader(Query.ALL))));
+
+            /* the same ids when the file is read in parallel */
+            store.setThreads(2);
+            assertEquals(Fixtures.SMALL_IDS, Fixtures.ids(Fixtures.readAll(store.createFeatureReader(Query.ALL))));
+
+            /* and when only a part is read, the second feature is the first of the page */
+            Query query = new Query(store.getSchema().getTypeName());
+            query.setStartIndex(1);
+            assertEquals(Fixtures.SMALL_IDS.subList(1, 3), Fixtures.ids(Fixtures.readAll(store.createFeatureReader(query))));
+        } finally {
+            store.dispose();
+        }
+    }
+
+    @Test
+    public void testFeatureIdsOfStream() throws Exception {
+        File gz = gzip(Fixtures.read(Fixtures.SMALL));
+        SUF2DataStore store = new SUF2DataStore(gz.toURI().toURL(), null);
+        try {
+            assertEquals(Fixtures.SMALL_IDS, Fixtures.ids(Fixtures.readAll(store.createFeatureReader(Query.ALL))));
+        } finally {
+            store.dispose();
+        }
+    }
+
+    @Test
+    public void testHeaderOfChangedStream() throws Exception {
+        File gz = gzip(Fixtures.read(Fixtures.SMALL));
+        SUF2DataStore store = new SUF2DataStore(gz.toURI().toURL(), null);
+        try {
+            assertEquals(3, store.getSummary().getCount());
+            SUF2Header header = store.getHeader();
+            assertTrue(header.isExact());
+            assertEquals(3, header.getCount());
+
+            /* the summary of the old file is not used for the new one */
+            byte[] small = Fixtures.read(Fixtures.SMALL);
+            byte[] larger = Arrays.copyOf(small, small.length + 3 * Fixtures.LINE_LENGTH);
+            System.arraycopy(small, small.length - 3 * Fixtures.LINE_LENGTH, larger, small.length, 3 * Fixtures.LINE_LENGTH);
+            gzip(larger);
+            assertFalse(store.getHeader().isExact());
+            assertEquals(4, store.getSummary().getCount());
+        } finally {
+            store.dispose();
+        }
+    }
+
+    @Test
+    public void testLayers() throws Exception {
+        SUF2DataStore store = new SUF2DataStore(file.toURI().toURL(), null);
+        store.setSplitSchema(true);
+        try {
+            List<SimpleFeature> lines = Fixtures.readAll(store.createFeatureReader(store.getSchema(SUF2Layer.LINES), Query.ALL));
+            assertEquals(Arrays.asList("small_lines.3", "small_lines.9"), Fixtures.ids(lines));
+            assertEquals(store.getSchema(SUF2Layer.LINES), lines.get(0).getFeatureType());
+            assertEquals(Arrays.asList("small_texts.6"),
+                    Fixtures.ids(Fixtures.readAll(store.createFeatureReader(store.getSchema(SUF2Layer.TEXTS), Query.ALL))));
+
+            /* a single pass routes the flat features to the same layers and ids */
+            final List<String> routed = new ArrayList<String>();
+            assertEquals(3, store.readLayers(Filter.INCLUDE, new SUF2Layer.Handler() {
+                public void feature(SUF2Layer layer, SimpleFeature feature) {
+                    routed.add(layer + " " + feature.getID());
+                }
+            }));
+            assertEquals(Arrays.asList("LINES small_lines.3", "TEXTS small_texts.6", "LINES small_lines.9"), routed);
+            assertEquals(0, store.getStatistics().getSkippedLayer());
+        } finally {
+            store.dispose();
+        }
+    }
+
+    private File gzip(byte[] content) throws IOException {
+        File gz = new File(dir, Fixtures.SMALL + ".gz");
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(gz));
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return gz;
+    }
+}
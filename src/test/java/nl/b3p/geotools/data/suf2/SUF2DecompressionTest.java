@@ -0,0 +1,157 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SUF2DecompressionTest {
+
+    private File dir;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Fixtures.createDirectory();
+        /* several blocks of the background thread */
+        byte[] small = Fixtures.read(Fixtures.SMALL);
+        content = new byte[SUF2Decompression.BLOCK_SIZE * 2 + small.length];
+        for (int i = 0; i < content.length; i += small.length) {
+            System.arraycopy(small, 0, content, i, Math.min(small.length, content.length - i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        Fixtures.delete(dir);
+    }
+
+    @Test
+    public void testNames() {
+        assertTrue(SUF2Decompression.isCompressed("kaart.NEN.GZ"));
+        assertTrue(SUF2Decompression.isCompressed("kaart.zip"));
+        assertFalse(SUF2Decompression.isCompressed("kaart.nen"));
+        assertEquals("kaart.nen", SUF2Decompression.stripExtension("kaart.nen.gz"));
+        assertEquals("kaart", SUF2Decompression.stripExtension("kaart.ZIP"));
+        assertEquals("kaart.sfn", SUF2Decompression.stripExtension("kaart.sfn"));
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        assertArrayEquals(content, read(SUF2Decompression.decompress(new ByteArrayInputStream(gzip(content)), "kaart.nen.gz")));
+    }
+
+    @Test
+    public void testZip() throws Exception {
+        byte[] zip = zip("leesmij.txt", "geen SUF2".getBytes("US-ASCII"), "kaart.nen", content);
+        assertArrayEquals(content, read(SUF2Decompression.decompress(new ByteArrayInputStream(zip), "kaart.zip")));
+
+        File file = new File(dir, "kaart.zip");
+        Fixtures.write(file, zip);
+        assertTrue(SUF2Decompression.containsSUF2(file));
+        SUF2DataStoreFactory factory = new SUF2DataStoreFactory();
+        assertTrue(factory.canProcess(file.toURI().toURL()));
+        Fixtures.write(file, zip("leesmij.txt", content));
+        assertFalse(SUF2Decompression.containsSUF2(file));
+        assertFalse(factory.canProcess(file.toURI().toURL()));
+
+        /* the content of a remote zip file is unknown, only its name counts */
+        assertTrue(factory.canProcess(new URL("http://localhost/kaart.nen.zip")));
+        assertFalse(factory.canProcess(new URL("http://localhost/kaart.zip")));
+    }
+
+    @Test
+    public void testZipWithoutSUF2File() throws Exception {
+        try {
+            SUF2Decompression.decompress(new ByteArrayInputStream(zip("leesmij.txt", content)), "kaart.zip");
+            fail("Zip bestand zonder SUF2 bestand gelezen");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Geen SUF2 bestand"));
+        }
+    }
+
+    @Test
+    public void testTruncatedGzip() throws Exception {
+        byte[] gzip = gzip(content);
+        InputStream in = SUF2Decompression.decompress(new ByteArrayInputStream(Arrays.copyOf(gzip, gzip.length / 2)), "kaart.nen.gz");
+        try {
+            read(in);
+            fail("Afgebroken gzip bestand gelezen");
+        } catch (IOException e) {
+            /* the error of the background thread is passed to the reader */
+            assertTrue(e.getMessage().contains("kaart.nen.gz"));
+            assertNotNull(e.getCause());
+        }
+    }
+
+    @Test
+    public void testCloseBeforeEnd() throws Exception {
+        InputStream in = SUF2Decompression.decompress(new ByteArrayInputStream(gzip(content)), "kaart.nen.gz");
+        assertEquals(content[0], (byte) in.read());
+        in.close();
+        try {
+            in.read();
+            fail("Gesloten stream gelezen");
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void testURL() throws Exception {
+        File file = new File(dir, "kaart.nen.gz");
+        Fixtures.write(file, gzip(content));
+        URL url = SUF2Decompression.toURL(file.toURI().toURL());
+        assertArrayEquals(content, read(url.openStream()));
+
+        URL plain = new File(dir, "kaart.nen").toURI().toURL();
+        assertSame(plain, SUF2Decompression.toURL(plain));
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try {
+            return Fixtures.readFully(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(content);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param entries name and content of every entry
+     */
+    private static byte[] zip(Object... entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(bytes);
+        for (int i = 0; i < entries.length; i += 2) {
+            out.putNextEntry(new ZipEntry((String) entries[i]));
+            out.write((byte[]) entries[i + 1]);
+            out.closeEntry();
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,127 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.geotools.data.Query;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SUF2DirectoryFeatureReaderTest {
+
+    private SimpleFeatureType ft;
+
+    @Before
+    public void setUp() throws Exception {
+        ft = SUF2FeatureReader.createFeatureType("kaarten", null);
+    }
+
+    @Test
+    public void testFileOrder() throws Exception {
+        /* the first file is the slowest, features are still returned in file order */
+        List<SUF2DataStore> stores = Arrays.<SUF2DataStore>asList(
+                store("a", 200, 3, 6, 9),
+                store("b", 0, 3, 6),
+                store("c", 0),
+                store("d", 0, 3));
+        assertEquals(Arrays.asList("a.3", "a.6", "a.9", "b.3", "b.6", "d.3"), read(stores, Query.ALL, 4));
+        assertEquals(Arrays.asList("a.3", "a.6", "a.9", "b.3", "b.6", "d.3"), read(stores, Query.ALL, 1));
+    }
+
+    @Test
+    public void testOffsetAndLimit() throws Exception {
+        List<SUF2DataStore> stores = Arrays.<SUF2DataStore>asList(
+                store("a", 0, 3, 6, 9),
+                store("b", 0, 3, 6));
+        Query query = new Query("kaarten");
+        query.setStartIndex(2);
+        query.setMaxFeatures(2);
+        assertEquals(Arrays.asList("a.9", "b.3"), read(stores, query, 2));
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        List<SUF2DataStore> stores = Arrays.<SUF2DataStore>asList(
+                store("a", 0, 3, 6),
+                store("b", 0, 3).failAfter(1, new AssertionError("afgebroken bestand")));
+        SUF2DirectoryFeatureReader reader = new SUF2DirectoryFeatureReader(stores, ft, Query.ALL, 2);
+        try {
+            assertEquals("a.3", reader.next().getID());
+            assertEquals("a.6", reader.next().getID());
+            assertEquals("b.3", reader.next().getID());
+            for (int i = 0; i < 2; i++) {
+                try {
+                    reader.hasNext();
+                    fail("Fout bij lezen niet doorgegeven");
+                } catch (IOException e) {
+                    assertTrue(e.getMessage().contains("b.nen"));
+                    /* an Error of a file must also end the file */
+                    assertTrue(e.getCause() instanceof AssertionError);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testFilesOfDirectory() throws Exception {
+        File dir = Fixtures.createDirectory();
+        try {
+            Fixtures.write(new File(dir, "b.nen"), Fixtures.read(Fixtures.SMALL));
+            Fixtures.write(new File(dir, "a.nen"), Fixtures.read(Fixtures.SMALL));
+            Fixtures.write(new File(dir, "leesmij.txt"), "geen SUF2".getBytes("US-ASCII"));
+            SUF2DirectoryDataStore directory = new SUF2DirectoryDataStore(dir, "*.nen", null, null);
+            try {
+                List<SUF2DataStore> stores = new ArrayList<SUF2DataStore>();
+                for (File file : directory.getFiles()) {
+                    stores.add(directory.getDataStore(file));
+                }
+                assertEquals(2, stores.size());
+                List<SimpleFeature> features = Fixtures.readAll(new SUF2DirectoryFeatureReader(stores, directory.getSchema(), Query.ALL, 2));
+                assertEquals(Arrays.asList("a.3", "a.6", "a.9", "b.3", "b.6", "b.9"), Fixtures.ids(features));
+                assertEquals(directory.getSchema(), features.get(0).getFeatureType());
+            } finally {
+                directory.dispose();
+            }
+        } finally {
+            Fixtures.delete(dir);
+        }
+    }
+
+    private List<String> read(List<SUF2DataStore> stores, Query query, int threads) throws IOException {
+        SUF2DirectoryFeatureReader reader = new SUF2DirectoryFeatureReader(stores, ft, query, threads);
+        try {
+            List<String> ids = new ArrayList<String>();
+            while (reader.hasNext()) {
+                ids.add(reader.next().getID());
+            }
+            return ids;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Datastore of a file with features on the given lines, optionally slow
+     * to start.
+     */
+    private Fixtures.ListDataStore store(String name, long delay, int... lines) throws IOException {
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        for (int line : lines) {
+            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(ft);
+            builder.set(SUF2FeatureReader.TYPE, "LINE");
+            features.add(builder.buildFeature(name + "." + line));
+        }
+        return new Fixtures.ListDataStore(name, ft, features).delay(delay);
+    }
+}
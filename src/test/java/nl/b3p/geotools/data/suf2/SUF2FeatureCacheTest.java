@@ -0,0 +1,142 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.geotools.data.FeatureReader;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SUF2FeatureCacheTest {
+
+    private SimpleFeatureType ft;
+
+    @Before
+    public void setUp() throws Exception {
+        ft = SUF2FeatureReader.createFeatureType("test", null);
+    }
+
+    @Test
+    public void testInvalidatedByVersion() throws Exception {
+        SUF2FeatureCache cache = new SUF2FeatureCache(1024 * 1024);
+        CountingLoader loader = new CountingLoader(3, null);
+        SUF2FeatureCache.Entry entry = cache.get("a", 10, 1, loader);
+        assertEquals(3, entry.getFeatures().size());
+        assertSame(entry, cache.get("a", 10, 1, loader));
+        assertEquals(1, loader.opened.get());
+        cache.get("a", 11, 1, loader);
+        cache.get("a", 11, 2, loader);
+        assertEquals(3, loader.opened.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testTooLargeIsRemembered() throws Exception {
+        SUF2FeatureCache cache = new SUF2FeatureCache(10);
+        CountingLoader loader = new CountingLoader(3, null);
+        assertNull(cache.get("a", 10, 1, loader));
+        assertNull(cache.get("a", 10, 1, loader));
+        assertEquals(1, loader.opened.get());
+        assertEquals(0, cache.size());
+
+        /* a changed file is tried again */
+        assertNull(cache.get("a", 20, 1, loader));
+        assertEquals(2, loader.opened.get());
+    }
+
+    @Test
+    public void testConcurrentMissLoadsOnce() throws Exception {
+        final SUF2FeatureCache cache = new SUF2FeatureCache(1024 * 1024);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingLoader loader = new CountingLoader(3, release);
+        final SUF2FeatureCache.Entry[] entries = new SUF2FeatureCache.Entry[4];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < entries.length; i++) {
+            final int n = i;
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        entries[n] = cache.get("a", 10, 1, loader);
+                    } catch (IOException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            };
+            t.start();
+            threads.add(t);
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, loader.opened.get());
+        for (SUF2FeatureCache.Entry entry : entries) {
+            assertNotNull(entry);
+            assertSame(entries[0], entry);
+        }
+    }
+
+    @Test
+    public void testFailedLoadIsNotRemembered() throws Exception {
+        SUF2FeatureCache cache = new SUF2FeatureCache(1024 * 1024);
+        final AtomicInteger opened = new AtomicInteger();
+        SUF2FeatureCache.Loader failing = new SUF2FeatureCache.Loader() {
+            public FeatureReader<SimpleFeatureType, SimpleFeature> open() throws IOException {
+                opened.incrementAndGet();
+                throw new IOException("niet leesbaar");
+            }
+        };
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.get("a", 10, 1, failing);
+            } catch (IOException ex) {
+                assertEquals("niet leesbaar", ex.getMessage());
+            }
+        }
+        assertEquals(2, opened.get());
+    }
+
+    private class CountingLoader implements SUF2FeatureCache.Loader {
+
+        private final int count;
+        private final CountDownLatch release;
+        private final AtomicInteger opened = new AtomicInteger();
+
+        CountingLoader(int count, CountDownLatch release) {
+            this.count = count;
+            this.release = release;
+        }
+
+        public FeatureReader<SimpleFeatureType, SimpleFeature> open() throws IOException {
+            opened.incrementAndGet();
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+            }
+            SimpleFeature[] features = new SimpleFeature[count];
+            for (int i = 0; i < count; i++) {
+                SimpleFeatureBuilder builder = new SimpleFeatureBuilder(ft);
+                builder.set(SUF2FeatureReader.TYPE, "LINE");
+                features[i] = builder.buildFeature("test." + (i + 1));
+            }
+            return new ListFeatureReader(ft, Arrays.asList(features));
+        }
+    }
+}
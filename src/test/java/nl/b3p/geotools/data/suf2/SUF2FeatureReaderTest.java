@@ -0,0 +1,78 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.net.URL;
+import java.util.List;
+import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.FilterFactory2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SUF2FeatureReaderTest {
+
+    private final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+    private URL url;
+    private SimpleFeatureType ft;
+
+    @Before
+    public void setUp() throws Exception {
+        url = getClass().getResource(Fixtures.SMALL);
+        ft = SUF2FeatureReader.createFeatureType("small", null);
+    }
+
+    @Test
+    public void testReadAll() throws Exception {
+        List<SimpleFeature> features = Fixtures.readAll(new SUF2FeatureReader(url, ft, Query.ALL));
+        assertEquals(Fixtures.SMALL_IDS, Fixtures.ids(features));
+        assertEquals("TEXT", features.get(1).getAttribute(SUF2FeatureReader.TYPE));
+    }
+
+    @Test
+    public void testRetype() throws Exception {
+        Query query = new Query("small");
+        query.setPropertyNames(new String[]{"the_geom", SUF2FeatureReader.TYPE});
+        SUF2FeatureReader reader = new SUF2FeatureReader(url, ft, query);
+        SimpleFeatureType type = reader.getFeatureType();
+        assertEquals(2, type.getAttributeCount());
+        List<SimpleFeature> features = Fixtures.readAll(reader);
+        assertEquals(3, features.size());
+        assertSame(type, features.get(0).getFeatureType());
+        assertEquals("LINE", features.get(0).getAttribute(SUF2FeatureReader.TYPE));
+    }
+
+    @Test
+    public void testBounds() throws Exception {
+        Envelope text = ((Geometry) Fixtures.readAll(new SUF2FeatureReader(url, ft, Query.ALL)).get(1).getDefaultGeometry()).getEnvelopeInternal();
+        text.expandBy(1);
+        Query query = new Query("small", ff.bbox("the_geom", text.getMinX(), text.getMinY(), text.getMaxX(), text.getMaxY(), null));
+        SUF2FeatureReader reader = new SUF2FeatureReader(url, ft, query);
+        List<SimpleFeature> features = Fixtures.readAll(reader);
+        assertEquals(1, features.size());
+        assertEquals("small.6", features.get(0).getID());
+        /* the other records are skipped before a geometry is made */
+        assertEquals(2, reader.getStatistics().getSkippedBounds());
+        assertEquals(0, reader.getStatistics().getSkippedFilter());
+    }
+
+    @Test
+    public void testStartIndexAndMaxFeatures() throws Exception {
+        Query query = new Query("small");
+        query.setStartIndex(1);
+        query.setMaxFeatures(1);
+        SUF2FeatureReader reader = new SUF2FeatureReader(url, ft, query);
+        List<SimpleFeature> features = Fixtures.readAll(reader);
+        assertEquals(1, features.size());
+        assertEquals("small.6", features.get(0).getID());
+        assertEquals(1, reader.getStatistics().getSkippedOffset());
+        /* reading stops after the second record */
+        assertTrue(reader.getStatistics().getRecordsRead() < 5);
+    }
+}
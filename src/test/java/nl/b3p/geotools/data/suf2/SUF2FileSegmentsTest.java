@@ -0,0 +1,56 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SUF2FileSegmentsTest {
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Fixtures.createDirectory();
+        file = Fixtures.copy(Fixtures.SMALL, dir);
+    }
+
+    @After
+    public void tearDown() {
+        Fixtures.delete(dir);
+    }
+
+    @Test
+    public void testWholeFile() throws Exception {
+        SUF2FileSegments segments = SUF2FileSegments.of(file);
+        assertEquals(1, segments.size());
+        assertEquals(file.length(), segments.getLength());
+        assertEquals(7, segments.toFileLine(7));
+
+        InputStream in = segments.toURL().openStream();
+        try {
+            assertTrue(Arrays.equals(Fixtures.read(Fixtures.SMALL), Fixtures.readFully(in)));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testReadAfterClose() throws Exception {
+        InputStream in = SUF2FileSegments.of(file).openStream();
+        in.close();
+        try {
+            in.read();
+            fail("Gelezen na sluiten");
+        } catch (IOException e) {
+        }
+    }
+}
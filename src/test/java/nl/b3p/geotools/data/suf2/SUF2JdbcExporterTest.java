@@ -0,0 +1,209 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.geotools.data.Query;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.WKBReader;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SUF2JdbcExporterTest {
+
+    private static final double DELTA = 1e-3;
+    private final GeometryFactory gf = new GeometryFactory();
+    private SimpleFeatureType ft;
+    private File file;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        ft = SUF2FeatureReader.createFeatureType("test", null);
+        file = File.createTempFile("suf2", ".gpkg");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (connection != null) {
+            connection.close();
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testGeoPackage() throws Exception {
+        connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        List<Geometry> geometries = geometries();
+        SUF2JdbcExporter exporter = new SUF2JdbcExporter(connection, SUF2JdbcExporter.Format.GEOPACKAGE);
+        exporter.setBatchSize(2);
+        assertEquals(3, exporter.export(store(geometries), "kaart"));
+
+        ResultSet rs = query("SELECT fid, geom FROM kaart ORDER BY fid");
+        for (Geometry expected : geometries) {
+            assertTrue(rs.next());
+            byte[] blob = rs.getBytes(2);
+            ByteBuffer header = ByteBuffer.wrap(blob).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals('G', header.get(0));
+            assertEquals('P', header.get(1));
+            assertEquals(0, header.get(2));
+            assertEquals(0x03, header.get(3));
+            assertEquals(SUF2JdbcExporter.DEFAULT_SRID, header.getInt(4));
+            Envelope envelope = expected.getEnvelopeInternal();
+            assertEquals(envelope.getMinX(), header.getDouble(8), 0);
+            assertEquals(envelope.getMaxX(), header.getDouble(16), 0);
+            assertEquals(envelope.getMinY(), header.getDouble(24), 0);
+            assertEquals(envelope.getMaxY(), header.getDouble(32), 0);
+            Geometry geometry = new WKBReader().read(Arrays.copyOfRange(blob, 40, blob.length));
+            assertTrue(expected.equalsExact(geometry));
+        }
+        rs.getStatement().close();
+
+        /* the rtree stores single precision floats rounded outwards */
+        rs = query("SELECT id, minx, maxx, miny, maxy FROM rtree_kaart_geom ORDER BY id");
+        for (int i = 0; i < geometries.size(); i++) {
+            assertTrue(rs.next());
+            Envelope envelope = geometries.get(i).getEnvelopeInternal();
+            assertEquals(i + 1, rs.getInt(1));
+            assertEquals(envelope.getMinX(), rs.getDouble(2), DELTA);
+            assertEquals(envelope.getMaxX(), rs.getDouble(3), DELTA);
+            assertEquals(envelope.getMinY(), rs.getDouble(4), DELTA);
+            assertEquals(envelope.getMaxY(), rs.getDouble(5), DELTA);
+        }
+        rs.getStatement().close();
+
+        rs = query("SELECT min_x, min_y, max_x, max_y, srs_id FROM gpkg_contents WHERE table_name = 'kaart'");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getDouble(1), 0);
+        assertEquals(0, rs.getDouble(2), 0);
+        assertEquals(20, rs.getDouble(3), 0);
+        assertEquals(15, rs.getDouble(4), 0);
+        assertEquals(SUF2JdbcExporter.DEFAULT_SRID, rs.getInt(5));
+        rs.getStatement().close();
+        assertEquals(1, count("SELECT count(*) FROM gpkg_extensions WHERE table_name = 'kaart' AND extension_name = 'gpkg_rtree_index'"));
+    }
+
+    @Test
+    public void testFailureDropsTables() throws Exception {
+        connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        SUF2JdbcExporter exporter = new SUF2JdbcExporter(connection, SUF2JdbcExporter.Format.GEOPACKAGE);
+        exporter.setBatchSize(1);
+        exporter.setCommitSize(1);
+        try {
+            exporter.export(store(geometries()).failAfter(2), "kaart");
+            fail("Fout bij lezen niet doorgegeven");
+        } catch (IOException e) {
+            assertEquals("afgebroken bestand", e.getMessage());
+        }
+        assertEquals(0, count("SELECT count(*) FROM sqlite_master WHERE name IN ('kaart', 'rtree_kaart_geom')"));
+        assertEquals(0, count("SELECT count(*) FROM gpkg_contents"));
+        assertEquals(0, count("SELECT count(*) FROM gpkg_geometry_columns"));
+
+        assertEquals(3, exporter.export(store(geometries()), "kaart"));
+        assertEquals(3, count("SELECT count(*) FROM kaart"));
+    }
+
+    @Test
+    public void testWkb() throws Exception {
+        connection = DriverManager.getConnection("jdbc:h2:mem:suf2export");
+        List<Geometry> geometries = geometries();
+        SUF2JdbcExporter exporter = new SUF2JdbcExporter(connection, SUF2JdbcExporter.Format.WKB);
+        assertEquals(3, exporter.export(store(geometries), "kaart"));
+
+        ResultSet rs = query("SELECT \"geom\", \"minx\", \"maxx\", \"miny\", \"maxy\" FROM \"kaart\" ORDER BY \"fid\"");
+        for (Geometry expected : geometries) {
+            assertTrue(rs.next());
+            assertTrue(expected.equalsExact(new WKBReader().read(rs.getBytes(1))));
+            Envelope envelope = expected.getEnvelopeInternal();
+            assertEquals(envelope.getMinX(), rs.getDouble(2), 0);
+            assertEquals(envelope.getMaxX(), rs.getDouble(3), 0);
+            assertEquals(envelope.getMinY(), rs.getDouble(4), 0);
+            assertEquals(envelope.getMaxY(), rs.getDouble(5), 0);
+        }
+        rs.getStatement().close();
+
+        try {
+            exporter.export(store(geometries).failAfter(1), "mislukt");
+            fail("Fout bij lezen niet doorgegeven");
+        } catch (IOException e) {
+        }
+        assertEquals(0, count("SELECT count(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'mislukt'"));
+    }
+
+    @Test
+    public void testExportFile() throws Exception {
+        File dir = Fixtures.createDirectory();
+        SUF2DataStore store = new SUF2DataStore(Fixtures.copy(Fixtures.SMALL, dir).toURI().toURL(), null);
+        try {
+            List<SimpleFeature> features = Fixtures.readAll(store.createFeatureReader(Query.ALL));
+            connection = DriverManager.getConnection("jdbc:h2:mem:suf2file");
+            SUF2JdbcExporter exporter = new SUF2JdbcExporter(connection, SUF2JdbcExporter.Format.WKB);
+            assertEquals(3, exporter.export(store, "small"));
+
+            ResultSet rs = query("SELECT \"geom\" FROM \"small\" ORDER BY \"fid\"");
+            for (SimpleFeature feature : features) {
+                assertTrue(rs.next());
+                assertTrue(((Geometry) feature.getDefaultGeometry()).equalsExact(new WKBReader().read(rs.getBytes(1))));
+            }
+            assertFalse(rs.next());
+            rs.getStatement().close();
+        } finally {
+            store.dispose();
+            Fixtures.delete(dir);
+        }
+    }
+
+    private List<Geometry> geometries() {
+        return Arrays.asList(
+                gf.createLineString(new Coordinate[]{new Coordinate(0, 0), new Coordinate(10, 5)}),
+                gf.createPoint(new Coordinate(3.25, 4.5)),
+                gf.createPolygon(new Coordinate[]{
+                    new Coordinate(10, 10), new Coordinate(20, 10), new Coordinate(20, 15), new Coordinate(10, 10)}));
+    }
+
+    private ResultSet query(String sql) throws SQLException {
+        return connection.createStatement().executeQuery(sql);
+    }
+
+    private int count(String sql) throws SQLException {
+        ResultSet rs = query(sql);
+        try {
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        } finally {
+            rs.getStatement().close();
+        }
+    }
+
+    private Fixtures.ListDataStore store(List<Geometry> geometries) throws IOException {
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        for (Geometry geometry : geometries) {
+            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(ft);
+            builder.set(ft.getGeometryDescriptor().getLocalName(), geometry);
+            builder.set(SUF2FeatureReader.TYPE, "LINE");
+            features.add(builder.buildFeature("test." + (features.size() + 1)));
+        }
+        return new Fixtures.ListDataStore("test", ft, features);
+    }
+}
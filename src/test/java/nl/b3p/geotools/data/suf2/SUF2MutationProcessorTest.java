@@ -0,0 +1,260 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import nl.b3p.suf2.SUF2Coordinate;
+import nl.b3p.suf2.records.SUF2Record;
+import nl.b3p.suf2.records.SUF2Record01;
+import nl.b3p.suf2.records.SUF2Record03;
+import org.geotools.data.FeatureReader;
+import org.geotools.data.Query;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SUF2MutationProcessorTest {
+
+    private SimpleFeatureType ft;
+    private File snapshot;
+    private int line;
+
+    @Before
+    public void setUp() throws Exception {
+        ft = SUF2FeatureReader.createFeatureType("test", null);
+        snapshot = File.createTempFile("suf2", SUF2MutationProcessor.EXTENSION);
+        snapshot.delete();
+    }
+
+    @After
+    public void tearDown() {
+        snapshot.delete();
+    }
+
+    @Test
+    public void testIdentityIndependentOfDirection() {
+        List<SUF2Coordinate> line = coordinates(0, 0, 5, 5, 10, 0);
+        List<SUF2Coordinate> reversed = coordinates(10, 0, 5, 5, 0, 0);
+        assertEquals(SUF2MutationProcessor.identityHash("LINE", "1", line),
+                SUF2MutationProcessor.identityHash("LINE", "1", reversed));
+        assertNotEquals(SUF2MutationProcessor.identityHash("LINE", "1", line),
+                SUF2MutationProcessor.identityHash("LINE", "2", line));
+        assertNotEquals(SUF2MutationProcessor.coordinateHash(line), SUF2MutationProcessor.coordinateHash(reversed));
+    }
+
+    @Test
+    public void testFullDelivery() throws Exception {
+        SUF2MutationProcessor.Result result = process(null,
+                line("V", "1", null, 0, 0, 10, 0),
+                line("V", "1", null, 10, 0, 10, 10));
+        assertEquals(2, result.getInserts());
+        assertTrue(snapshot.exists());
+
+        List<String> changes = new ArrayList<String>();
+        result = process(changes,
+                line("V", "1", null, 0, 0, 10, 0),
+                line("V", "1", null, 20, 0, 20, 10));
+        assertEquals(1, result.getUnchanged());
+        assertEquals(1, result.getInserts());
+        assertEquals(1, result.getDeletes());
+        assertEquals("DELETE", changes.get(changes.size() - 1));
+    }
+
+    @Test
+    public void testMovedVertexIsUpdate() throws Exception {
+        process(null, line("V", "1", null, 0, 0, 5, 5, 10, 0));
+        SUF2MutationProcessor.Result result = process(null, line("V", "1", null, 0, 0, 5, 6, 10, 0));
+        assertEquals(1, result.getUpdates());
+        assertEquals(0, result.getInserts());
+        assertEquals(0, result.getDeletes());
+    }
+
+    @Test
+    public void testMutationDelete() throws Exception {
+        process(null,
+                line("V", "1", null, 0, 0, 10, 0),
+                line("V", "1", null, 10, 0, 10, 10));
+
+        List<String> changes = new ArrayList<String>();
+        SUF2MutationProcessor.Result result = process(changes,
+                line("M", "1", SUF2MutationProcessor.DEFAULT_DELETE_VALUE, 10, 0, 10, 10),
+                line("M", "1", null, 20, 0, 20, 10));
+        assertTrue(result.isMutation());
+        assertEquals(1, result.getInserts());
+        assertEquals(1, result.getDeletes());
+        assertEquals(Arrays.asList("INSERT", "DELETE"), changes);
+
+        /* the deleted object is no longer in the snapshot */
+        result = process(null,
+                line("V", "1", null, 0, 0, 10, 0),
+                line("V", "1", null, 20, 0, 20, 10));
+        assertEquals(2, result.getUnchanged());
+        assertEquals(0, result.getDeletes());
+    }
+
+    @Test
+    public void testMutationRemoveAndAddIsUpdate() throws Exception {
+        process(null, line("V", "1", null, 0, 0, 5, 5, 10, 0));
+
+        List<String> changes = new ArrayList<String>();
+        SUF2MutationProcessor.Result result = process(changes,
+                line("M", "1", SUF2MutationProcessor.DEFAULT_DELETE_VALUE, 0, 0, 5, 5, 10, 0),
+                line("M", "1", null, 0, 0, 6, 5, 10, 0));
+        assertEquals(Arrays.asList("UPDATE"), changes);
+        assertEquals(0, result.getDeletes());
+    }
+
+    @Test
+    public void testUnknownDeleteIsIgnored() throws Exception {
+        process(null, line("V", "1", null, 0, 0, 10, 0));
+        SUF2MutationProcessor.Result result = process(null,
+                line("M", "1", SUF2MutationProcessor.DEFAULT_DELETE_VALUE, 50, 50, 60, 60));
+        assertEquals(0, result.getDeletes());
+    }
+
+    @Test
+    public void testDuplicates() throws Exception {
+        SUF2MutationProcessor.Result result = process(null,
+                line("V", "1", null, 0, 0, 10, 0),
+                line("V", "1", null, 0, 0, 10, 0));
+        assertEquals(2, result.getInserts());
+        assertEquals(1, result.getDuplicates());
+
+        result = process(null,
+                line("V", "1", null, 0, 0, 10, 0),
+                line("V", "1", null, 0, 0, 10, 0));
+        assertEquals(2, result.getUnchanged());
+
+        /* one of both is removed */
+        result = process(null, line("V", "1", null, 0, 0, 10, 0));
+        assertEquals(1, result.getUnchanged());
+        assertEquals(1, result.getDeletes());
+    }
+
+    @Test
+    public void testOldSnapshotVersion() throws Exception {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(snapshot));
+        out.writeInt(0x53554653);
+        out.writeInt(1);
+        out.writeInt(0);
+        out.close();
+        try {
+            process(null, line("V", "1", null, 0, 0, 10, 0));
+            fail("Snapshot van oude versie gelezen");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("versie"));
+        }
+    }
+
+    @Test
+    public void testRecordHashesOfFile() throws Exception {
+        File dir = Fixtures.createDirectory();
+        try {
+            File file = Fixtures.copy(Fixtures.SMALL, dir);
+            SUF2DataStore store = new SUF2DataStore(file.toURI().toURL(), null);
+            assertEquals(3, process(store, null).getInserts());
+            assertEquals(3, process(store, null).getUnchanged());
+
+            /* reverse the last line: the same object with other coordinates */
+            String[] lines = new String(Fixtures.read(Fixtures.SMALL), "US-ASCII").split("\n");
+            String first = lines[9].substring(6, 28);
+            lines[9] = lines[9].substring(0, 6) + lines[10].substring(6, 28) + lines[9].substring(28);
+            lines[10] = lines[10].substring(0, 6) + first + lines[10].substring(28);
+            StringBuilder reversed = new StringBuilder();
+            for (String line : lines) {
+                reversed.append(line).append('\n');
+            }
+            Fixtures.write(file, reversed.toString().getBytes("US-ASCII"));
+            List<String> changes = new ArrayList<String>();
+            SUF2MutationProcessor.Result result = process(store, changes);
+            assertEquals(2, result.getUnchanged());
+            assertEquals(Arrays.asList("UPDATE"), changes);
+            store.dispose();
+        } finally {
+            Fixtures.delete(dir);
+        }
+    }
+
+    @Test
+    public void testRecordReaderIsTracked() throws Exception {
+        File dir = Fixtures.createDirectory();
+        try {
+            final SUF2DataStore store = new SUF2DataStore(Fixtures.copy(Fixtures.SMALL, dir).toURI().toURL(), null);
+            store.setMaxOpenFiles(1);
+            store.setOpenFileTimeout(0);
+            final List<Integer> openReaders = new ArrayList<Integer>();
+            SUF2MutationProcessor.Result result = new SUF2MutationProcessor(store).process(snapshot, new SUF2MutationProcessor.Listener() {
+                public void change(SUF2MutationProcessor.ChangeType type, String identity, SimpleFeature feature) {
+                    openReaders.add(store.getOpenReaderCount());
+                }
+            });
+            assertEquals(3, result.getInserts());
+            assertEquals(Arrays.asList(1, 1, 1), openReaders);
+            assertEquals(0, store.getOpenReaderCount());
+
+            /* the record reader takes a file handle like the other readers */
+            FeatureReader<SimpleFeatureType, SimpleFeature> reader = store.createFeatureReader(Query.ALL);
+            try {
+                process(store, null);
+                fail("Geen file handle nodig voor lezen van records");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("Te veel geopende readers"));
+            } finally {
+                reader.close();
+            }
+            store.dispose();
+        } finally {
+            Fixtures.delete(dir);
+        }
+    }
+
+    private SUF2MutationProcessor.Result process(List<String> changes, SimpleFeature... features) throws IOException {
+        return process(new Fixtures.ListDataStore("test", ft, Arrays.asList(features)), changes);
+    }
+
+    private SUF2MutationProcessor.Result process(SUF2DataStore store, final List<String> changes) throws IOException {
+        SUF2MutationProcessor processor = new SUF2MutationProcessor(store);
+        return processor.process(snapshot, new SUF2MutationProcessor.Listener() {
+            public void change(SUF2MutationProcessor.ChangeType type, String identity, SimpleFeature feature) {
+                if (changes != null) {
+                    changes.add(type.name());
+                }
+            }
+        });
+    }
+
+    private SimpleFeature line(String delivery, String code, String status, double... ordinates) {
+        List<SUF2Coordinate> coordinates = coordinates(ordinates);
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(ft);
+        builder.set(SUF2FeatureReader.TYPE, "LINE");
+        builder.set(SUF2Record.LKI_CLASSIFICATIECODE, code);
+        builder.set(SUF2Record01.VOLLEDIG_OF_MUTATIE, delivery);
+        builder.set(SUF2Record03.G_STATUS_VAN_OBJECT, status);
+        SimpleFeature f = builder.buildFeature("test." + ++line);
+        f.getUserData().put(SUF2MutationProcessor.class, new long[]{
+            SUF2MutationProcessor.identityHash("LINE", code, coordinates),
+            SUF2MutationProcessor.coordinateHash(coordinates)});
+        return f;
+    }
+
+    private static List<SUF2Coordinate> coordinates(double... ordinates) {
+        List<SUF2Coordinate> coordinates = new ArrayList<SUF2Coordinate>();
+        for (int i = 0; i < ordinates.length; i += 2) {
+            coordinates.add(new SUF2Coordinate(ordinates[i], ordinates[i + 1]));
+        }
+        return coordinates;
+    }
+}
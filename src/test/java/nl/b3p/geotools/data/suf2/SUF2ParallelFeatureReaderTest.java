@@ -0,0 +1,139 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.geotools.data.Query;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Point;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import static nl.b3p.geotools.data.suf2.Fixtures.LINE_LENGTH;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SUF2ParallelFeatureReaderTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("suf2", ".nen");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        Fixtures.write(file, Fixtures.read(Fixtures.SMALL));
+        List<long[]> chunks = new ArrayList<long[]>();
+        long[] header = SUF2ParallelFeatureReader.split(file, 1, chunks);
+        assertArrayEquals(new long[]{0, 2 * LINE_LENGTH, 0, 2}, header);
+        /* a chunk per record, in file order */
+        assertEquals(3, chunks.size());
+        assertArrayEquals(new long[]{2 * LINE_LENGTH, 5 * LINE_LENGTH, 2, 3}, chunks.get(0));
+        assertArrayEquals(new long[]{5 * LINE_LENGTH, 8 * LINE_LENGTH, 5, 3}, chunks.get(1));
+        assertArrayEquals(new long[]{8 * LINE_LENGTH, 11 * LINE_LENGTH, 8, 3}, chunks.get(2));
+
+        /* records are not split, a chunk ends at the first record after the chunk size */
+        chunks.clear();
+        SUF2ParallelFeatureReader.split(file, 4 * LINE_LENGTH, chunks);
+        assertEquals(2, chunks.size());
+        assertArrayEquals(new long[]{2 * LINE_LENGTH, 8 * LINE_LENGTH, 2, 6}, chunks.get(0));
+        assertArrayEquals(new long[]{8 * LINE_LENGTH, 11 * LINE_LENGTH, 8, 3}, chunks.get(1));
+    }
+
+    @Test
+    public void testSplitWithoutNewlineAtEnd() throws Exception {
+        write("01 kop\n03 a\n04 a");
+        List<long[]> chunks = new ArrayList<long[]>();
+        SUF2ParallelFeatureReader.split(file, 1, chunks);
+        assertEquals(1, chunks.size());
+        assertArrayEquals(new long[]{7, 16, 1, 2}, chunks.get(0));
+    }
+
+    @Test
+    public void testSplitWithoutRecords() throws Exception {
+        write("01 kop\n02 crs\n");
+        List<long[]> chunks = new ArrayList<long[]>();
+        assertArrayEquals(new long[]{0, 14, 0, 2}, SUF2ParallelFeatureReader.split(file, 1, chunks));
+        assertTrue(chunks.isEmpty());
+    }
+
+    @Test
+    public void testSplitIsCached() throws Exception {
+        write("01 kop\n03 a\n04 a\n03 b\n04 b\n");
+        SUF2ParallelFeatureReader.Split split = SUF2ParallelFeatureReader.getSplit(file, 1);
+        assertEquals(2, split.getChunks().size());
+        assertSame(split, SUF2ParallelFeatureReader.getSplit(file, 1));
+        assertNotSame(split, SUF2ParallelFeatureReader.getSplit(file, 100));
+
+        write("01 kop\n03 a\n04 a\n03 b\n04 b\n03 c\n");
+        SUF2ParallelFeatureReader.Split changed = SUF2ParallelFeatureReader.getSplit(file, 1);
+        assertNotSame(split, changed);
+        assertEquals(3, changed.getChunks().size());
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        Fixtures.write(file, Fixtures.read(Fixtures.SMALL));
+        SimpleFeatureType ft = SUF2FeatureReader.createFeatureType("small", null);
+        /* the same ids in the same order as a sequential read */
+        assertEquals(Fixtures.SMALL_IDS, Fixtures.ids(Fixtures.readAll(new SUF2ParallelFeatureReader(file, ft, Query.ALL, 2, true))));
+    }
+
+    @Test(timeout = 10000)
+    public void testFailureIsRepeated() throws Exception {
+        Fixtures.write(file, Fixtures.read(Fixtures.SMALL));
+        SimpleFeatureType ft = SUF2FeatureReader.createFeatureType("small", null);
+        /* an Error in a chunk must still end the chunk */
+        GeometryFactory gf = new GeometryFactory() {
+            @Override
+            public LineString createLineString(CoordinateSequence coordinates) {
+                throw new AssertionError("geometrie");
+            }
+
+            @Override
+            public Point createPoint(CoordinateSequence coordinates) {
+                throw new AssertionError("geometrie");
+            }
+        };
+        SUF2ParallelFeatureReader reader = new SUF2ParallelFeatureReader(file, ft, Query.ALL, 2, true, SUF2ArcLinearization.DEFAULT, gf, null);
+        try {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    reader.hasNext();
+                    fail("Fout bij lezen niet doorgegeven");
+                } catch (IOException e) {
+                    assertTrue(e.getCause() instanceof AssertionError);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void write(String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import nl.b3p.suf2.records.SUF2Record;
+import nl.b3p.suf2.records.SUF2Record03;
+import nl.b3p.suf2.records.SUF2Record06;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Polygon;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SUF2ParcelBuilderTest {
+
+    private static final String[] A = {"ABC01", "A", "G", "100", "0000"};
+    private static final String[] B = {"ABC01", "A", "G", "101", "0000"};
+    private static final String[] C = {"ABC01", "B", "G", "7", "0000"};
+    private final GeometryFactory gf = new GeometryFactory();
+    private SimpleFeatureType ft;
+    private List<SimpleFeature> features;
+    private int line;
+
+    @Before
+    public void setUp() throws Exception {
+        ft = SUF2FeatureReader.createFeatureType("kaart", null);
+        features = new ArrayList<SimpleFeature>();
+    }
+
+    @Test
+    public void testEnclave() throws Exception {
+        /* parcel A, a square of 10 by 10 with parcel B of 2 by 2 in the middle */
+        ring(A, null, 0, 0, 10, 10);
+        ring(B, A, 4, 4, 6, 6);
+        /* a label of A in B is only used when there is no label inside A */
+        label(A, "100 in B", 5, 5);
+        label(A, "100", 1, 1);
+        label(B, "101", 5, 5);
+
+        List<SimpleFeature> parcels = build();
+        assertEquals(2, parcels.size());
+
+        SimpleFeature a = parcels.get(0);
+        assertEquals("kaart_parcels.ABC01-A-G-100-0", a.getID());
+        MultiPolygon geometry = (MultiPolygon) a.getDefaultGeometry();
+        assertEquals(1, geometry.getNumGeometries());
+        assertEquals(1, ((Polygon) geometry.getGeometryN(0)).getNumInteriorRing());
+        assertEquals(96, geometry.getArea(), 0);
+        assertEquals("100", a.getAttribute(SUF2ParcelBuilder.LABEL));
+        assertEquals(gf.createPoint(new Coordinate(1, 1)), a.getAttribute(SUF2ParcelBuilder.LABEL_POINT));
+        assertEquals("100", a.getAttribute(SUF2Record06.PERCEELNUMMER));
+
+        SimpleFeature b = parcels.get(1);
+        assertEquals(4, ((MultiPolygon) b.getDefaultGeometry()).getArea(), 0);
+        assertEquals("101", b.getAttribute(SUF2ParcelBuilder.LABEL));
+    }
+
+    @Test
+    public void testLabelOutsideParcel() throws Exception {
+        ring(A, null, 0, 0, 10, 10);
+        label(A, "100", 20, 20);
+        List<SimpleFeature> parcels = build();
+        assertEquals("100", parcels.get(0).getAttribute(SUF2ParcelBuilder.LABEL));
+    }
+
+    @Test
+    public void testIncomplete() throws Exception {
+        ring(A, null, 0, 0, 10, 10);
+        /* parcel C at the edge of the file, its boundary is not closed */
+        line(C, null, 20, 0, 30, 0);
+        line(C, null, 30, 0, 30, 10);
+        SUF2ParcelBuilder builder = new SUF2ParcelBuilder(store());
+        List<SimpleFeature> parcels = build(builder);
+        assertEquals(1, parcels.size());
+        assertEquals(1, builder.getIncompleteCount());
+        assertNull(parcels.get(0).getAttribute(SUF2ParcelBuilder.LABEL));
+    }
+
+    @Test
+    public void testNormalizedKey() throws Exception {
+        ring(A, null, 0, 0, 10, 10);
+        /* the text record writes the parcel number with leading zeros */
+        label(new String[]{" abc01", "A ", "g", "00100", "0"}, "100", 1, 1);
+        List<SimpleFeature> parcels = build();
+        assertEquals(1, parcels.size());
+        assertEquals("100", parcels.get(0).getAttribute(SUF2ParcelBuilder.LABEL));
+        assertEquals("0", parcels.get(0).getAttribute(SUF2Record06.INDEXNUMMER));
+
+        assertEquals("100", SUF2ParcelBuilder.normalize("0100"));
+        assertEquals("0", SUF2ParcelBuilder.normalize("0000"));
+        assertEquals("ABC01", SUF2ParcelBuilder.normalize(" abc01 "));
+        assertNull(SUF2ParcelBuilder.normalize("  "));
+    }
+
+    @Test
+    public void testSectionsReadSeparately() throws Exception {
+        ring(A, null, 0, 0, 10, 10);
+        label(C, "7", 21, 1);
+        ring(C, null, 20, 0, 30, 10);
+        ring(B, null, 10, 0, 20, 10);
+        label(A, "100", 1, 1);
+
+        Fixtures.ListDataStore store = store();
+        SUF2ParcelBuilder builder = new SUF2ParcelBuilder(store);
+        builder.setMaxLines(4);
+        List<SimpleFeature> parcels = build(builder);
+        assertEquals(2, store.getReaders());
+        assertEquals(3, parcels.size());
+        /* section A is read first, section B after it */
+        assertEquals("kaart_parcels.ABC01-A-G-100-0", parcels.get(0).getID());
+        assertEquals("100", parcels.get(0).getAttribute(SUF2ParcelBuilder.LABEL));
+        assertEquals("kaart_parcels.ABC01-A-G-101-0", parcels.get(1).getID());
+        assertEquals("kaart_parcels.ABC01-B-G-7-0", parcels.get(2).getID());
+        assertEquals("7", parcels.get(2).getAttribute(SUF2ParcelBuilder.LABEL));
+
+        store = store();
+        assertEquals(3, build(new SUF2ParcelBuilder(store)).size());
+        assertEquals(1, store.getReaders());
+    }
+
+    @Test
+    public void testFileWithoutParcels() throws Exception {
+        File dir = Fixtures.createDirectory();
+        SUF2DataStore store = new SUF2DataStore(Fixtures.copy(Fixtures.SMALL, dir).toURI().toURL(), null);
+        try {
+            /* the lines of small.nen have no parcel on either side */
+            SUF2ParcelBuilder builder = new SUF2ParcelBuilder(store);
+            assertEquals(0, build(builder).size());
+            assertEquals(0, builder.getIncompleteCount());
+            assertEquals(0, store.getStatistics().getSkippedLayer());
+        } finally {
+            store.dispose();
+            Fixtures.delete(dir);
+        }
+    }
+
+    private Fixtures.ListDataStore store() throws IOException {
+        return new Fixtures.ListDataStore("kaart", ft, features);
+    }
+
+    private List<SimpleFeature> build() throws IOException {
+        SUF2ParcelBuilder builder = new SUF2ParcelBuilder(store());
+        builder.setThreads(2);
+        return build(builder);
+    }
+
+    private static List<SimpleFeature> build(SUF2ParcelBuilder builder) throws IOException {
+        final List<SimpleFeature> parcels = new ArrayList<SimpleFeature>();
+        builder.build(new SUF2ParcelBuilder.Handler() {
+            public void parcel(SimpleFeature parcel) {
+                parcels.add(parcel);
+            }
+        });
+        return parcels;
+    }
+
+    /**
+     * The boundary of a rectangle as four lines, counterclockwise with the
+     * left parcel inside.
+     */
+    private void ring(String[] left, String[] right, double minX, double minY, double maxX, double maxY) {
+        line(left, right, minX, minY, maxX, minY);
+        line(left, right, maxX, minY, maxX, maxY);
+        line(left, right, maxX, maxY, minX, maxY);
+        line(left, right, minX, maxY, minX, minY);
+    }
+
+    private void line(String[] left, String[] right, double x1, double y1, double x2, double y2) {
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(ft);
+        builder.set(ft.getGeometryDescriptor().getLocalName(), gf.createLineString(new Coordinate[]{new Coordinate(x1, y1), new Coordinate(x2, y2)}));
+        set(builder, left, SUF2Record03.GEMEENTECODEPERCEELLINKS, SUF2Record03.SECTIEPERCEELLINKS,
+                SUF2Record03.INDEXLETTERPERCEELLINKS, SUF2Record03.PERCEELNUMMERLINKS, SUF2Record03.INDEXNUMMERLINKS);
+        set(builder, right, SUF2Record03.GEMEENTECODEPERCEELRECHTS, SUF2Record03.SECTIEPERCEELRECHTS,
+                SUF2Record03.INDEXLETTERPERCEELRECHTS, SUF2Record03.PERCEELNUMMERRECHTS, SUF2Record03.INDEXNUMMERRECHTS);
+        features.add(feature(builder, "LINE"));
+    }
+
+    private void label(String[] key, String text, double x, double y) {
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(ft);
+        builder.set(ft.getGeometryDescriptor().getLocalName(), gf.createPoint(new Coordinate(x, y)));
+        builder.set(SUF2Record06.TEKST, text);
+        set(builder, key, SUF2Record06.GEMEENTECODE, SUF2Record06.SECTIE,
+                SUF2Record06.INDEXLETTER, SUF2Record06.PERCEELNUMMER, SUF2Record06.INDEXNUMMER);
+        features.add(feature(builder, "TEXT"));
+    }
+
+    /**
+     * A flat feature which the datastore routes to the layer of its type.
+     */
+    private SimpleFeature feature(SimpleFeatureBuilder builder, String type) {
+        line++;
+        builder.set(SUF2FeatureReader.TYPE, type);
+        builder.set(SUF2Record.ID, line);
+        return builder.buildFeature("kaart." + line);
+    }
+
+    private static void set(SimpleFeatureBuilder builder, String[] values, String... names) {
+        if (values != null) {
+            for (int i = 0; i < names.length; i++) {
+                builder.set(names[i], values[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SUF2PipelineTest {
+
+    @Test
+    public void testRun() throws Exception {
+        SUF2Pipeline pipeline = new SUF2Pipeline(store(5));
+        RecordingConsumer first = new RecordingConsumer();
+        RecordingConsumer second = new RecordingConsumer();
+        pipeline.add(Filter.INCLUDE, first);
+        pipeline.add(Filter.INCLUDE, second);
+        assertEquals(5, pipeline.run());
+        assertEquals(5, first.features.size());
+        assertEquals("test.1", first.features.get(0));
+        assertEquals("test.5", second.features.get(4));
+        assertTrue(first.ended);
+        assertTrue(second.ended);
+    }
+
+    @Test
+    public void testReadErrorDoesNotEndConsumers() throws Exception {
+        SUF2Pipeline pipeline = new SUF2Pipeline(store(10).failAfter(3));
+        pipeline.setQueueSize(1);
+        RecordingConsumer first = new RecordingConsumer();
+        RecordingConsumer second = new RecordingConsumer();
+        pipeline.add(Filter.INCLUDE, first);
+        pipeline.add(Filter.INCLUDE, second);
+        try {
+            pipeline.run();
+            fail("Leesfout niet doorgegeven");
+        } catch (IOException e) {
+            assertEquals("afgebroken bestand", e.getMessage());
+        }
+        assertEquals(3, first.features.size());
+        assertFalse(first.ended);
+        assertFalse(second.ended);
+    }
+
+    @Test
+    public void testConsumerError() throws Exception {
+        SUF2Pipeline pipeline = new SUF2Pipeline(store(10));
+        RecordingConsumer good = new RecordingConsumer();
+        RecordingConsumer bad = new RecordingConsumer() {
+            @Override
+            public void feature(SimpleFeature feature) throws IOException {
+                throw new IOException("consumer");
+            }
+        };
+        pipeline.add(Filter.INCLUDE, good);
+        pipeline.add(Filter.INCLUDE, bad);
+        try {
+            pipeline.run();
+            fail("Fout van consumer niet doorgegeven");
+        } catch (IOException e) {
+            assertEquals("consumer", e.getMessage());
+        }
+        assertFalse(good.ended);
+    }
+
+    @Test
+    public void testLayersOfFile() throws Exception {
+        File dir = Fixtures.createDirectory();
+        try {
+            SUF2DataStore store = new SUF2DataStore(Fixtures.copy(Fixtures.SMALL, dir).toURI().toURL(), null);
+            SUF2Pipeline pipeline = new SUF2Pipeline(store);
+            RecordingConsumer lines = new RecordingConsumer();
+            RecordingConsumer texts = new RecordingConsumer();
+            RecordingConsumer all = new RecordingConsumer();
+            pipeline.add(SUF2Layer.LINES, lines);
+            pipeline.add(SUF2Layer.TEXTS, texts);
+            pipeline.add(Filter.INCLUDE, all);
+            pipeline.run();
+            assertEquals(Arrays.asList("small_lines.3", "small_lines.9"), lines.features);
+            assertEquals(Arrays.asList("small_texts.6"), texts.features);
+            assertEquals(Fixtures.SMALL_IDS, all.features);
+            assertTrue(lines.ended && texts.ended && all.ended);
+            store.dispose();
+        } finally {
+            Fixtures.delete(dir);
+        }
+    }
+
+    private static class RecordingConsumer implements SUF2Pipeline.Consumer {
+
+        final List<String> features = Collections.synchronizedList(new ArrayList<String>());
+        volatile boolean ended = false;
+
+        public void start(SortedMap<String, Object> header) {
+        }
+
+        public void feature(SimpleFeature feature) throws IOException {
+            features.add(feature.getID());
+        }
+
+        public void end() {
+            ended = true;
+        }
+    }
+
+    private static Fixtures.ListDataStore store(int count) throws IOException {
+        SimpleFeatureType ft = SUF2FeatureReader.createFeatureType("test", null);
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        for (int i = 1; i <= count; i++) {
+            features.add(SimpleFeatureBuilder.build(ft, new Object[ft.getAttributeCount()], "test." + i));
+        }
+        return new Fixtures.ListDataStore("test", ft, features);
+    }
+}
@@ -0,0 +1,152 @@
+package nl.b3p.geotools.data.suf2;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import org.geotools.data.Query;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.FilterFactory2;
+
+import static nl.b3p.geotools.data.suf2.Fixtures.LINE_LENGTH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SUF2SpatialIndexTest {
+
+    /* the records of small.nen: first line, line count and envelope */
+    private static final int[][] RECORDS = {{3, 3}, {6, 3}, {9, 3}};
+    private static final Envelope[] ENVELOPES = {
+        new Envelope(0, 20, 0, 0), new Envelope(10, 10, 10, 10), new Envelope(63, 75, 99, 99)};
+    private final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Fixtures.createDirectory();
+        file = Fixtures.copy(Fixtures.SMALL, dir);
+    }
+
+    @After
+    public void tearDown() {
+        Fixtures.delete(dir);
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        writeIndex();
+        SUF2SpatialIndex index = SUF2SpatialIndex.read(file);
+        assertNotNull(index);
+        assertEquals(3, index.getCount());
+        assertEquals(new Envelope(0, 75, 0, 99), index.getBounds());
+
+        /* the header and the last record */
+        SUF2FileSegments segments = index.query(new Envelope(60, 80, 90, 100));
+        assertEquals(2, segments.size());
+        assertEquals(5 * LINE_LENGTH, segments.getLength());
+        assertEquals(lines(1, 2) + lines(9, 11), read(segments));
+        assertEquals(1, segments.toFileLine(1));
+        assertEquals(2, segments.toFileLine(2));
+        assertEquals(9, segments.toFileLine(3));
+        assertEquals(11, segments.toFileLine(5));
+
+        /* adjoining records are merged with the header */
+        segments = index.query(new Envelope(0, 10, 0, 10));
+        assertEquals(1, segments.size());
+        assertEquals(lines(1, 8), read(segments));
+        assertEquals(7, segments.toFileLine(7));
+
+        segments = index.query(new Envelope(500, 600, 500, 600));
+        assertEquals(lines(1, 2), read(segments));
+    }
+
+    @Test
+    public void testOutdated() throws Exception {
+        writeIndex();
+        Fixtures.write(file, (lines(1, 11) + lines(9, 11)).getBytes("US-ASCII"));
+        assertNull(SUF2SpatialIndex.read(file));
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        SUF2DataStore store = new SUF2DataStore(file.toURI().toURL(), null);
+        try {
+            List<SimpleFeature> features = Fixtures.readAll(store.createFeatureReader(Query.ALL));
+            Envelope text = ((Geometry) features.get(1).getDefaultGeometry()).getEnvelopeInternal();
+            text.expandBy(1);
+
+            SUF2SpatialIndex index = SUF2SpatialIndex.build(file);
+            assertEquals(3, index.getCount());
+            assertEquals(3, SUF2SpatialIndex.read(file).getCount());
+            assertEquals(lines(1, 2) + lines(6, 8), read(index.query(text)));
+
+            /* a query of the datastore reads only the text through the index,
+               no record is skipped for its bounds */
+            long skipped = store.getStatistics().getSkippedBounds();
+            Query query = new Query(store.getSchema().getTypeName(),
+                    ff.bbox("the_geom", text.getMinX(), text.getMinY(), text.getMaxX(), text.getMaxY(), null));
+            List<SimpleFeature> found = Fixtures.readAll(store.createFeatureReader(query));
+            assertEquals(Arrays.asList("small.6"), Fixtures.ids(found));
+            assertEquals(skipped, store.getStatistics().getSkippedBounds());
+            assertTrue(features.get(1).getDefaultGeometry().equals(found.get(0).getDefaultGeometry()));
+        } finally {
+            store.dispose();
+        }
+    }
+
+    /**
+     * Write the index of small.nen like {@link SUF2SpatialIndex#build(File)}
+     * does, without parsing the records.
+     */
+    private void writeIndex() throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(SUF2SpatialIndex.getIndexFile(file)));
+        try {
+            out.writeInt(SUF2SpatialIndex.MAGIC);
+            out.writeInt(SUF2SpatialIndex.VERSION);
+            out.writeLong(file.length());
+            out.writeLong(file.lastModified());
+            out.writeInt(1);
+            out.writeLong(2 * LINE_LENGTH);
+            out.writeInt(2);
+            out.writeInt(RECORDS.length);
+            for (int i = 0; i < RECORDS.length; i++) {
+                out.writeLong((RECORDS[i][0] - 1) * LINE_LENGTH);
+                out.writeInt(RECORDS[i][1] * LINE_LENGTH);
+                out.writeInt(RECORDS[i][0]);
+                out.writeInt(RECORDS[i][1]);
+                out.writeDouble(ENVELOPES[i].getMinX());
+                out.writeDouble(ENVELOPES[i].getMaxX());
+                out.writeDouble(ENVELOPES[i].getMinY());
+                out.writeDouble(ENVELOPES[i].getMaxY());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private String lines(int first, int last) throws IOException {
+        String content = new String(Fixtures.read(Fixtures.SMALL), "US-ASCII");
+        return content.substring((first - 1) * LINE_LENGTH, last * LINE_LENGTH);
+    }
+
+    private static String read(SUF2FileSegments segments) throws IOException {
+        InputStream in = segments.openStream();
+        try {
+            return new String(Fixtures.readFully(in), "US-ASCII");
+        } finally {
+            in.close();
+        }
+    }
+}
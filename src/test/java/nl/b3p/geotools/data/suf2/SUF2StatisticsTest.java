@@ -0,0 +1,41 @@
+package nl.b3p.geotools.data.suf2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SUF2StatisticsTest {
+
+    @Test
+    public void testTimingIsInherited() {
+        SUF2Statistics store = new SUF2Statistics();
+        assertFalse(store.isTiming());
+        assertFalse(new SUF2Statistics(store).isTiming());
+
+        store.setTiming(true);
+        SUF2Statistics reader = new SUF2Statistics(store);
+        assertTrue(reader.isTiming());
+        assertTrue(new SUF2Statistics(reader).isTiming());
+    }
+
+    @Test
+    public void testCountsAddedToParents() {
+        SUF2Statistics store = new SUF2Statistics();
+        SUF2Statistics parallel = new SUF2Statistics(store);
+        SUF2Statistics chunk = new SUF2Statistics(parallel);
+        chunk.recordsRead(256);
+        chunk.recordRead();
+        chunk.featuresReturned(200);
+        chunk.bytesRead(1000);
+        assertEquals(257, store.getRecordsRead());
+        assertEquals(257, parallel.getRecordsRead());
+        assertEquals(200, store.getFeaturesReturned());
+        assertEquals(1000, store.getBytesRead());
+
+        chunk.reset();
+        assertEquals(0, chunk.getRecordsRead());
+        assertEquals(257, store.getRecordsRead());
+    }
+}